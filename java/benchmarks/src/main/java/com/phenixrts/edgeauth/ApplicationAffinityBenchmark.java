@@ -0,0 +1,130 @@
+package com.phenixrts.edgeauth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tokens verified per second for many applications, with one executor task per token, with a shared pool of
+ * micro-batching workers and with workers that each verify the tokens of a share of the applications.
+ * Run with increasing worker counts to compare how they scale.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ApplicationAffinityBenchmark {
+  private static final int BURST = 1000;
+
+  @Param({"1", "2", "4"})
+  public int workers;
+
+  @Param({"1000"})
+  public int applications;
+
+  private final KeyRing keyRing = new KeyRing();
+  private final List<String> tokens = new ArrayList<>();
+  private ExecutorService taskPool;
+  private AsyncVerifier sharedPool;
+  private AsyncVerifier applicationAffinity;
+
+  @Setup
+  public void setup() {
+    for (int i = 0; i < applications; i++) {
+      keyRing.setSecrets("application-" + i, "secret-" + i);
+    }
+
+    // Consecutive requests are for different applications, as on a server with many tenants.
+    for (int i = 0; i < BURST; i++) {
+      final int application = i % applications;
+
+      tokens.add(new TokenBuilder()
+          .withApplicationId("application-" + application)
+          .withSecret("secret-" + application)
+          .expiresAt(new Date(1000L))
+          .forStreamingOnly()
+          .forChannel("us-northeast#application-" + application + "#my-channel.1345")
+          .build());
+    }
+
+    Collections.shuffle(tokens);
+    taskPool = Executors.newFixedThreadPool(workers);
+    sharedPool = new AsyncVerifier.Builder().withWorkers(workers).build();
+    applicationAffinity = new AsyncVerifier.Builder().withWorkers(workers).withApplicationAffinity().build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    taskPool.shutdown();
+    sharedPool.close();
+    applicationAffinity.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BURST)
+  public void taskPerToken() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(BURST);
+    final DigestTokens digestTokens = new DigestTokens();
+
+    for (final String token : tokens) {
+      taskPool.execute(new Runnable() {
+        @Override
+        public void run() {
+          digestTokens.verifyAndDecode(keyRing, token);
+          done.countDown();
+        }
+      });
+    }
+
+    done.await();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BURST)
+  public void sharedPool() throws InterruptedException {
+    verifyBurst(sharedPool);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BURST)
+  public void applicationAffinity() throws InterruptedException {
+    verifyBurst(applicationAffinity);
+  }
+
+  private void verifyBurst(AsyncVerifier verifier) throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(BURST);
+    final VerificationFuture.Listener countDown = new VerificationFuture.Listener() {
+      @Override
+      public void onComplete(VerificationFuture future) {
+        done.countDown();
+      }
+    };
+
+    for (String token : tokens) {
+      verifier.verifyAndDecode(keyRing, token).addListener(countDown);
+    }
+
+    done.await();
+  }
+}
@@ -0,0 +1,111 @@
+package com.phenixrts.edgeauth;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time until every token of a burst is verified and its result is back on the event loop, with one executor task per
+ * token versus the micro-batching asynchronous verifier. The time of a burst is the latency of its last token.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsyncVerifierBenchmark {
+  private static final String SECRET = "my-secret";
+
+  // A burst of 500 tokens is 10 ms worth of requests at 50k verifications per second.
+  @Param({"500"})
+  public int burst;
+
+  private final DigestTokens digestTokens = new DigestTokens();
+  private ExecutorService eventLoop;
+  private ExecutorService workers;
+  private AsyncVerifier asyncVerifier;
+  private String token;
+
+  @Setup
+  public void setup() {
+    final int processors = Runtime.getRuntime().availableProcessors();
+
+    eventLoop = Executors.newSingleThreadExecutor();
+    workers = Executors.newFixedThreadPool(processors);
+    asyncVerifier = new AsyncVerifier.Builder()
+        .withDigestTokens(digestTokens)
+        .withWorkers(processors)
+        .withCompletionExecutor(eventLoop)
+        .build();
+    token = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret(SECRET)
+        .expiresAt(new Date(1000L))
+        .forStreamingOnly()
+        .forChannel("us-northeast#my-application-id#my-channel.1345")
+        .build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    asyncVerifier.close();
+    workers.shutdown();
+    eventLoop.shutdown();
+  }
+
+  @Benchmark
+  public void burstWithTaskPerToken() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(burst);
+    final Runnable countDown = new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    };
+
+    for (int i = 0; i < burst; i++) {
+      workers.execute(new Runnable() {
+        @Override
+        public void run() {
+          digestTokens.verifyAndDecode(SECRET, token);
+          eventLoop.execute(countDown);
+        }
+      });
+    }
+
+    done.await();
+  }
+
+  @Benchmark
+  public void burstWithAsyncVerifier() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(burst);
+    final VerificationFuture.Listener countDown = new VerificationFuture.Listener() {
+      @Override
+      public void onComplete(VerificationFuture future) {
+        done.countDown();
+      }
+    };
+
+    for (int i = 0; i < burst; i++) {
+      asyncVerifier.verifyAndDecode(SECRET, token).addListener(countDown);
+    }
+
+    done.await();
+  }
+}
@@ -0,0 +1,81 @@
+package com.phenixrts.edgeauth;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.xml.bind.DatatypeConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Base64 encoding and decoding of a token envelope with the codec versus {@code DatatypeConverter}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Base64Benchmark {
+  // About the size of the envelope of a streaming token, and of a token with many capabilities.
+  @Param({"300", "3000"})
+  public int length;
+
+  private byte[] decoded;
+  private String encoded;
+  private ByteBuffer encodedInDirectBuffer;
+  private byte[] encodedOutput;
+  private byte[] decodedOutput;
+
+  @Setup
+  public void setup() {
+    decoded = new byte[length];
+    new Random(42).nextBytes(decoded);
+    encoded = DatatypeConverter.printBase64Binary(decoded);
+    encodedInDirectBuffer = ByteBuffer.allocateDirect(encoded.length());
+    encodedInDirectBuffer.put(encoded.getBytes(StandardCharsets.US_ASCII)).flip();
+    encodedOutput = new byte[Base64Codec.encodedLength(length)];
+    decodedOutput = new byte[length];
+  }
+
+  @Benchmark
+  public String encodeWithDatatypeConverter() {
+    return DatatypeConverter.printBase64Binary(decoded);
+  }
+
+  @Benchmark
+  public String encodeToString() {
+    return Base64Codec.encodeToString(decoded);
+  }
+
+  @Benchmark
+  public int encodeIntoReusedBuffer() {
+    return Base64Codec.encode(decoded, 0, decoded.length, encodedOutput, 0);
+  }
+
+  @Benchmark
+  public byte[] decodeWithDatatypeConverter() {
+    return DatatypeConverter.parseBase64Binary(encoded);
+  }
+
+  @Benchmark
+  public int decodeStringIntoReusedBuffer() {
+    return Base64Codec.decode(encoded, 0, encoded.length(), decodedOutput, 0);
+  }
+
+  @Benchmark
+  public int decodeDirectBufferIntoReusedBuffer() {
+    return Base64Codec.decode(encodedInDirectBuffer, 0, encodedInDirectBuffer.limit(), decodedOutput, 0);
+  }
+}
@@ -0,0 +1,95 @@
+package com.phenixrts.edgeauth;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.json.JsonObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Signing and verifying a batch of tokens one by one and as a batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchBenchmark {
+  private static final String APPLICATION_ID = "my-application-id";
+  private static final String SECRET = "my-secret";
+
+  @Param({"10000"})
+  public int size;
+
+  private final DigestTokens digestTokens = new DigestTokens();
+  private List<JsonObject> tokens;
+  private List<String> encodedTokens;
+
+  @Setup
+  public void setup() {
+    tokens = new ArrayList<>(size);
+
+    for (int i = 0; i < size; i++) {
+      final TokenBuilder tokenBuilder = new TokenBuilder()
+          .withApplicationId(APPLICATION_ID)
+          .withSecret(SECRET)
+          .expiresAt(new Date(1000L + i))
+          .forStreamingOnly()
+          .forChannel("us-northeast#my-application-id#my-channel.1345")
+          .forSession("session-" + i);
+
+      tokenBuilder.build();
+      tokens.add(JsonFactories.READER_FACTORY.createReader(new StringReader(tokenBuilder.getValue())).readObject());
+    }
+
+    encodedTokens = digestTokens.signAndEncode(APPLICATION_ID, SECRET, tokens);
+  }
+
+  @Benchmark
+  public List<String> signOneByOne() {
+    final List<String> encodedTokens = new ArrayList<>(tokens.size());
+
+    for (JsonObject token : tokens) {
+      encodedTokens.add(digestTokens.signAndEncode(APPLICATION_ID, SECRET, token));
+    }
+
+    return encodedTokens;
+  }
+
+  @Benchmark
+  public List<String> signBatch() {
+    return digestTokens.signAndEncode(APPLICATION_ID, SECRET, tokens);
+  }
+
+  @Benchmark
+  public int verifyOneByOne() {
+    int verified = 0;
+
+    for (String encodedToken : encodedTokens) {
+      if (digestTokens.verifyAndDecode(SECRET, encodedToken).isVerified()) {
+        verified++;
+      }
+    }
+
+    return verified;
+  }
+
+  @Benchmark
+  public int verifyBatch() {
+    return digestTokens.verifyAndDecode(SECRET, encodedTokens).getCount(ECode.VERIFIED);
+  }
+}
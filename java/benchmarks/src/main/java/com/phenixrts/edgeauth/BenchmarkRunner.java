@@ -0,0 +1,52 @@
+package com.phenixrts.edgeauth;
+
+import java.io.File;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with 1, 2, 4, ... threads up to the number of available processors.
+ * Throughput and allocation per operation (GC profiler) are written as JSON to build/reports/jmh, one file per
+ * thread count, so that later changes can be compared against a baseline.
+ */
+public final class BenchmarkRunner {
+  private BenchmarkRunner() {
+  }
+
+  /**
+   * Run the benchmarks.
+   *
+   * @param args an optional regular expression selecting the benchmarks to run
+   * @throws RunnerException if a benchmark fails
+   */
+  public static void main(String[] args) throws RunnerException {
+    final String include = args.length > 0 ? args[0] : ".*Benchmark.*";
+    final int processors = Runtime.getRuntime().availableProcessors();
+    final File reports = new File("build/reports/jmh");
+
+    if (!reports.isDirectory() && !reports.mkdirs()) {
+      throw new IllegalStateException("Failed to create " + reports);
+    }
+
+    for (int threads = 1; ; threads = Math.min(threads * 2, processors)) {
+      final Options options = new OptionsBuilder()
+          .include(include)
+          .threads(threads)
+          .addProfiler(GCProfiler.class)
+          .resultFormat(ResultFormatType.JSON)
+          .result(new File(reports, "results-" + threads + "-threads.json").getPath())
+          .build();
+
+      new Runner(options).run();
+
+      if (threads == processors) {
+        break;
+      }
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package com.phenixrts.edgeauth;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Signing and verifying digest tokens.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DigestTokensBenchmark {
+  private static final String APPLICATION_ID = "my-application-id";
+  private static final String SECRET = "my-secret";
+
+  private static final JsonString MULTI_BITRATE = Json.createArrayBuilder().add("multi-bitrate").build().getJsonString(0);
+
+  private final DigestTokens digestTokens = new DigestTokens();
+  // The clock is fixed before the expiration of the token so that it stays cached.
+  private final DigestTokens cachingDigestTokens = new DigestTokens(new VerifierPolicy.Builder()
+      .withClock(new Clock() {
+        @Override
+        public long currentTimeMillis() {
+          return 0;
+        }
+      })
+      .withVerifiedTokenCache(new VerifiedTokenCache(16 * 1024 * 1024))
+      .withRejectedTokenCache(new RejectedTokenCache(1024, 60000L))
+      .build());
+  private final KeyRing keyRing = new KeyRing();
+  private MappedSecretsFile secretsFile;
+  private JsonObject token;
+  private String goodToken;
+  private String malformedToken;
+  private ByteBuffer responseBuffer;
+  private ByteBuffer requestBuffer;
+
+  @Setup
+  public void setup() throws IOException {
+    final TokenBuilder tokenBuilder = new TokenBuilder()
+        .withApplicationId(APPLICATION_ID)
+        .withSecret(SECRET)
+        .expiresAt(new Date(1000L))
+        .forStreamingOnly()
+        .withCapability("multi-bitrate")
+        .forChannel("us-northeast#my-application-id#my-channel.1345");
+
+    goodToken = tokenBuilder.build();
+    keyRing.setSecrets(APPLICATION_ID, SECRET);
+
+    final Map<String, List<String>> secrets = new HashMap<>();
+
+    for (int i = 0; i < 100000; i++) {
+      secrets.put("application-" + i, Collections.singletonList("secret-" + i));
+    }
+
+    secrets.put(APPLICATION_ID, Collections.singletonList(SECRET));
+
+    final Path path = Files.createTempDirectory("edge-auth").resolve("secrets.bin");
+
+    MappedSecretsFile.write(path, secrets);
+    secretsFile = MappedSecretsFile.open(path);
+    token = JsonFactories.READER_FACTORY.createReader(new StringReader(tokenBuilder.getValue())).readObject();
+    malformedToken = "DIGEST:" + Base64Codec.encodeToString(
+        "{\"applicationId\":\"my-application-id\",\"digest\":".getBytes(StandardCharsets.UTF_8));
+    responseBuffer = ByteBuffer.allocateDirect(digestTokens.getEncodedLength(APPLICATION_ID, token));
+    requestBuffer = ByteBuffer.allocateDirect(goodToken.length());
+    requestBuffer.put(goodToken.getBytes(StandardCharsets.US_ASCII)).flip();
+  }
+
+  @Benchmark
+  public String signAndEncode() {
+    return digestTokens.signAndEncode(APPLICATION_ID, SECRET, token);
+  }
+
+  @Benchmark
+  public int signAndEncodeIntoDirectBuffer() {
+    responseBuffer.clear();
+
+    return digestTokens.signAndEncode(APPLICATION_ID, SECRET, token, responseBuffer);
+  }
+
+  @Benchmark
+  public DigestTokens.VerifyAndDecodeResult verifyAndDecodeGoodToken() {
+    return digestTokens.verifyAndDecode(SECRET, goodToken);
+  }
+
+  @Benchmark
+  public DigestTokens.VerifyAndDecodeResult verifyAndDecodeCachedToken() {
+    return cachingDigestTokens.verifyAndDecode(SECRET, goodToken);
+  }
+
+  @Benchmark
+  public DigestTokens.VerifyAndDecodeResult verifyAndDecodeCachedTokenFromDirectBuffer() {
+    return cachingDigestTokens.verifyAndDecode(SECRET, requestBuffer);
+  }
+
+  @Benchmark
+  public ECode verifyGoodToken() {
+    return digestTokens.verify(SECRET, goodToken);
+  }
+
+  @Benchmark
+  public ECode verifyGoodTokenFromDirectBuffer() {
+    return digestTokens.verify(SECRET, requestBuffer);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    secretsFile.close();
+  }
+
+  @Benchmark
+  public ECode verifyGoodTokenWithKeyRing() {
+    return digestTokens.verify(keyRing, goodToken);
+  }
+
+  @Benchmark
+  public DigestTokens.VerifyAndDecodeResult verifyAndDecodeCachedTokenWithKeyRing() {
+    return cachingDigestTokens.verifyAndDecode(keyRing, goodToken);
+  }
+
+  @Benchmark
+  public ECode verifyGoodTokenWithMappedSecretsFile() {
+    return digestTokens.verify(secretsFile, goodToken);
+  }
+
+  @Benchmark
+  public boolean verifyAndReadClaimsFromValue() {
+    final JsonObject value = digestTokens.verifyAndDecode(SECRET, goodToken).getValue();
+
+    return value.getString("type").equals("stream")
+        && value.getJsonNumber("expires").longValue() > 0
+        && value.getString("requiredTag").startsWith("channelId:")
+        && value.getJsonArray("capabilities").contains(MULTI_BITRATE);
+  }
+
+  @Benchmark
+  public boolean verifyAndReadClaimsFromDecodedToken() {
+    final DecodedToken decodedToken = digestTokens.verifyAndDecode(SECRET, goodToken).getDecodedToken();
+
+    return decodedToken.getType() == TokenType.STREAMING
+        && decodedToken.getExpires() > 0
+        && decodedToken.getRequiredTag().startsWith("channelId:")
+        && decodedToken.hasCapability(Capability.MULTI_BITRATE);
+  }
+
+  @Benchmark
+  public DigestTokens.VerifyAndDecodeResult verifyAndDecodeBadDigest() {
+    return digestTokens.verifyAndDecode("bad-secret", goodToken);
+  }
+
+  @Benchmark
+  public DigestTokens.VerifyAndDecodeResult verifyAndDecodeCachedBadDigest() {
+    return cachingDigestTokens.verifyAndDecode("bad-secret", goodToken);
+  }
+
+  @Benchmark
+  public DigestTokens.VerifyAndDecodeResult verifyAndDecodeMalformedToken() {
+    return digestTokens.verifyAndDecode(SECRET, malformedToken);
+  }
+}
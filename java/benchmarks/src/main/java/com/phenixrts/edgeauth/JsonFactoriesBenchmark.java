@@ -0,0 +1,121 @@
+package com.phenixrts.edgeauth;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonWriter;
+import javax.json.JsonWriterFactory;
+import javax.json.stream.JsonGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per token JSON overhead of resolving the provider on every call versus using the shared factories.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonFactoriesBenchmark {
+  private JsonObject token;
+  private String tokenAsString;
+
+  @Setup
+  public void setup() {
+    token = Json.createObjectBuilder()
+        .add("expires", 1000L)
+        .add("type", "stream")
+        .add("requiredTag", "channelId:us-northeast#my-application-id#my-channel.1345")
+        .add("capabilities", Json.createArrayBuilder().add("multi-bitrate").add("streaming"))
+        .build();
+    tokenAsString = token.toString();
+  }
+
+  @Benchmark
+  public String signWithProviderLookup() {
+    final StringWriter tokenWriter = new StringWriter();
+    Json.createWriter(tokenWriter).write(token);
+
+    final JsonObject info = Json.createObjectBuilder()
+        .add("applicationId", "my-application-id")
+        .add("digest", "digest")
+        .add("token", tokenWriter.toString())
+        .build();
+    final StringWriter infoWriter = new StringWriter();
+    Json.createWriter(infoWriter).write(info);
+
+    return infoWriter.toString();
+  }
+
+  @Benchmark
+  public String signWithCachedFactories() {
+    final StringWriter tokenWriter = new StringWriter();
+    JsonFactories.WRITER_FACTORY.createWriter(tokenWriter).write(token);
+
+    final JsonObject info = JsonFactories.BUILDER_FACTORY.createObjectBuilder()
+        .add("applicationId", "my-application-id")
+        .add("digest", "digest")
+        .add("token", tokenWriter.toString())
+        .build();
+    final StringWriter infoWriter = new StringWriter();
+    JsonFactories.WRITER_FACTORY.createWriter(infoWriter).write(info);
+
+    return infoWriter.toString();
+  }
+
+  @Benchmark
+  public JsonObject readWithProviderLookup() {
+    try (JsonReader reader = Json.createReader(new StringReader(tokenAsString))) {
+      return reader.readObject();
+    }
+  }
+
+  @Benchmark
+  public JsonObject readWithCachedFactory() {
+    try (JsonReader reader = JsonFactories.READER_FACTORY.createReader(new StringReader(tokenAsString))) {
+      return reader.readObject();
+    }
+  }
+
+  @Benchmark
+  public String prettyPrintWithNewFactory() {
+    final Map<String, Object> writerOptions = new HashMap<>();
+    final StringWriter stringWriter = new StringWriter();
+
+    writerOptions.put(JsonGenerator.PRETTY_PRINTING, true);
+    final JsonWriterFactory writerFactory = Json.createWriterFactory(writerOptions);
+
+    try (JsonWriter jsonWriter = writerFactory.createWriter(stringWriter)) {
+      jsonWriter.writeObject(token);
+    }
+
+    return stringWriter.toString();
+  }
+
+  @Benchmark
+  public String prettyPrintWithCachedFactory() {
+    final StringWriter stringWriter = new StringWriter();
+
+    try (JsonWriter jsonWriter = JsonFactories.PRETTY_WRITER_FACTORY.createWriter(stringWriter)) {
+      jsonWriter.writeObject(token);
+    }
+
+    return stringWriter.toString();
+  }
+}
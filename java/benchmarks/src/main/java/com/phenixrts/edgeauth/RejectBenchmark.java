@@ -0,0 +1,138 @@
+package com.phenixrts.edgeauth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import javax.json.Json;
+import javax.json.JsonArray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Worst case latency of rejecting oversized and deeply nested tokens with and without a limiting policy. The tokens are
+ * validly signed, so that without limits they are decoded, parsed and verified in full.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RejectBenchmark {
+  private static final int LARGE_SIZE = 1024 * 1024;
+  // Deep enough to be costly, while staying within the length limits so that the nesting is what is rejected.
+  private static final int DEEP_NESTING = 900;
+
+  private final DigestTokens unlimited = new DigestTokens();
+  private final DigestTokens limited = new DigestTokens(new VerifierPolicy.Builder()
+      .withMaxEncodedLength(4096)
+      .withMaxDecodedLength(3072)
+      .withMaxNestingDepth(4)
+      .withMaxStringLength(2048)
+      .build());
+  private String largeToken;
+  private String deeplyNestedToken;
+  private String deeplyNestedClaimsToken;
+  private String longStringToken;
+
+  @Setup
+  public void setup() {
+    final char[] value = new char[LARGE_SIZE];
+    Arrays.fill(value, 'a');
+
+    largeToken = createToken(new String(value));
+    longStringToken = createToken(new String(value, 0, 2500));
+
+    final char[] open = new char[DEEP_NESTING];
+    final char[] close = new char[DEEP_NESTING];
+    Arrays.fill(open, '[');
+    Arrays.fill(close, ']');
+
+    // Fields of the envelope other than the signed token do not change its digest.
+    final String envelope = decode(createToken("my-channel"));
+
+    deeplyNestedToken = encode("{\"a\":" + new String(open) + new String(close) + "," + envelope.substring(1));
+
+    JsonArray nested = Json.createArrayBuilder().build();
+
+    for (int i = 1; i < DEEP_NESTING; i++) {
+      nested = Json.createArrayBuilder().add(nested).build();
+    }
+
+    deeplyNestedClaimsToken = unlimited.signAndEncode("my-application-id", "my-secret", Json.createObjectBuilder()
+        .add(DigestTokens.FIELD_EXPIRES, 1000L)
+        .add("nested", nested)
+        .build());
+  }
+
+  @Benchmark
+  public ECode largeTokenUnlimited() {
+    return unlimited.verify("my-secret", largeToken);
+  }
+
+  @Benchmark
+  public ECode largeTokenLimited() {
+    return limited.verify("my-secret", largeToken);
+  }
+
+  @Benchmark
+  public ECode deeplyNestedTokenUnlimited() {
+    return unlimited.verify("my-secret", deeplyNestedToken);
+  }
+
+  @Benchmark
+  public ECode deeplyNestedTokenLimited() {
+    return limited.verify("my-secret", deeplyNestedToken);
+  }
+
+  @Benchmark
+  public ECode deeplyNestedClaimsTokenUnlimited() {
+    return unlimited.verify("my-secret", deeplyNestedClaimsToken);
+  }
+
+  @Benchmark
+  public ECode deeplyNestedClaimsTokenLimited() {
+    return limited.verify("my-secret", deeplyNestedClaimsToken);
+  }
+
+  @Benchmark
+  public ECode longStringTokenUnlimited() {
+    return unlimited.verify("my-secret", longStringToken);
+  }
+
+  @Benchmark
+  public ECode longStringTokenLimited() {
+    return limited.verify("my-secret", longStringToken);
+  }
+
+  private static String createToken(String channelAlias) {
+    return new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(new Date(1000L))
+        .forChannelAlias(channelAlias)
+        .build();
+  }
+
+  private static String decode(String token) {
+    final int start = DigestTokens.DIGEST_TOKEN_PREFIX.length();
+    final byte[] decoded = new byte[Base64Codec.decodedLength(token, start, token.length())];
+    final int length = Base64Codec.decode(token, start, token.length(), decoded, 0);
+
+    return new String(decoded, 0, length, StandardCharsets.UTF_8);
+  }
+
+  private static String encode(String envelope) {
+    return DigestTokens.DIGEST_TOKEN_PREFIX + Base64Codec.encodeToString(envelope.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,102 @@
+package com.phenixrts.edgeauth;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building and signing tokens with the field mixes used by the platform.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenBuilderBenchmark {
+  private static final Date EXPIRES = new Date(1000L);
+
+  @Param({"channel", "capabilities", "applyTags", "remoteAddress"})
+  public String fields;
+
+  private TokenTemplate template;
+  private TokenIssuanceCache issuanceCache;
+
+  @Setup
+  public void setup() {
+    template = createTokenBuilder().buildTemplate();
+    issuanceCache = new TokenIssuanceCache.Builder().build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    issuanceCache.close();
+  }
+
+  @Benchmark
+  public String build() {
+    return createTokenBuilder().build();
+  }
+
+  @Benchmark
+  public String mintFromTemplate() {
+    return template.mint(EXPIRES);
+  }
+
+  @Benchmark
+  public String issueFromCache() {
+    return issuanceCache.issue(createTokenBuilder());
+  }
+
+  private TokenBuilder createTokenBuilder() {
+    final TokenBuilder tokenBuilder = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(EXPIRES);
+
+    switch (fields) {
+      case "channel":
+        tokenBuilder
+            .forStreamingOnly()
+            .forChannel("us-northeast#my-application-id#my-channel.1345");
+        break;
+      case "capabilities":
+        tokenBuilder
+            .forPublishingOnly()
+            .withCapability("multi-bitrate")
+            .withCapability("streaming")
+            .forChannelAlias("my-channel");
+        break;
+      case "applyTags":
+        tokenBuilder
+            .forPublishingOnly()
+            .forChannelAlias("my-channel")
+            .applyTag("customer1")
+            .applyTag("premium");
+        break;
+      case "remoteAddress":
+        tokenBuilder
+            .forStreamingOnly()
+            .forSession("session-id-1234")
+            .forRemoteAddress("10.1.2.3")
+            .forChannelAlias("my-channel");
+        break;
+      default:
+        throw new IllegalArgumentException(fields);
+    }
+
+    return tokenBuilder;
+  }
+}
@@ -0,0 +1,95 @@
+package com.phenixrts.edgeauth;
+
+import java.io.CharArrayReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading the application ID, digest and token from a decoded envelope with the pull parser versus a JSON tree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenEnvelopeBenchmark {
+  private static final String[] STRING_FIELDS = {
+      DigestTokens.FIELD_APPLICATION_ID, DigestTokens.FIELD_DIGEST, DigestTokens.FIELD_TOKEN};
+
+  private final TokenEnvelope envelope = new TokenEnvelope();
+  private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private byte[] decoded;
+  private byte[] parsed;
+  private char[] chars;
+
+  @Setup
+  public void setup() {
+    final String encodedToken = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(new Date(1000L))
+        .forStreamingOnly()
+        .withCapability("multi-bitrate")
+        .forChannel("us-northeast#my-application-id#my-channel.1345")
+        .build();
+    final int start = DigestTokens.DIGEST_TOKEN_PREFIX.length();
+
+    decoded = new byte[Base64Codec.decodedLength(encodedToken, start, encodedToken.length())];
+    Base64Codec.decode(encodedToken, start, encodedToken.length(), decoded, 0);
+    parsed = new byte[decoded.length];
+    chars = new char[decoded.length];
+  }
+
+  @Benchmark
+  public int parseWithPullParser() {
+    // The parser unescapes in place, so each run starts from a fresh copy, as a freshly decoded token would.
+    System.arraycopy(decoded, 0, parsed, 0, decoded.length);
+
+    return envelope.parse(parsed, parsed.length) ? envelope.getTokenEnd() : -1;
+  }
+
+  @Benchmark
+  public String parseWithJsonReader() {
+    final CharBuffer buffer = CharBuffer.wrap(chars);
+
+    decoder.reset().decode(ByteBuffer.wrap(decoded), buffer, true);
+    decoder.flush(buffer);
+
+    final JsonObject info;
+
+    try (JsonReader reader = JsonFactories.READER_FACTORY.createReader(
+        new CharArrayReader(chars, 0, buffer.position()))) {
+      info = reader.readObject();
+    }
+
+    for (String field : STRING_FIELDS) {
+      if (!info.containsKey(field) || info.get(field).getValueType() != JsonValue.ValueType.STRING) {
+        return null;
+      }
+    }
+
+    return info.getString(DigestTokens.FIELD_TOKEN);
+  }
+}
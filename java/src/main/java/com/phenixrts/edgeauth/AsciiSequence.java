@@ -0,0 +1,87 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Characters of an encoded token read in place from the remaining bytes of a buffer, one character per byte.
+ * Instances are reused by the thread that owns them and must be cleared after use, so that they do not hold on to the
+ * buffer.
+ */
+final class AsciiSequence implements CharSequence {
+  private ByteBuffer buffer;
+  private int offset;
+  private int length;
+
+  /**
+   * View the bytes between the position and the limit of a buffer, without changing the position.
+   */
+  AsciiSequence wrap(ByteBuffer buffer) {
+    return wrap(buffer, buffer.position(), buffer.limit());
+  }
+
+  /**
+   * View the bytes of a buffer between absolute indices, without changing the position.
+   */
+  AsciiSequence wrap(ByteBuffer buffer, int from, int to) {
+    this.buffer = buffer;
+    this.offset = from;
+    this.length = to - from;
+
+    return this;
+  }
+
+  void clear() {
+    this.buffer = null;
+    this.offset = 0;
+    this.length = 0;
+  }
+
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+
+    return (char) (buffer.get(offset + index) & 0xff);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return toString().substring(start, end);
+  }
+
+  /**
+   * Copy the characters, e.g. to keep the token in a cache.
+   */
+  @Override
+  public String toString() {
+    final char[] chars = new char[length];
+
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char) (buffer.get(offset + i) & 0xff);
+    }
+
+    return new String(chars);
+  }
+}
@@ -0,0 +1,538 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Verifies tokens on its own worker threads, so that event loops do not block on cryptography.
+ * <p>
+ * Requests are queued in a bounded queue. Each worker takes all queued requests up to the maximum batch size at once
+ * and verifies them in a row, reusing its keyed HMAC and buffers. The futures of a batch are then completed together,
+ * with a single task on the completion executor if one is given. Under a burst, this costs one wake-up and one
+ * hand-off per batch rather than per token.
+ * <p>
+ * A request is rejected without waiting when the queue is full or the verifier is closed: its future fails with a
+ * {@link RejectedExecutionException}.
+ * <p>
+ * With application affinity, each worker has its own queue and its own key cache. Requests are routed by their
+ * application ID, so that all tokens of an application are verified by the same worker. With many applications, each
+ * worker then keeps the keyed HMAC of a share of them, instead of every thread keying its HMAC again whenever the next
+ * token is for another application. The key caches of the workers are confined from the key cache of the digest
+ * tokens and drop the keys invalidated in it.
+ */
+public final class AsyncVerifier implements Closeable {
+  public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+  public static final int DEFAULT_MAX_BATCH_SIZE = 32;
+  // How long an idle worker waits before checking if the verifier was closed.
+  private static final long IDLE_CHECK_INTERVAL_IN_MILLISECONDS = 100;
+  private static final byte[] ENVELOPE_START = ("{\"" + DigestTokens.FIELD_APPLICATION_ID + "\":\"")
+      .getBytes(StandardCharsets.UTF_8);
+  // Base64 characters decoded to route a request, enough for the start of the envelope and most application IDs.
+  private static final int ROUTING_PREFIX_LENGTH = 256;
+
+  private final int maxBatchSize;
+  private final Executor completionExecutor;
+  private final boolean applicationAffinity;
+  private final HmacKeyCache sharedKeyCache;
+  private final Worker[] workers;
+  private final List<BlockingQueue<Request>> queues = new ArrayList<>();
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private volatile boolean closed;
+
+  /**
+   * Builder for asynchronous verifiers.
+   */
+  public static final class Builder {
+    private DigestTokens digestTokens;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private Executor completionExecutor;
+    private boolean applicationAffinity;
+
+    /**
+     * The digest tokens verifying the requests, with their policy and caches (optional, defaults to digest tokens
+     * with the default policy).
+     *
+     * @param digestTokens the digest tokens
+     * @return itself
+     */
+    @Contract("null -> fail, _ -> this")
+    public Builder withDigestTokens(DigestTokens digestTokens) {
+      if (digestTokens == null) {
+        throw new RuntimeException("Digest tokens must not be null");
+      }
+
+      this.digestTokens = digestTokens;
+
+      return this;
+    }
+
+    /**
+     * The number of worker threads (optional, defaults to the number of processors).
+     *
+     * @param workers the number of workers
+     * @return itself
+     */
+    @Contract("_ -> this")
+    public Builder withWorkers(int workers) {
+      if (workers <= 0) {
+        throw new RuntimeException("Workers must be positive");
+      }
+
+      this.workers = workers;
+
+      return this;
+    }
+
+    /**
+     * The maximum number of requests waiting to be verified (optional, defaults to {@link #DEFAULT_QUEUE_CAPACITY}).
+     *
+     * @param queueCapacity the queue capacity
+     * @return itself
+     */
+    @Contract("_ -> this")
+    public Builder withQueueCapacity(int queueCapacity) {
+      if (queueCapacity <= 0) {
+        throw new RuntimeException("Queue capacity must be positive");
+      }
+
+      this.queueCapacity = queueCapacity;
+
+      return this;
+    }
+
+    /**
+     * The maximum number of requests a worker verifies before completing their futures (optional, defaults to
+     * {@link #DEFAULT_MAX_BATCH_SIZE}).
+     *
+     * @param maxBatchSize the maximum batch size
+     * @return itself
+     */
+    @Contract("_ -> this")
+    public Builder withMaxBatchSize(int maxBatchSize) {
+      if (maxBatchSize <= 0) {
+        throw new RuntimeException("Maximum batch size must be positive");
+      }
+
+      this.maxBatchSize = maxBatchSize;
+
+      return this;
+    }
+
+    /**
+     * The executor completing the futures and notifying their listeners (optional, defaults to the worker threads).
+     * Use it to get the results back onto an event loop. If the executor rejects a batch, its futures are completed on
+     * the worker thread.
+     *
+     * @param completionExecutor the executor
+     * @return itself
+     */
+    @Contract("null -> fail, _ -> this")
+    public Builder withCompletionExecutor(Executor completionExecutor) {
+      if (completionExecutor == null) {
+        throw new RuntimeException("Completion executor must not be null");
+      }
+
+      this.completionExecutor = completionExecutor;
+
+      return this;
+    }
+
+    /**
+     * Route requests to the workers by application ID (optional, by default any worker verifies any request). Each
+     * worker then has its own queue, holding its share of the queue capacity, and its own key cache confined from the
+     * key cache of the digest tokens. It has the same capacity, and keys invalidated in the key cache of the digest
+     * tokens, e.g. by a key ring using it, are dropped from the caches of the workers as well.
+     *
+     * @return itself
+     */
+    @Contract(" -> this")
+    public Builder withApplicationAffinity() {
+      this.applicationAffinity = true;
+
+      return this;
+    }
+
+    /**
+     * Build the verifier and start its workers.
+     *
+     * @return the verifier
+     */
+    @NotNull
+    public AsyncVerifier build() {
+      return new AsyncVerifier(this);
+    }
+  }
+
+  private static final class Request {
+    private final String secret;
+    private final SecretSource secretSource;
+    private final String encodedToken;
+    private final VerificationFuture future = new VerificationFuture();
+    private DigestTokens.VerifyAndDecodeResult result;
+    private RuntimeException cause;
+
+    private Request(String secret, SecretSource secretSource, String encodedToken) {
+      this.secret = secret;
+      this.secretSource = secretSource;
+      this.encodedToken = encodedToken;
+    }
+
+    private void complete() {
+      if (cause != null) {
+        future.fail(cause);
+      } else {
+        future.complete(result);
+      }
+    }
+  }
+
+  private static final class Completion implements Runnable {
+    private final Request[] requests;
+
+    private Completion(Request[] requests) {
+      this.requests = requests;
+    }
+
+    @Override
+    public void run() {
+      for (Request request : requests) {
+        request.complete();
+      }
+    }
+  }
+
+  private final class Worker implements Runnable {
+    private final BlockingQueue<Request> queue;
+    private final DigestTokens digestTokens;
+
+    private Worker(BlockingQueue<Request> queue, DigestTokens digestTokens) {
+      this.queue = queue;
+      this.digestTokens = digestTokens;
+    }
+
+    @Override
+    public void run() {
+      try {
+        work();
+      } finally {
+        if (applicationAffinity) {
+          // The worker's cache is no longer used, so the shared cache stops passing its invalidations on.
+          sharedKeyCache.release(digestTokens.getKeyCache());
+        }
+      }
+    }
+
+    private void work() {
+      final List<Request> batch = new ArrayList<>(maxBatchSize);
+
+      while (true) {
+        Request first = queue.poll();
+
+        if (first == null) {
+          if (closed) {
+            return;
+          }
+
+          try {
+            first = queue.poll(IDLE_CHECK_INTERVAL_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
+          } catch (InterruptedException e) {
+            // Workers only stop once the verifier is closed and the queue is empty.
+            continue;
+          }
+
+          if (first == null) {
+            continue;
+          }
+        }
+
+        batch.add(first);
+        queue.drainTo(batch, maxBatchSize - 1);
+
+        for (Request request : batch) {
+          verify(request);
+        }
+
+        batches.incrementAndGet();
+        completed.addAndGet(batch.size());
+        complete(batch.toArray(new Request[batch.size()]));
+        batch.clear();
+      }
+    }
+
+    private void verify(Request request) {
+      try {
+        request.result = request.secretSource == null
+            ? digestTokens.verifyAndDecode(request.secret, request.encodedToken)
+            : digestTokens.verifyAndDecode(request.secretSource, request.encodedToken);
+      } catch (RuntimeException e) {
+        request.cause = e;
+      }
+    }
+  }
+
+  private AsyncVerifier(Builder builder) {
+    final DigestTokens digestTokens = builder.digestTokens == null ? new DigestTokens() : builder.digestTokens;
+
+    this.maxBatchSize = builder.maxBatchSize;
+    this.completionExecutor = builder.completionExecutor;
+    this.applicationAffinity = builder.applicationAffinity;
+    this.sharedKeyCache = digestTokens.getKeyCache();
+    this.workers = new Worker[builder.workers];
+
+    if (applicationAffinity) {
+      final int queueCapacity = Math.max(1, builder.queueCapacity / workers.length);
+
+      for (int i = 0; i < workers.length; i++) {
+        final BlockingQueue<Request> queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        queues.add(queue);
+        workers[i] = new Worker(queue, digestTokens.withKeyCache(sharedKeyCache.confine()));
+      }
+    } else {
+      final BlockingQueue<Request> queue = new ArrayBlockingQueue<>(builder.queueCapacity);
+
+      queues.add(queue);
+
+      for (int i = 0; i < workers.length; i++) {
+        workers[i] = new Worker(queue, digestTokens);
+      }
+    }
+
+    for (int i = 0; i < workers.length; i++) {
+      final Thread thread = new Thread(workers[i], "edge-auth-verifier-" + i);
+
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Verify and decode an encoded token on a worker thread.
+   *
+   * @param secret       the secret used to encode the token
+   * @param encodedToken the encoded token
+   * @return the future result
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public VerificationFuture verifyAndDecode(String secret, String encodedToken) {
+    if (secret == null) {
+      throw new RuntimeException("Secret must not be null");
+    }
+
+    if (encodedToken == null) {
+      throw new RuntimeException("Encoded token must not be null");
+    }
+
+    return submit(new Request(secret, null, encodedToken));
+  }
+
+  /**
+   * Verify and decode an encoded token on a worker thread, using the secrets of its application.
+   *
+   * @param secretSource the source of the secrets of the applications
+   * @param encodedToken the encoded token
+   * @return the future result
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public VerificationFuture verifyAndDecode(SecretSource secretSource, String encodedToken) {
+    if (secretSource == null) {
+      throw new RuntimeException("Secret source must not be null");
+    }
+
+    if (encodedToken == null) {
+      throw new RuntimeException("Encoded token must not be null");
+    }
+
+    return submit(new Request(null, secretSource, encodedToken));
+  }
+
+  /**
+   * Get the number of worker threads.
+   *
+   * @return the number of workers
+   */
+  @Contract(pure = true)
+  public int getWorkers() {
+    return workers.length;
+  }
+
+  /**
+   * Check if requests are routed to the workers by application ID.
+   *
+   * @return true, if the verifier has application affinity
+   */
+  @Contract(pure = true)
+  public boolean hasApplicationAffinity() {
+    return applicationAffinity;
+  }
+
+  /**
+   * Get the number of requests waiting to be verified.
+   *
+   * @return the number of queued requests
+   */
+  public int getQueuedCount() {
+    int count = 0;
+
+    for (BlockingQueue<Request> queue : queues) {
+      count += queue.size();
+    }
+
+    return count;
+  }
+
+  /**
+   * Get the number of verified requests.
+   *
+   * @return the number of completed requests
+   */
+  public long getCompletedCount() {
+    return completed.get();
+  }
+
+  /**
+   * Get the number of batches the workers verified. The completed count divided by the batch count is the average
+   * batch size.
+   *
+   * @return the number of batches
+   */
+  public long getBatchCount() {
+    return batches.get();
+  }
+
+  /**
+   * Get the number of requests rejected because the queue was full or the verifier was closed.
+   *
+   * @return the number of rejected requests
+   */
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  /**
+   * Stop accepting requests. Queued requests are still verified before the workers stop.
+   */
+  @Override
+  public void close() {
+    closed = true;
+  }
+
+  private VerificationFuture submit(Request request) {
+    if (closed) {
+      return reject(request, "Verifier is closed");
+    }
+
+    final BlockingQueue<Request> queue = applicationAffinity
+        ? workers[route(request.encodedToken, workers.length)].queue
+        : queues.get(0);
+
+    if (!queue.offer(request)) {
+      return reject(request, "Verification queue is full");
+    }
+
+    // The workers may have stopped after checking the queue for the last time.
+    if (closed && queue.remove(request)) {
+      return reject(request, "Verifier is closed");
+    }
+
+    return request.future;
+  }
+
+  private VerificationFuture reject(Request request, String message) {
+    rejected.incrementAndGet();
+    request.cause = new RejectedExecutionException(message);
+    complete(new Request[]{request});
+
+    return request.future;
+  }
+
+  /**
+   * Get the worker for a token by its application ID. Only the start of the envelope is decoded, and the application ID
+   * is hashed as it is encoded, up to the end of the decoded prefix for very long ones. Tokens that cannot be read this
+   * way are routed by their whole value, which still spreads them evenly.
+   */
+  static int route(String encodedToken, int workerCount) {
+    final int start = DigestTokens.DIGEST_TOKEN_PREFIX.length();
+    int hash = encodedToken.hashCode();
+
+    if (encodedToken.startsWith(DigestTokens.DIGEST_TOKEN_PREFIX)) {
+      // A prefix of whole groups of four characters decodes on its own, a short token is decoded with its padding.
+      final int end = Math.min(encodedToken.length(), start + ROUTING_PREFIX_LENGTH);
+      final byte[] decoded = TokenBuffers.get().decoded(ROUTING_PREFIX_LENGTH / 4 * 3);
+      final int length = Base64Codec.decode(encodedToken, start, end, decoded, 0);
+
+      if (length >= ENVELOPE_START.length && startsWithApplicationId(decoded)) {
+        hash = 1;
+
+        for (int i = ENVELOPE_START.length; i < length && decoded[i] != '"'; i++) {
+          // The character after a backslash is part of the application ID, even if it is a quote.
+          if (decoded[i] == '\\' && i + 1 < length) {
+            hash = 31 * hash + decoded[i++];
+          }
+
+          hash = 31 * hash + decoded[i];
+        }
+      }
+    }
+
+    return ((hash ^ hash >>> 16) & Integer.MAX_VALUE) % workerCount;
+  }
+
+  private static boolean startsWithApplicationId(byte[] decoded) {
+    for (int i = 0; i < ENVELOPE_START.length; i++) {
+      if (decoded[i] != ENVELOPE_START[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private void complete(Request[] requests) {
+    final Completion completion = new Completion(requests);
+
+    if (completionExecutor != null) {
+      try {
+        completionExecutor.execute(completion);
+
+        return;
+      } catch (RejectedExecutionException e) {
+        // Fall through and complete on this thread, so that no future is left pending.
+      }
+    }
+
+    completion.run();
+  }
+}
@@ -0,0 +1,351 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Base64 encoding and decoding with caller supplied buffers.
+ * The results are the same as those of {@code javax.xml.bind.DatatypeConverter}, including for values it is lenient
+ * about: characters outside of the alphabet are skipped, an incomplete last group is dropped and extra padding is
+ * ignored. Values it fails to decode, such as those with characters outside of ASCII, are rejected.
+ */
+final class Base64Codec {
+  private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+  private static final char PADDING = '=';
+  // The codes of characters that are not sextets. Padding has the code DatatypeConverter gives it, because it ends up
+  // in the decoded bytes when padding is out of place.
+  private static final int PADDING_CODE = 127;
+  private static final int SKIPPED = -1;
+  private static final int INVALID = -2;
+  // Covers every byte value, so that bytes are looked up without a range check.
+  private static final int[] DECODE_TABLE = new int[256];
+
+  static {
+    Arrays.fill(DECODE_TABLE, 0, 128, SKIPPED);
+    Arrays.fill(DECODE_TABLE, 128, 256, INVALID);
+    DECODE_TABLE[PADDING] = PADDING_CODE;
+
+    for (int i = 0; i < ALPHABET.length; i++) {
+      DECODE_TABLE[ALPHABET[i]] = i;
+    }
+  }
+
+  private Base64Codec() {
+  }
+
+  /**
+   * Get the number of characters needed to encode a number of bytes, including padding.
+   */
+  static int encodedLength(int length) {
+    return (length + 2) / 3 * 4;
+  }
+
+  /**
+   * Encode bytes into a new string, with padding.
+   */
+  static String encodeToString(byte[] source) {
+    final byte[] destination = new byte[encodedLength(source.length)];
+
+    encode(source, 0, source.length, destination, 0);
+
+    return new String(destination, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Encode a range of bytes into a character buffer, with padding.
+   *
+   * @return the offset after the last character written
+   */
+  static int encode(byte[] source, int from, int to, char[] destination, int offset) {
+    final int fullTriplesEnd = from + (to - from) / 3 * 3;
+    int position = offset;
+    int i = from;
+
+    while (i < fullTriplesEnd) {
+      final int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8 | source[i + 2] & 0xff;
+
+      destination[position++] = ALPHABET[bits >>> 18];
+      destination[position++] = ALPHABET[bits >>> 12 & 0x3f];
+      destination[position++] = ALPHABET[bits >>> 6 & 0x3f];
+      destination[position++] = ALPHABET[bits & 0x3f];
+      i += 3;
+    }
+
+    if (i < to) {
+      final int bits = (source[i] & 0xff) << 16 | (i + 1 < to ? (source[i + 1] & 0xff) << 8 : 0);
+
+      destination[position++] = ALPHABET[bits >>> 18];
+      destination[position++] = ALPHABET[bits >>> 12 & 0x3f];
+      destination[position++] = i + 1 < to ? ALPHABET[bits >>> 6 & 0x3f] : PADDING;
+      destination[position++] = PADDING;
+    }
+
+    return position;
+  }
+
+  /**
+   * Encode a range of bytes into a byte buffer as ASCII characters, with padding.
+   *
+   * @return the offset after the last byte written
+   */
+  static int encode(byte[] source, int from, int to, byte[] destination, int offset) {
+    final int fullTriplesEnd = from + (to - from) / 3 * 3;
+    int position = offset;
+    int i = from;
+
+    while (i < fullTriplesEnd) {
+      final int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8 | source[i + 2] & 0xff;
+
+      destination[position++] = (byte) ALPHABET[bits >>> 18];
+      destination[position++] = (byte) ALPHABET[bits >>> 12 & 0x3f];
+      destination[position++] = (byte) ALPHABET[bits >>> 6 & 0x3f];
+      destination[position++] = (byte) ALPHABET[bits & 0x3f];
+      i += 3;
+    }
+
+    if (i < to) {
+      final int bits = (source[i] & 0xff) << 16 | (i + 1 < to ? (source[i + 1] & 0xff) << 8 : 0);
+
+      destination[position++] = (byte) ALPHABET[bits >>> 18];
+      destination[position++] = (byte) ALPHABET[bits >>> 12 & 0x3f];
+      destination[position++] = (byte) (i + 1 < to ? ALPHABET[bits >>> 6 & 0x3f] : PADDING);
+      destination[position++] = (byte) PADDING;
+    }
+
+    return position;
+  }
+
+  /**
+   * Get the number of bytes a range of characters can decode to at most. Like DatatypeConverter, this is exact for a
+   * padded value without other characters outside of the alphabet.
+   *
+   * @return the maximum decoded length, or -1 if the range cannot be decoded
+   */
+  static int decodedLength(CharSequence source, int from, int to) {
+    int end = to;
+
+    while (end > from) {
+      final int code = code(source.charAt(end - 1));
+
+      if (code != PADDING_CODE) {
+        return guessedLength(from, to, end, code);
+      }
+
+      end--;
+    }
+
+    return guessedLength(from, to, end, PADDING_CODE);
+  }
+
+  /**
+   * Decode a range of characters into a buffer of at least {@link #decodedLength(CharSequence, int, int)} bytes.
+   * Characters outside of the alphabet are skipped and a trailing incomplete group is dropped, as DatatypeConverter
+   * does.
+   *
+   * @return the number of bytes written, or -1 if the range cannot be decoded
+   */
+  static int decode(CharSequence source, int from, int to, byte[] destination, int offset) {
+    final int maxLength = decodedLength(source, from, to);
+
+    if (maxLength < 0) {
+      return -1;
+    }
+
+    final int limit = offset + maxLength;
+    int position = offset;
+    int i = from;
+
+    // Groups of four characters of the alphabet, which is all of a value but its padded end.
+    while (i + 4 <= to) {
+      final int code0 = code(source.charAt(i));
+      final int code1 = code(source.charAt(i + 1));
+      final int code2 = code(source.charAt(i + 2));
+      final int code3 = code(source.charAt(i + 3));
+
+      if (((code0 | code1 | code2 | code3) & ~0x3f) != 0 || position + 3 > limit) {
+        break;
+      }
+
+      final int bits = code0 << 18 | code1 << 12 | code2 << 6 | code3;
+
+      destination[position++] = (byte) (bits >> 16);
+      destination[position++] = (byte) (bits >> 8);
+      destination[position++] = (byte) bits;
+      i += 4;
+    }
+
+    int group = 0;
+    int count = 0;
+
+    for (; i < to && position >= 0; i++) {
+      final int code = code(source.charAt(i));
+
+      if (code == INVALID) {
+        return -1;
+      }
+
+      if (code != SKIPPED) {
+        group = group << 8 | code;
+
+        if (++count == 4) {
+          position = decodeGroup(group, destination, position, limit);
+          count = 0;
+        }
+      }
+    }
+
+    return position < 0 ? -1 : position - offset;
+  }
+
+  /**
+   * Decode the canonical encoding of exactly as many bytes as the destination holds from a range of ASCII characters,
+   * with padding and without any other characters, like the value returned by
+   * {@link #encode(byte[], int, int, byte[], int)}.
+   *
+   * @return true, if the range is the canonical encoding of the bytes written
+   */
+  static boolean decodeCanonical(byte[] source, int from, int to, byte[] destination) {
+    if (to - from != encodedLength(destination.length)) {
+      return false;
+    }
+
+    final int end = to - (3 - destination.length % 3) % 3;
+
+    for (int i = end; i < to; i++) {
+      if (source[i] != PADDING) {
+        return false;
+      }
+    }
+
+    int bits = 0;
+    int bitCount = 0;
+    int position = 0;
+
+    for (int i = from; i < end; i++) {
+      final int code = DECODE_TABLE[source[i] & 0xff];
+
+      if ((code & ~0x3f) != 0) {
+        return false;
+      }
+
+      bits = bits << 6 | code;
+      bitCount += 6;
+
+      if (bitCount >= 8) {
+        bitCount -= 8;
+        destination[position++] = (byte) (bits >> bitCount);
+      }
+    }
+
+    // Unused bits must be zero, otherwise several encodings would decode to the same bytes.
+    return (bits & (1 << bitCount) - 1) == 0;
+  }
+
+  /**
+   * Get the number of bytes a range of ASCII characters can decode to at most.
+   *
+   * @return the maximum decoded length, or -1 if the range cannot be decoded
+   */
+  static int decodedLength(byte[] source, int from, int to) {
+    return decodedLength(ByteBuffer.wrap(source), from, to);
+  }
+
+  /**
+   * Get the number of bytes a range of ASCII characters of a buffer, using absolute indices, can decode to at most.
+   *
+   * @return the maximum decoded length, or -1 if the range cannot be decoded
+   */
+  static int decodedLength(ByteBuffer source, int from, int to) {
+    return decodedLength(new AsciiSequence().wrap(source, from, to), 0, to - from);
+  }
+
+  /**
+   * Decode a range of ASCII characters into a buffer of at least {@link #decodedLength(byte[], int, int)} bytes, in
+   * the same way as characters.
+   *
+   * @return the number of bytes written, or -1 if the range cannot be decoded
+   */
+  static int decode(byte[] source, int from, int to, byte[] destination, int offset) {
+    return decode(ByteBuffer.wrap(source), from, to, destination, offset);
+  }
+
+  /**
+   * Decode a range of ASCII characters of a buffer, using absolute indices, into a byte array of at least
+   * {@link #decodedLength(ByteBuffer, int, int)} bytes. The position of the buffer is not changed.
+   *
+   * @return the number of bytes written, or -1 if the range cannot be decoded
+   */
+  static int decode(ByteBuffer source, int from, int to, byte[] destination, int offset) {
+    return decode(new AsciiSequence().wrap(source, from, to), 0, to - from, destination, offset);
+  }
+
+  private static int code(char value) {
+    return value < DECODE_TABLE.length ? DECODE_TABLE[value] : INVALID;
+  }
+
+  /**
+   * Get the length DatatypeConverter allocates for a range whose last character that is not padding is at end - 1.
+   * It fails on the same values, where that length is negative or too small, and on characters outside of ASCII.
+   */
+  private static int guessedLength(int from, int to, int end, int lastCode) {
+    if (lastCode == INVALID) {
+      return -1;
+    }
+
+    final int padding = to - end;
+
+    // Values with characters outside of the alphabet at their end or with too much padding are given the upper bound.
+    if (lastCode == SKIPPED || padding > 2) {
+      return (to - from) / 4 * 3;
+    }
+
+    return Math.max((to - from) / 4 * 3 - padding, -1);
+  }
+
+  /**
+   * Decode a group of four codes, one per byte, where padding only shortens the output. Out of place padding is
+   * decoded with its code, as DatatypeConverter does.
+   *
+   * @return the position after the bytes written, or -1 if they do not fit before the limit
+   */
+  private static int decodeGroup(int group, byte[] destination, int position, int limit) {
+    final int code0 = group >>> 24;
+    final int code1 = group >>> 16 & 0xff;
+    final int code2 = group >>> 8 & 0xff;
+    final int code3 = group & 0xff;
+    final int length = 1 + (code2 != PADDING_CODE ? 1 : 0) + (code3 != PADDING_CODE ? 1 : 0);
+    int next = position;
+
+    if (next + length > limit) {
+      return -1;
+    }
+
+    destination[next++] = (byte) (code0 << 2 | code1 >> 4);
+
+    if (code2 != PADDING_CODE) {
+      destination[next++] = (byte) (code1 << 4 | code2 >> 2);
+    }
+
+    if (code3 != PADDING_CODE) {
+      destination[next++] = (byte) (code2 << 6 | code3);
+    }
+
+    return next;
+  }
+}
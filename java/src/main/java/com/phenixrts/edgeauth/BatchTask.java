@@ -0,0 +1,105 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join task over a range of indexes of a batch.
+ * <p>
+ * The range is split in halves until it is no larger than the chunk size. Each chunk is processed by a single worker,
+ * which can reuse its state across the chunk. Results are written by index, so that the order of the output does not
+ * depend on the order in which the chunks complete.
+ */
+@SuppressWarnings("serial")
+abstract class BatchTask extends RecursiveAction {
+  /**
+   * Batches up to this size are processed on the calling thread.
+   */
+  static final int MIN_CHUNK_SIZE = 256;
+  // Chunks per worker, so that workers finishing early can steal work from slower ones.
+  private static final int CHUNKS_PER_WORKER = 4;
+
+  private final int from;
+  private final int to;
+  private final int chunkSize;
+
+  private static final class DefaultPool {
+    private static final ForkJoinPool INSTANCE = new ForkJoinPool();
+  }
+
+  BatchTask(int from, int to, int chunkSize) {
+    this.from = from;
+    this.to = to;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Get the pool shared by batches that were not given a pool, with a worker per processor.
+   */
+  static ForkJoinPool defaultPool() {
+    return DefaultPool.INSTANCE;
+  }
+
+  /**
+   * Get the chunk size for a batch of the given size processed by the given pool.
+   */
+  static int chunkSize(int size, ForkJoinPool pool) {
+    return Math.max(MIN_CHUNK_SIZE, size / (pool.getParallelism() * CHUNKS_PER_WORKER) + 1);
+  }
+
+  /**
+   * Get the size up to which a range is processed as a single chunk.
+   */
+  int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Process the batch, on the calling thread if it is small, and in the pool otherwise.
+   */
+  static void run(BatchTask task, ForkJoinPool pool) {
+    if (task.to - task.from <= task.chunkSize) {
+      task.compute(task.from, task.to);
+    } else {
+      pool.invoke(task);
+    }
+  }
+
+  @Override
+  protected final void compute() {
+    if (to - from <= chunkSize) {
+      compute(from, to);
+
+      return;
+    }
+
+    final int middle = (from + to) >>> 1;
+
+    invokeAll(split(from, middle), split(middle, to));
+  }
+
+  /**
+   * Create a task for a part of the range.
+   */
+  abstract BatchTask split(int from, int to);
+
+  /**
+   * Process a chunk of the range on the calling thread.
+   */
+  abstract void compute(int from, int to);
+}
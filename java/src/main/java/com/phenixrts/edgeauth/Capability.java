@@ -0,0 +1,78 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jetbrains.annotations.Contract;
+
+/**
+ * Well known capabilities of a token.
+ * Tokens may carry other capabilities as well, see {@link DecodedToken#hasCapability(String)}.
+ */
+public enum Capability {
+  STREAMING("streaming"),
+  ARCHIVE("archive"),
+  MULTI_BITRATE("multi-bitrate"),
+  ON_DEMAND("on-demand"),
+  TIME_SHIFT("time-shift"),
+  AUDIO_ONLY("audio-only"),
+  VIDEO_ONLY("video-only"),
+  PREFER_H264("prefer-h264"),
+  UHD("uhd"),
+  FHD("fhd"),
+  HD("hd"),
+  SD("sd"),
+  LD("ld"),
+  VLD("vld"),
+  ULD("uld");
+
+  private static final Map<String, Capability> BY_VALUE = new HashMap<>();
+
+  static {
+    for (Capability capability : values()) {
+      BY_VALUE.put(capability.value, capability);
+    }
+  }
+
+  private final String value;
+
+  Capability(String value) {
+    this.value = value;
+  }
+
+  /**
+   * Get the value of the capability in a token.
+   *
+   * @return the value
+   */
+  @Contract(pure = true)
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * Get the capability for a value in a token.
+   *
+   * @param value the value
+   * @return the capability, or null if the value is not a well known capability
+   */
+  @Contract(pure = true)
+  public static Capability fromValue(String value) {
+    return BY_VALUE.get(value);
+  }
+}
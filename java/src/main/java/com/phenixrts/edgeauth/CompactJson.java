@@ -0,0 +1,85 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.util.Map;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+/**
+ * Writes JSON values exactly like the compact JSON writer, without creating a writer per value.
+ */
+final class CompactJson {
+  private CompactJson() {
+  }
+
+  /**
+   * Append a value without whitespace, with the fields of objects in their order.
+   */
+  static void append(StringBuilder builder, JsonValue value) {
+    boolean first = true;
+
+    switch (value.getValueType()) {
+      case OBJECT:
+        builder.append('{');
+
+        for (Map.Entry<String, JsonValue> entry : ((JsonObject) value).entrySet()) {
+          if (!first) {
+            builder.append(',');
+          }
+
+          first = false;
+
+          appendField(builder, entry.getKey(), entry.getValue());
+        }
+
+        builder.append('}');
+        break;
+      case ARRAY:
+        builder.append('[');
+
+        for (JsonValue element : (JsonArray) value) {
+          if (!first) {
+            builder.append(',');
+          }
+
+          first = false;
+
+          append(builder, element);
+        }
+
+        builder.append(']');
+        break;
+      case STRING:
+        JsonStrings.appendQuoted(builder, ((JsonString) value).getString());
+        break;
+      default:
+        // Numbers and literals write themselves the same as the writer does.
+        builder.append(value.toString());
+    }
+  }
+
+  /**
+   * Append a field of an object, without the separator.
+   */
+  static void appendField(StringBuilder builder, String name, JsonValue value) {
+    JsonStrings.appendQuoted(builder, name);
+    builder.append(':');
+    append(builder, value);
+  }
+}
@@ -0,0 +1,347 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.json.stream.JsonParser;
+
+import org.jetbrains.annotations.Contract;
+
+/**
+ * Typed claims of a verified token, read straight from the token without building a JSON object.
+ */
+public final class DecodedToken {
+  private static final String[] NO_VALUES = new String[0];
+
+  private final String applicationId;
+  private String uri;
+  private long expires;
+  private TokenType type;
+  private String sessionId;
+  private String remoteAddress;
+  private String originStreamId;
+  private String requiredTag;
+  private long capabilities;
+  private String[] otherCapabilities = NO_VALUES;
+  private String[] applyTags = NO_VALUES;
+
+  private DecodedToken(String applicationId) {
+    this.applicationId = applicationId;
+  }
+
+  /**
+   * Decode the claims of a verified token.
+   */
+  static DecodedToken parse(String applicationId, String token) {
+    final DecodedToken decodedToken = new DecodedToken(applicationId);
+
+    try (JsonParser parser = JsonFactories.PARSER_FACTORY.createParser(new StringReader(token))) {
+      if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) {
+        return decodedToken;
+      }
+
+      while (parser.hasNext()) {
+        final JsonParser.Event event = parser.next();
+
+        if (event != JsonParser.Event.KEY_NAME) {
+          break;
+        }
+
+        decodedToken.readField(parser.getString(), parser);
+      }
+    }
+
+    return decodedToken;
+  }
+
+  private void readField(String name, JsonParser parser) {
+    final JsonParser.Event event = parser.next();
+
+    switch (name) {
+      case DigestTokens.FIELD_EXPIRES:
+        if (event == JsonParser.Event.VALUE_NUMBER) {
+          expires = parser.getLong();
+        }
+        return;
+      case TokenBuilder.FIELD_TYPE:
+        if (event == JsonParser.Event.VALUE_STRING) {
+          type = TokenType.fromValue(parser.getString());
+        }
+        return;
+      case DigestTokens.FIELD_URI:
+        uri = readString(event, parser);
+        return;
+      case TokenBuilder.FIELD_SESSION_ID:
+        sessionId = readString(event, parser);
+        return;
+      case TokenBuilder.FIELD_REMOTE_ADDRESS_ID:
+        remoteAddress = readString(event, parser);
+        return;
+      case TokenBuilder.FIELD_ORIGIN_STREAM_ID:
+        originStreamId = readString(event, parser);
+        return;
+      case TokenBuilder.FIELD_REQUIRED_TAG:
+        requiredTag = readString(event, parser);
+        return;
+      case TokenBuilder.FIELD_CAPABILITIES:
+        readCapabilities(event, parser);
+        return;
+      case TokenBuilder.FIELD_APPLY_TAGS:
+        applyTags = readStrings(event, parser);
+        return;
+      default:
+        skip(event, parser);
+    }
+  }
+
+  private void readCapabilities(JsonParser.Event event, JsonParser parser) {
+    List<String> others = null;
+
+    for (String value : readStrings(event, parser)) {
+      final Capability capability = Capability.fromValue(value);
+
+      if (capability != null) {
+        capabilities |= 1L << capability.ordinal();
+        continue;
+      }
+
+      if (others == null) {
+        others = new ArrayList<>();
+      }
+
+      others.add(value);
+    }
+
+    if (others != null) {
+      otherCapabilities = others.toArray(NO_VALUES);
+    }
+  }
+
+  private static String readString(JsonParser.Event event, JsonParser parser) {
+    if (event == JsonParser.Event.VALUE_STRING) {
+      return parser.getString();
+    }
+
+    skip(event, parser);
+
+    return null;
+  }
+
+  private static String[] readStrings(JsonParser.Event event, JsonParser parser) {
+    if (event != JsonParser.Event.START_ARRAY) {
+      skip(event, parser);
+
+      return NO_VALUES;
+    }
+
+    final List<String> values = new ArrayList<>();
+
+    while (parser.hasNext()) {
+      final JsonParser.Event next = parser.next();
+
+      if (next == JsonParser.Event.END_ARRAY) {
+        break;
+      }
+
+      if (next == JsonParser.Event.VALUE_STRING) {
+        values.add(parser.getString());
+      } else {
+        skip(next, parser);
+      }
+    }
+
+    return values.toArray(NO_VALUES);
+  }
+
+  private static void skip(JsonParser.Event event, JsonParser parser) {
+    if (event != JsonParser.Event.START_OBJECT && event != JsonParser.Event.START_ARRAY) {
+      return;
+    }
+
+    int depth = 1;
+
+    while (depth > 0 && parser.hasNext()) {
+      switch (parser.next()) {
+        case START_OBJECT:
+        case START_ARRAY:
+          depth++;
+          break;
+        case END_OBJECT:
+        case END_ARRAY:
+          depth--;
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * Get the application ID that signed the token.
+   *
+   * @return the application ID
+   */
+  @Contract(pure = true)
+  public String getApplicationId() {
+    return applicationId;
+  }
+
+  /**
+   * Get the backend URI.
+   *
+   * @return the URI, or null if the token has none
+   */
+  @Contract(pure = true)
+  public String getUri() {
+    return uri;
+  }
+
+  /**
+   * Get the expiration of the token.
+   *
+   * @return the expiration in milliseconds since UNIX epoch
+   */
+  @Contract(pure = true)
+  public long getExpires() {
+    return expires;
+  }
+
+  /**
+   * Get the use the token is limited to.
+   *
+   * @return the type, or null if the token is not limited or its type is not known
+   */
+  @Contract(pure = true)
+  public TokenType getType() {
+    return type;
+  }
+
+  /**
+   * Get the session ID the token is limited to.
+   *
+   * @return the session ID, or null if the token has none
+   */
+  @Contract(pure = true)
+  public String getSessionId() {
+    return sessionId;
+  }
+
+  /**
+   * Get the remote address the token is limited to.
+   *
+   * @return the remote address, or null if the token has none
+   */
+  @Contract(pure = true)
+  public String getRemoteAddress() {
+    return remoteAddress;
+  }
+
+  /**
+   * Get the origin stream ID the token is limited to.
+   *
+   * @return the origin stream ID, or null if the token has none
+   */
+  @Contract(pure = true)
+  public String getOriginStreamId() {
+    return originStreamId;
+  }
+
+  /**
+   * Get the tag required on the origin stream.
+   *
+   * @return the required tag, or null if the token has none
+   */
+  @Contract(pure = true)
+  public String getRequiredTag() {
+    return requiredTag;
+  }
+
+  /**
+   * Checks if the token has a well known capability.
+   *
+   * @param capability the capability
+   * @return true, if the token has the capability
+   */
+  @Contract(pure = true)
+  public boolean hasCapability(Capability capability) {
+    return (capabilities & (1L << capability.ordinal())) != 0;
+  }
+
+  /**
+   * Checks if the token has a capability.
+   *
+   * @param capability the capability value
+   * @return true, if the token has the capability
+   */
+  @Contract(pure = true)
+  public boolean hasCapability(String capability) {
+    final Capability wellKnownCapability = Capability.fromValue(capability);
+
+    if (wellKnownCapability != null) {
+      return hasCapability(wellKnownCapability);
+    }
+
+    for (String otherCapability : otherCapabilities) {
+      if (otherCapability.equals(capability)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Get the capabilities of the token that are not well known.
+   *
+   * @return a copy of the capabilities that have no {@link Capability} value
+   */
+  public String[] getOtherCapabilities() {
+    return otherCapabilities.clone();
+  }
+
+  /**
+   * Get the number of tags applied to the new stream.
+   *
+   * @return the number of tags
+   */
+  @Contract(pure = true)
+  public int getApplyTagCount() {
+    return applyTags.length;
+  }
+
+  /**
+   * Get a tag applied to the new stream.
+   *
+   * @param index the index of the tag
+   * @return the tag
+   */
+  @Contract(pure = true)
+  public String getApplyTag(int index) {
+    return applyTags[index];
+  }
+
+  /**
+   * Get the tags applied to the new stream.
+   *
+   * @return a copy of the tags
+   */
+  public String[] getApplyTags() {
+    return Arrays.copyOf(applyTags, applyTags.length);
+  }
+}
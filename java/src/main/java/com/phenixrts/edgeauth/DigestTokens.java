@@ -17,22 +17,22 @@
 package com.phenixrts.edgeauth;
 
 import java.io.IOException;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import javax.json.Json;
+import javax.crypto.ShortBufferException;
 import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
-import javax.json.JsonReader;
 import javax.json.JsonValue;
-import javax.json.stream.JsonParsingException;
-import javax.xml.bind.DatatypeConverter;
 
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
@@ -45,20 +45,27 @@ public final class DigestTokens {
   public static final class VerifyAndDecodeResult {
     private final boolean verified;
     private final ECode code;
-    private final JsonObject value;
+    private final String applicationId;
+    // The UTF-8 bytes of the signed token, which are only decoded when the claims are requested.
+    private final byte[] token;
+    private volatile String tokenAsString;
+    private volatile JsonObject value;
+    private volatile DecodedToken decodedToken;
 
     @Contract(pure = true)
     private VerifyAndDecodeResult(ECode code) {
       this.verified = false;
       this.code = code;
-      this.value = null;
+      this.applicationId = null;
+      this.token = null;
     }
 
     @Contract(pure = true)
-    private VerifyAndDecodeResult(JsonObject value) {
+    private VerifyAndDecodeResult(String applicationId, byte[] token) {
       this.verified = true;
       this.code = ECode.VERIFIED;
-      this.value = value;
+      this.applicationId = applicationId;
+      this.token = token;
     }
 
     /**
@@ -83,22 +90,179 @@ public final class DigestTokens {
 
     /**
      * Get the value.
+     * The claims are parsed when the value is first requested.
      *
      * @return the verified JSON object
      */
     @Contract(pure = true)
     public JsonObject getValue() {
+      if (!verified) {
+        return null;
+      }
+
+      JsonObject value = this.value;
+
+      if (value == null) {
+        value = TokenClaims.parse(applicationId, getToken());
+        this.value = value;
+      }
+
       return value;
     }
+
+    /**
+     * Get the typed claims.
+     * The claims are read from the token when they are first requested.
+     *
+     * @return the decoded token, or null if the token is not verified
+     */
+    @Contract(pure = true)
+    public DecodedToken getDecodedToken() {
+      if (!verified) {
+        return null;
+      }
+
+      DecodedToken decodedToken = this.decodedToken;
+
+      if (decodedToken == null) {
+        decodedToken = DecodedToken.parse(applicationId, getToken());
+        this.decodedToken = decodedToken;
+      }
+
+      return decodedToken;
+    }
+
+    String getApplicationId() {
+      return applicationId;
+    }
+
+    private String getToken() {
+      String tokenAsString = this.tokenAsString;
+
+      if (tokenAsString == null) {
+        tokenAsString = new String(token, StandardCharsets.UTF_8);
+        this.tokenAsString = tokenAsString;
+      }
+
+      return tokenAsString;
+    }
+  }
+
+  public static final class BatchVerifyResult {
+    private final List<VerifyAndDecodeResult> results;
+    private final int[] counts;
+
+    @Contract(pure = true)
+    private BatchVerifyResult(List<VerifyAndDecodeResult> results, int[] counts) {
+      this.results = results;
+      this.counts = counts;
+    }
+
+    /**
+     * Get the results.
+     *
+     * @return the verification results, in the order of the encoded tokens
+     */
+    @Contract(pure = true)
+    public List<VerifyAndDecodeResult> getResults() {
+      return results;
+    }
+
+    /**
+     * Get the number of tokens with a verification result.
+     *
+     * @param code the verification result
+     * @return the number of tokens
+     */
+    @Contract(pure = true)
+    public int getCount(ECode code) {
+      return counts[code.ordinal()];
+    }
+
+    /**
+     * Get the number of tokens per verification result.
+     *
+     * @return the number of tokens per verification result, including results without tokens
+     */
+    @NotNull
+    public Map<ECode, Integer> getCounts() {
+      final EnumMap<ECode, Integer> countsByCode = new EnumMap<>(ECode.class);
+
+      for (ECode code : ECode.values()) {
+        countsByCode.put(code, counts[code.ordinal()]);
+      }
+
+      return countsByCode;
+    }
   }
 
-  private static final String DIGEST_TOKEN_PREFIX = "DIGEST:";
-  private static final String FIELD_APPLICATION_ID = "applicationId";
-  private static final String FIELD_DIGEST = "digest";
-  private static final String FIELD_TOKEN = "token";
+  static final String DIGEST_TOKEN_PREFIX = "DIGEST:";
+  static final String FIELD_APPLICATION_ID = "applicationId";
+  static final String FIELD_DIGEST = "digest";
+  static final String FIELD_TOKEN = "token";
   public static final String FIELD_EXPIRES = "expires";
   public static final String FIELD_URI = "uri";
-  private static final String HMAC_ALGORITHM = "HmacSHA512";
+
+  private final HmacKeyCache keyCache;
+  private final VerifierPolicy policy;
+
+  /**
+   * Digest tokens using the shared key cache and the default policy.
+   */
+  public DigestTokens() {
+    this(HmacKeyCache.getDefault(), VerifierPolicy.DEFAULT);
+  }
+
+  /**
+   * Digest tokens using the given key cache and the default policy.
+   *
+   * @param keyCache the cache of keyed HMAC state used to sign and verify tokens
+   */
+  @Contract("null -> fail")
+  public DigestTokens(HmacKeyCache keyCache) {
+    this(keyCache, VerifierPolicy.DEFAULT);
+  }
+
+  /**
+   * Digest tokens using the shared key cache and the given policy.
+   *
+   * @param policy the policy applied when verifying tokens
+   */
+  @Contract("null -> fail")
+  public DigestTokens(VerifierPolicy policy) {
+    this(HmacKeyCache.getDefault(), policy);
+  }
+
+  /**
+   * Digest tokens using the given key cache and policy.
+   *
+   * @param keyCache the cache of keyed HMAC state used to sign and verify tokens
+   * @param policy   the policy applied when verifying tokens
+   */
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public DigestTokens(HmacKeyCache keyCache, VerifierPolicy policy) {
+    if (keyCache == null) {
+      throw new RuntimeException("Key cache must not be null");
+    }
+
+    if (policy == null) {
+      throw new RuntimeException("Policy must not be null");
+    }
+
+    this.keyCache = keyCache;
+    this.policy = policy;
+  }
+
+  /**
+   * Get digest tokens with the same policy and another key cache.
+   */
+  DigestTokens withKeyCache(HmacKeyCache keyCache) {
+    return new DigestTokens(keyCache, policy);
+  }
+
+  HmacKeyCache getKeyCache() {
+    return keyCache;
+  }
 
   /**
    * Check if a value is a valid digest token.
@@ -111,6 +275,92 @@ public final class DigestTokens {
     return encodedToken != null && encodedToken.startsWith(DIGEST_TOKEN_PREFIX);
   }
 
+  /**
+   * Check if a character sequence is a valid digest token, in place.
+   *
+   * @param encodedToken an encoded token
+   * @return true, if the encodedToken is a valid digest token
+   */
+  @Contract(value = "null -> false", pure = true)
+  public boolean isDigestToken(CharSequence encodedToken) {
+    if (encodedToken == null || encodedToken.length() < DIGEST_TOKEN_PREFIX.length()) {
+      return false;
+    }
+
+    for (int i = 0; i < DIGEST_TOKEN_PREFIX.length(); i++) {
+      if (encodedToken.charAt(i) != DIGEST_TOKEN_PREFIX.charAt(i)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Verify an encoded token without decoding it.
+   *
+   * @param secret       the secret used to encode the token
+   * @param encodedToken the encoded token
+   * @return the verification result
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public ECode verify(String secret, String encodedToken) {
+    return verify(secret, (CharSequence) encodedToken);
+  }
+
+  /**
+   * Verify an encoded token from a character sequence without decoding it.
+   *
+   * @param secret       the secret used to encode the token
+   * @param encodedToken the encoded token, e.g. a slice of a header, which is read in place
+   * @return the verification result
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public ECode verify(String secret, CharSequence encodedToken) {
+    if (secret == null) {
+      throw new RuntimeException("Secret must not be null");
+    }
+
+    if (encodedToken == null) {
+      throw new RuntimeException("Encoded token must not be null");
+    }
+
+    final VerifiedTokenCache verifiedTokenCache = policy.getVerifiedTokenCache();
+
+    if (verifiedTokenCache != null
+        && verifiedTokenCache.get(secret, encodedToken, policy.getClock().currentTimeMillis()) != null) {
+      return ECode.VERIFIED;
+    }
+
+    return verifyEnvelope(secret, encodedToken, TokenBuffers.get().envelope());
+  }
+
+  /**
+   * Verify an encoded token from a byte buffer without decoding it.
+   *
+   * @param secret       the secret used to encode the token
+   * @param encodedToken the buffer holding the encoded token between its position and its limit, which is read in
+   *                     place without changing the position
+   * @return the verification result
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public ECode verify(String secret, ByteBuffer encodedToken) {
+    if (encodedToken == null) {
+      throw new RuntimeException("Encoded token must not be null");
+    }
+
+    final AsciiSequence encodedTokenAsChars = TokenBuffers.get().ascii();
+
+    try {
+      return verify(secret, encodedTokenAsChars.wrap(encodedToken));
+    } finally {
+      encodedTokenAsChars.clear();
+    }
+  }
+
   /**
    * Verify and decode an encoded token.
    *
@@ -121,6 +371,19 @@ public final class DigestTokens {
   @NotNull
   @Contract("null, _ -> fail; !null, null -> fail")
   public VerifyAndDecodeResult verifyAndDecode(String secret, String encodedToken) {
+    return verifyAndDecode(secret, (CharSequence) encodedToken);
+  }
+
+  /**
+   * Verify and decode an encoded token from a character sequence.
+   *
+   * @param secret       the secret used to encode the token
+   * @param encodedToken the encoded token, e.g. a slice of a header, which is read in place
+   * @return the verification result
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public VerifyAndDecodeResult verifyAndDecode(String secret, CharSequence encodedToken) {
     if (secret == null) {
       throw new RuntimeException("Secret must not be null");
     }
@@ -129,70 +392,278 @@ public final class DigestTokens {
       throw new RuntimeException("Encoded token must not be null");
     }
 
-    if (!this.isDigestToken(encodedToken)) {
-      return new VerifyAndDecodeResult(ECode.NOT_A_DIGEST_TOKEN);
+    final VerifiedTokenCache verifiedTokenCache = policy.getVerifiedTokenCache();
+
+    if (verifiedTokenCache != null) {
+      final VerifyAndDecodeResult cached = verifiedTokenCache.get(secret, encodedToken, policy.getClock().currentTimeMillis());
+
+      if (cached != null) {
+        return cached;
+      }
     }
 
-    final String encodedDigestToken = encodedToken.substring(DIGEST_TOKEN_PREFIX.length());
-    final byte[] decodedAsBytes;
+    final TokenEnvelope envelope = TokenBuffers.get().envelope();
+    final ECode code = verifyEnvelope(secret, encodedToken, envelope);
 
-    try {
-      decodedAsBytes = DatatypeConverter.parseBase64Binary(encodedDigestToken);
-    } catch (IllegalArgumentException e) {
-      return new VerifyAndDecodeResult(ECode.BAD_TOKEN);
+    if (code != ECode.VERIFIED) {
+      return new VerifyAndDecodeResult(code);
+    }
+
+    return new VerifyAndDecodeResult(envelope.getApplicationId(), envelope.copyToken());
+  }
+
+  /**
+   * Verify and decode an encoded token from a byte buffer.
+   *
+   * @param secret       the secret used to encode the token
+   * @param encodedToken the buffer holding the encoded token between its position and its limit, which is read in
+   *                     place without changing the position
+   * @return the verification result
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public VerifyAndDecodeResult verifyAndDecode(String secret, ByteBuffer encodedToken) {
+    if (encodedToken == null) {
+      throw new RuntimeException("Encoded token must not be null");
     }
 
-    final String decodedAsString = new String(decodedAsBytes);
-    final JsonObject info;
+    final AsciiSequence encodedTokenAsChars = TokenBuffers.get().ascii();
 
     try {
-      try (JsonReader reader = Json.createReader(new StringReader(decodedAsString))) {
-        info = reader.readObject();
-      }
-    } catch (JsonParsingException e) {
-      return new VerifyAndDecodeResult(ECode.BAD_TOKEN);
+      return verifyAndDecode(secret, encodedTokenAsChars.wrap(encodedToken));
+    } finally {
+      encodedTokenAsChars.clear();
     }
+  }
 
-    final String[] stringFields = {FIELD_APPLICATION_ID, FIELD_DIGEST, FIELD_TOKEN};
-    for (String field : stringFields) {
-      if (info.containsKey(field) && info.get(field).getValueType() == JsonValue.ValueType.STRING) {
-        continue;
-      }
+  /**
+   * Verify an encoded token without decoding it, using the secrets of its application, e.g. from a {@link KeyRing}.
+   * Tokens of applications without secrets fail with {@link ECode#BAD_DIGEST}.
+   * The cache of rejected tokens of the policy only applies when verifying with a secret.
+   *
+   * @param secretSource the source of the secrets of the applications
+   * @param encodedToken the encoded token
+   * @return the verification result
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public ECode verify(SecretSource secretSource, String encodedToken) {
+    return verify(secretSource, (CharSequence) encodedToken);
+  }
 
-      return new VerifyAndDecodeResult(ECode.BAD_TOKEN);
+  /**
+   * Verify an encoded token from a character sequence without decoding it, using the secrets of its application, e.g.
+   * from a {@link KeyRing}.
+   * Tokens of applications without secrets fail with {@link ECode#BAD_DIGEST}.
+   * The cache of rejected tokens of the policy only applies when verifying with a secret.
+   *
+   * @param secretSource the source of the secrets of the applications
+   * @param encodedToken the encoded token, e.g. a slice of a header, which is read in place
+   * @return the verification result
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public ECode verify(SecretSource secretSource, CharSequence encodedToken) {
+    if (secretSource == null) {
+      throw new RuntimeException("Secret source must not be null");
+    }
+
+    if (encodedToken == null) {
+      throw new RuntimeException("Encoded token must not be null");
+    }
+
+    if (!this.isDigestToken(encodedToken)) {
+      return ECode.NOT_A_DIGEST_TOKEN;
+    }
+
+    final VerifiedTokenCache verifiedTokenCache = policy.getVerifiedTokenCache();
+
+    if (verifiedTokenCache != null
+        && verifiedTokenCache.get(secretSource, encodedToken, policy.getClock().currentTimeMillis()) != null) {
+      return ECode.VERIFIED;
+    }
+
+    return decodeAndVerifyEnvelope(null, secretSource, encodedToken, TokenBuffers.get().envelope());
+  }
+
+  /**
+   * Verify an encoded token from a byte buffer without decoding it, using the secrets of its application, e.g.
+   * from a {@link KeyRing}.
+   * Tokens of applications without secrets fail with {@link ECode#BAD_DIGEST}.
+   * The cache of rejected tokens of the policy only applies when verifying with a secret.
+   *
+   * @param secretSource the source of the secrets of the applications
+   * @param encodedToken the buffer holding the encoded token between its position and its limit, which is read in
+   *                     place without changing the position
+   * @return the verification result
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public ECode verify(SecretSource secretSource, ByteBuffer encodedToken) {
+    if (encodedToken == null) {
+      throw new RuntimeException("Encoded token must not be null");
     }
 
-    final String applicationId = info.getString(FIELD_APPLICATION_ID);
-    final String token = info.getString(FIELD_TOKEN);
+    final AsciiSequence encodedTokenAsChars = TokenBuffers.get().ascii();
 
     try {
-      final String digestAsString = calculateDigest(applicationId, secret, token);
-      final String digest = info.getString(FIELD_DIGEST);
+      return verify(secretSource, encodedTokenAsChars.wrap(encodedToken));
+    } finally {
+      encodedTokenAsChars.clear();
+    }
+  }
 
-      if (!digestAsString.equals(digest)) {
-        return new VerifyAndDecodeResult(ECode.BAD_DIGEST);
+  /**
+   * Verify and decode an encoded token, using the secrets of its application, e.g. from a {@link KeyRing}.
+   * Tokens of applications without secrets fail with {@link ECode#BAD_DIGEST}.
+   * The cache of rejected tokens of the policy only applies when verifying with a secret.
+   *
+   * @param secretSource the source of the secrets of the applications
+   * @param encodedToken the encoded token
+   * @return the verification result
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public VerifyAndDecodeResult verifyAndDecode(SecretSource secretSource, String encodedToken) {
+    return verifyAndDecode(secretSource, (CharSequence) encodedToken);
+  }
+
+  /**
+   * Verify and decode an encoded token from a character sequence, using the secrets of its application, e.g. from a
+   * {@link KeyRing}.
+   * Tokens of applications without secrets fail with {@link ECode#BAD_DIGEST}.
+   * The cache of rejected tokens of the policy only applies when verifying with a secret.
+   *
+   * @param secretSource the source of the secrets of the applications
+   * @param encodedToken the encoded token, e.g. a slice of a header, which is read in place
+   * @return the verification result
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public VerifyAndDecodeResult verifyAndDecode(SecretSource secretSource, CharSequence encodedToken) {
+    if (secretSource == null) {
+      throw new RuntimeException("Secret source must not be null");
+    }
+
+    if (encodedToken == null) {
+      throw new RuntimeException("Encoded token must not be null");
+    }
+
+    if (!this.isDigestToken(encodedToken)) {
+      return new VerifyAndDecodeResult(ECode.NOT_A_DIGEST_TOKEN);
+    }
+
+    final VerifiedTokenCache verifiedTokenCache = policy.getVerifiedTokenCache();
+
+    if (verifiedTokenCache != null) {
+      final VerifyAndDecodeResult cached = verifiedTokenCache.get(secretSource, encodedToken, policy.getClock().currentTimeMillis());
+
+      if (cached != null) {
+        return cached;
       }
-    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-      return new VerifyAndDecodeResult(ECode.UNSUPPORTED);
     }
 
-    final JsonObject value;
+    final TokenEnvelope envelope = TokenBuffers.get().envelope();
+    final ECode code = decodeAndVerifyEnvelope(null, secretSource, encodedToken, envelope);
+
+    if (code != ECode.VERIFIED) {
+      return new VerifyAndDecodeResult(code);
+    }
+
+    return new VerifyAndDecodeResult(envelope.getApplicationId(), envelope.copyToken());
+  }
 
-    try (JsonReader reader = Json.createReader(new StringReader(token))) {
-      value = reader.readObject();
+  /**
+   * Verify and decode an encoded token from a byte buffer, using the secrets of its application, e.g. from a
+   * {@link KeyRing}.
+   * Tokens of applications without secrets fail with {@link ECode#BAD_DIGEST}.
+   * The cache of rejected tokens of the policy only applies when verifying with a secret.
+   *
+   * @param secretSource the source of the secrets of the applications
+   * @param encodedToken the buffer holding the encoded token between its position and its limit, which is read in
+   *                     place without changing the position
+   * @return the verification result
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public VerifyAndDecodeResult verifyAndDecode(SecretSource secretSource, ByteBuffer encodedToken) {
+    if (encodedToken == null) {
+      throw new RuntimeException("Encoded token must not be null");
     }
 
-    JsonObjectBuilder builder = Json.createObjectBuilder();
+    final AsciiSequence encodedTokenAsChars = TokenBuffers.get().ascii();
+
+    try {
+      return verifyAndDecode(secretSource, encodedTokenAsChars.wrap(encodedToken));
+    } finally {
+      encodedTokenAsChars.clear();
+    }
+  }
+
+  /**
+   * Verify and decode a batch of encoded tokens, using the shared pool for large batches.
+   *
+   * @param secret        the secret used to encode the tokens
+   * @param encodedTokens the encoded tokens
+   * @return the verification results, in the order of the encoded tokens
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public BatchVerifyResult verifyAndDecode(String secret, Collection<String> encodedTokens) {
+    return verifyAndDecode(secret, encodedTokens, BatchTask.defaultPool());
+  }
 
-    for (Map.Entry<String, JsonValue> property : value.entrySet()) {
-      builder.add(property.getKey(), property.getValue());
+  /**
+   * Verify and decode a batch of encoded tokens.
+   * Large batches are split across the workers of the pool. Each worker reuses its keyed HMAC and buffers for all
+   * tokens it verifies.
+   *
+   * @param secret        the secret used to encode the tokens
+   * @param encodedTokens the encoded tokens
+   * @param pool          the pool verifying large batches
+   * @return the verification results, in the order of the encoded tokens
+   */
+  @NotNull
+  @Contract("null, _, _ -> fail; !null, null, _ -> fail; !null, !null, null -> fail")
+  public BatchVerifyResult verifyAndDecode(String secret, Collection<String> encodedTokens, ForkJoinPool pool) {
+    if (secret == null) {
+      throw new RuntimeException("Secret must not be null");
     }
 
-    builder.add(FIELD_APPLICATION_ID, applicationId);
+    return verifyAndDecodeBatch(secret, null, encodedTokens, pool);
+  }
+
+  /**
+   * Verify and decode a batch of encoded tokens, using the secrets of their applications and the shared pool for
+   * large batches.
+   *
+   * @param secretSource  the source of the secrets of the applications
+   * @param encodedTokens the encoded tokens
+   * @return the verification results, in the order of the encoded tokens
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public BatchVerifyResult verifyAndDecode(SecretSource secretSource, Collection<String> encodedTokens) {
+    return verifyAndDecode(secretSource, encodedTokens, BatchTask.defaultPool());
+  }
 
-    JsonObject result = builder.build();
+  /**
+   * Verify and decode a batch of encoded tokens, using the secrets of their applications.
+   * Large batches are split across the workers of the pool.
+   *
+   * @param secretSource  the source of the secrets of the applications
+   * @param encodedTokens the encoded tokens
+   * @param pool          the pool verifying large batches
+   * @return the verification results, in the order of the encoded tokens
+   */
+  @NotNull
+  @Contract("null, _, _ -> fail; !null, null, _ -> fail; !null, !null, null -> fail")
+  public BatchVerifyResult verifyAndDecode(SecretSource secretSource, Collection<String> encodedTokens, ForkJoinPool pool) {
+    if (secretSource == null) {
+      throw new RuntimeException("Secret source must not be null");
+    }
 
-    return new VerifyAndDecodeResult(result);
+    return verifyAndDecodeBatch(null, secretSource, encodedTokens, pool);
   }
 
   /**
@@ -206,6 +677,93 @@ public final class DigestTokens {
   @NotNull
   @Contract("null, _, _ -> fail; !null, null, _ -> fail; !null, !null, null -> fail")
   public String signAndEncode(String applicationId, String secret, JsonObject token) {
+    return signValidated(applicationId, secret, token).encodeToString();
+  }
+
+  /**
+   * Signs and encodes a digest token into a byte array.
+   *
+   * @param applicationId the application ID used to sign the token
+   * @param secret        the shared secret used to sign the token
+   * @param token         the raw token object to sign
+   * @param destination   the array to write the encoded token to, as ASCII characters
+   * @param offset        the offset to write the encoded token at
+   * @return the number of bytes written, see {@link #getEncodedLength(String, JsonObject)}
+   */
+  @Contract("null, _, _, _, _ -> fail; !null, null, _, _, _ -> fail; !null, !null, null, _, _ -> fail; !null, !null, !null, null, _ -> fail")
+  public int signAndEncode(String applicationId, String secret, JsonObject token, byte[] destination, int offset) {
+    if (destination == null) {
+      throw new RuntimeException("Destination must not be null");
+    }
+
+    return signValidated(applicationId, secret, token).encodeTo(destination, offset);
+  }
+
+  /**
+   * Signs and encodes a digest token into a byte buffer at its position, advancing the position.
+   *
+   * @param applicationId the application ID used to sign the token
+   * @param secret        the shared secret used to sign the token
+   * @param token         the raw token object to sign
+   * @param destination   the buffer to write the encoded token to, as ASCII characters
+   * @return the number of bytes written, see {@link #getEncodedLength(String, JsonObject)}
+   */
+  @Contract("null, _, _, _ -> fail; !null, null, _, _ -> fail; !null, !null, null, _ -> fail; !null, !null, !null, null -> fail")
+  public int signAndEncode(String applicationId, String secret, JsonObject token, ByteBuffer destination) {
+    if (destination == null) {
+      throw new RuntimeException("Destination must not be null");
+    }
+
+    return signValidated(applicationId, secret, token).encodeTo(destination);
+  }
+
+  /**
+   * Signs and encodes a digest token into an appendable, e.g. a writer or a string builder.
+   *
+   * @param applicationId the application ID used to sign the token
+   * @param secret        the shared secret used to sign the token
+   * @param token         the raw token object to sign
+   * @param destination   the appendable to write the encoded token to
+   * @return the number of characters written, see {@link #getEncodedLength(String, JsonObject)}
+   * @throws IOException if the appendable fails
+   */
+  @Contract("null, _, _, _ -> fail; !null, null, _, _ -> fail; !null, !null, null, _ -> fail; !null, !null, !null, null -> fail")
+  public int signAndEncode(String applicationId, String secret, JsonObject token, Appendable destination)
+      throws IOException {
+    if (destination == null) {
+      throw new RuntimeException("Destination must not be null");
+    }
+
+    return signValidated(applicationId, secret, token).encodeTo(destination);
+  }
+
+  /**
+   * Get the exact length of a digest token once it is signed and encoded, to size the buffer to encode it into.
+   * The encoded token is ASCII, so its length is the same in characters and in bytes.
+   *
+   * @param applicationId the application ID used to sign the token
+   * @param token         the raw token object to sign
+   * @return the length of the signed and encoded digest token
+   */
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public int getEncodedLength(String applicationId, JsonObject token) {
+    if (applicationId == null) {
+      throw new RuntimeException("Application ID must not be null");
+    }
+
+    validateToken(token);
+
+    return TokenBuffers.get().encoder().measure(applicationId, serialize(token));
+  }
+
+  /**
+   * Signs and encodes a token that is already serialized, e.g. by a {@link TokenTemplate}.
+   */
+  String signAndEncode(String applicationId, String secret, String token) {
+    return sign(applicationId, token, getMac(applicationId, secret)).encodeToString();
+  }
+
+  private EnvelopeEncoder signValidated(String applicationId, String secret, JsonObject token) {
     if (applicationId == null) {
       throw new RuntimeException("Application ID must not be null");
     }
@@ -214,6 +772,235 @@ public final class DigestTokens {
       throw new RuntimeException("Secret must not be null");
     }
 
+    validateToken(token);
+
+    return sign(applicationId, serialize(token), getMac(applicationId, secret));
+  }
+
+  /**
+   * Signs and encodes a batch of digest tokens of the same application, using the shared pool for large batches.
+   *
+   * @param applicationId the application ID used to sign the tokens
+   * @param secret        the shared secret used to sign the tokens
+   * @param tokens        the raw token objects to sign
+   * @return the signed and encoded digest tokens, in the order of the raw tokens
+   */
+  @NotNull
+  @Contract("null, _, _ -> fail; !null, null, _ -> fail; !null, !null, null -> fail")
+  public List<String> signAndEncode(String applicationId, String secret, Collection<? extends JsonObject> tokens) {
+    return signAndEncode(applicationId, secret, tokens, BatchTask.defaultPool());
+  }
+
+  /**
+   * Signs and encodes a batch of digest tokens of the same application.
+   * Large batches are split across the workers of the pool. Each worker reuses its keyed HMAC and buffers for all
+   * tokens it signs.
+   *
+   * @param applicationId the application ID used to sign the tokens
+   * @param secret        the shared secret used to sign the tokens
+   * @param tokens        the raw token objects to sign
+   * @param pool          the pool signing large batches
+   * @return the signed and encoded digest tokens, in the order of the raw tokens
+   */
+  @NotNull
+  @Contract("null, _, _, _ -> fail; !null, null, _, _ -> fail; !null, !null, null, _ -> fail; !null, !null, !null, null -> fail")
+  public List<String> signAndEncode(String applicationId, String secret, Collection<? extends JsonObject> tokens,
+      ForkJoinPool pool) {
+    if (applicationId == null) {
+      throw new RuntimeException("Application ID must not be null");
+    }
+
+    if (secret == null) {
+      throw new RuntimeException("Secret must not be null");
+    }
+
+    if (tokens == null) {
+      throw new RuntimeException("Tokens must not be null");
+    }
+
+    if (pool == null) {
+      throw new RuntimeException("Pool must not be null");
+    }
+
+    final JsonObject[] tokensAsArray = tokens.toArray(new JsonObject[tokens.size()]);
+
+    // Validate all tokens first, so that an invalid token fails the batch before any work is done.
+    for (JsonObject token : tokensAsArray) {
+      validateToken(token);
+    }
+
+    final String[] encodedTokens = new String[tokensAsArray.length];
+
+    BatchTask.run(new SignTask(applicationId, secret, tokensAsArray, encodedTokens, 0, tokensAsArray.length,
+        BatchTask.chunkSize(tokensAsArray.length, pool)), pool);
+
+    return Collections.unmodifiableList(Arrays.asList(encodedTokens));
+  }
+
+  private ECode verifyEnvelope(String secret, CharSequence encodedToken, TokenEnvelope envelope) {
+    if (!this.isDigestToken(encodedToken)) {
+      return ECode.NOT_A_DIGEST_TOKEN;
+    }
+
+    final RejectedTokenCache rejectedTokenCache = policy.getRejectedTokenCache();
+
+    if (rejectedTokenCache == null) {
+      return decodeAndVerifyEnvelope(secret, null, encodedToken, envelope);
+    }
+
+    final long now = policy.getClock().currentTimeMillis();
+    final ECode rejectedCode = rejectedTokenCache.get(secret, encodedToken, now);
+
+    if (rejectedCode != null) {
+      return rejectedCode;
+    }
+
+    final ECode code = decodeAndVerifyEnvelope(secret, null, encodedToken, envelope);
+
+    // Only rejections that depend on nothing but the token and the secret are remembered.
+    if (code == ECode.BAD_TOKEN || code == ECode.BAD_DIGEST) {
+      rejectedTokenCache.put(secret, encodedToken, code, now);
+    }
+
+    return code;
+  }
+
+  private ECode decodeAndVerifyEnvelope(String secret, SecretSource secretSource, CharSequence encodedToken,
+      TokenEnvelope envelope) {
+    if (encodedToken.length() > policy.getMaxEncodedLength()) {
+      return ECode.BAD_TOKEN;
+    }
+
+    final int encodedDigestTokenStart = DIGEST_TOKEN_PREFIX.length();
+    final int decodedLength = Base64Codec.decodedLength(encodedToken, encodedDigestTokenStart, encodedToken.length());
+
+    if (decodedLength < 0 || decodedLength > policy.getMaxDecodedLength()) {
+      return ECode.BAD_TOKEN;
+    }
+
+    final TokenBuffers buffers = TokenBuffers.get();
+    final byte[] decodedAsBytes = buffers.decoded(decodedLength);
+    final int decodedCount =
+        Base64Codec.decode(encodedToken, encodedDigestTokenStart, encodedToken.length(), decodedAsBytes, 0);
+
+    if (decodedCount < 0) {
+      return ECode.BAD_TOKEN;
+    }
+
+    if (policy.isLimitingStructure()
+        && !JsonLimits.isWithin(decodedAsBytes, 0, decodedCount, policy.getMaxNestingDepth(), policy.getMaxStringLength())) {
+      return ECode.BAD_TOKEN;
+    }
+
+    if (!envelope.parse(decodedAsBytes, decodedCount)) {
+      return ECode.BAD_TOKEN;
+    }
+
+    // The signed token is a single string of the envelope, its own structure is only seen once it is unescaped.
+    if (policy.isLimitingStructure() && !JsonLimits.isWithin(envelope.getSource(), envelope.getTokenStart(),
+        envelope.getTokenEnd(), policy.getMaxNestingDepth(), policy.getMaxStringLength())) {
+      return ECode.BAD_TOKEN;
+    }
+
+    // Only the digest as it is signed verifies, as when the encoded digests were compared as strings.
+    if (!envelope.decodeDigest(buffers.expectedDigest())) {
+      return ECode.BAD_DIGEST;
+    }
+
+    final VerifiedTokenCache verifiedTokenCache = policy.getVerifiedTokenCache();
+    final long expires = policy.isRejectingExpiredTokens() || verifiedTokenCache != null
+        ? TokenExpiration.read(envelope.getSource(), envelope.getTokenStart(), envelope.getTokenEnd())
+        : TokenExpiration.UNKNOWN;
+
+    // Rejecting expired tokens before the digest is calculated keeps replayed stale tokens cheap. A token that is not
+    // expired is only trusted once its digest is verified, because the expiration is part of the signed token.
+    if (policy.isRejectingExpiredTokens() && policy.isExpired(expires)) {
+      return ECode.EXPIRED;
+    }
+
+    if (secretSource == null) {
+      return verifyDigest(secret, encodedToken, envelope, expires);
+    }
+
+    final String applicationId = envelope.getApplicationId();
+    final String[] secrets = secretSource.lookupSecrets(applicationId);
+
+    // The most recently successful secret comes first, so that during a rotation most tokens verify at the first try.
+    for (int i = 0; i < secrets.length; i++) {
+      final ECode code = verifyDigest(secrets[i], encodedToken, envelope, expires);
+
+      if (code == ECode.VERIFIED) {
+        secretSource.secretVerified(applicationId, secrets, i);
+      }
+
+      if (code != ECode.BAD_DIGEST) {
+        return code;
+      }
+    }
+
+    return ECode.BAD_DIGEST;
+  }
+
+  private ECode verifyDigest(String secret, CharSequence encodedToken, TokenEnvelope envelope, long expires) {
+    final TokenBuffers buffers = TokenBuffers.get();
+
+    try {
+      final byte[] digestAsBytes = buffers.digest();
+
+      calculateDigest(envelope.getApplicationId(), secret, envelope.getSource(), envelope.getTokenStart(),
+          envelope.getTokenEnd(), digestAsBytes);
+
+      if (!isEqualInConstantTime(digestAsBytes, buffers.expectedDigest())) {
+        return ECode.BAD_DIGEST;
+      }
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      return ECode.UNSUPPORTED;
+    }
+
+    final VerifiedTokenCache verifiedTokenCache = policy.getVerifiedTokenCache();
+
+    if (verifiedTokenCache != null) {
+      verifiedTokenCache.put(secret, encodedToken, expires,
+          new VerifyAndDecodeResult(envelope.getApplicationId(), envelope.copyToken()), policy.getClock().currentTimeMillis());
+    }
+
+    return ECode.VERIFIED;
+  }
+
+  private BatchVerifyResult verifyAndDecodeBatch(String secret, SecretSource secretSource, Collection<String> encodedTokens,
+      ForkJoinPool pool) {
+    if (encodedTokens == null) {
+      throw new RuntimeException("Encoded tokens must not be null");
+    }
+
+    if (pool == null) {
+      throw new RuntimeException("Pool must not be null");
+    }
+
+    final String[] encodedTokensAsArray = encodedTokens.toArray(new String[encodedTokens.size()]);
+
+    for (String encodedToken : encodedTokensAsArray) {
+      if (encodedToken == null) {
+        throw new RuntimeException("Encoded token must not be null");
+      }
+    }
+
+    final VerifyAndDecodeResult[] results = new VerifyAndDecodeResult[encodedTokensAsArray.length];
+    final AtomicIntegerArray counts = new AtomicIntegerArray(ECode.values().length);
+
+    BatchTask.run(new VerifyTask(secret, secretSource, encodedTokensAsArray, results, counts, 0, results.length,
+        BatchTask.chunkSize(results.length, pool)), pool);
+
+    final int[] countsAsArray = new int[counts.length()];
+
+    for (int i = 0; i < countsAsArray.length; i++) {
+      countsAsArray[i] = counts.get(i);
+    }
+
+    return new BatchVerifyResult(Collections.unmodifiableList(Arrays.asList(results)), countsAsArray);
+  }
+
+  private static void validateToken(JsonObject token) {
     if (token == null) {
       throw new RuntimeException("Token must not be null");
     }
@@ -225,52 +1012,142 @@ public final class DigestTokens {
     if (token.containsKey(FIELD_APPLICATION_ID)) {
       throw new RuntimeException("Token should not have an application ID property");
     }
+  }
+
+  /**
+   * Serialize a validated token into the text buffer of the calling thread, the same as the JSON writer would.
+   */
+  private static CharSequence serialize(JsonObject token) {
+    final StringBuilder text = TokenBuffers.get().text();
 
-    final String tokenAsString;
+    CompactJson.append(text, token);
 
-    try (Writer writer = new StringWriter()) {
-      Json.createWriter(writer).write(token);
-      tokenAsString = writer.toString();
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+    return text;
+  }
 
-    final String digest;
+  /**
+   * Sign a serialized token with a keyed HMAC into the envelope encoder of the calling thread.
+   */
+  private static EnvelopeEncoder sign(String applicationId, CharSequence tokenAsString, Mac mac) {
+    final EnvelopeEncoder encoder = TokenBuffers.get().encoder();
+
+    encoder.sign(applicationId, tokenAsString, mac);
+
+    return encoder;
+  }
+
+  private Mac getMac(String applicationId, String secret) {
     try {
-      digest = calculateDigest(applicationId, secret, tokenAsString);
+      return keyCache.getMac(applicationId, secret);
     } catch (NoSuchAlgorithmException | InvalidKeyException e) {
       throw new RuntimeException(e);
     }
+  }
 
-    final JsonObject info = Json.createObjectBuilder()
-        .add(FIELD_APPLICATION_ID, applicationId)
-        .add(FIELD_DIGEST, digest)
-        .add(FIELD_TOKEN, tokenAsString)
-        .build();
-    final String decodedDigestTokenAsString;
+  private void calculateDigest(String applicationId, String secret, byte[] token, int from, int to, byte[] digest)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+    calculateDigest(keyCache.getMac(applicationId, secret), token, from, to, digest);
+  }
+
+  static void calculateDigest(Mac mac, byte[] token, int from, int to, byte[] digest) {
+    mac.update(token, from, to - from);
 
-    try (Writer writer = new StringWriter()) {
-      Json.createWriter(writer).write(info);
-      decodedDigestTokenAsString = writer.toString();
-    } catch (IOException e) {
+    try {
+      mac.doFinal(digest, 0);
+    } catch (ShortBufferException e) {
       throw new RuntimeException(e);
     }
+  }
 
-    final byte[] decodedDigestTokenAsBytes = decodedDigestTokenAsString.getBytes(StandardCharsets.UTF_8);
-    final String encodedDigestToken = DatatypeConverter.printBase64Binary(decodedDigestTokenAsBytes);
+  private static boolean isEqualInConstantTime(byte[] digest, byte[] expectedDigest) {
+    // Accumulate the differences of all bytes instead of returning at the first one to not leak timing information.
+    int difference = digest.length ^ expectedDigest.length;
 
-    return DIGEST_TOKEN_PREFIX + encodedDigestToken;
+    for (int i = 0; i < digest.length && i < expectedDigest.length; i++) {
+      difference |= digest[i] ^ expectedDigest[i];
+    }
+
+    return difference == 0;
   }
 
-  private String calculateDigest(String applicationId, String secret, String token) throws NoSuchAlgorithmException, InvalidKeyException {
-    // The hmac salt is the concatenation of application ID and secret to eliminate the use of lookup table for brute force attacks.
-    final String salt = applicationId + secret;
-    final SecretKeySpec keySpec = new SecretKeySpec(salt.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
-    final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+  /**
+   * Signs a chunk of a batch with a keyed HMAC per chunk.
+   */
+  @SuppressWarnings("serial")
+  private final class SignTask extends BatchTask {
+    private final String applicationId;
+    private final String secret;
+    private final JsonObject[] tokens;
+    private final String[] encodedTokens;
 
-    mac.init(keySpec);
+    private SignTask(String applicationId, String secret, JsonObject[] tokens, String[] encodedTokens, int from, int to,
+        int chunkSize) {
+      super(from, to, chunkSize);
+      this.applicationId = applicationId;
+      this.secret = secret;
+      this.tokens = tokens;
+      this.encodedTokens = encodedTokens;
+    }
+
+    @Override
+    BatchTask split(int from, int to) {
+      return new SignTask(applicationId, secret, tokens, encodedTokens, from, to, getChunkSize());
+    }
+
+    @Override
+    void compute(int from, int to) {
+      final Mac mac = getMac(applicationId, secret);
 
-    final byte[] digestAsBytes = mac.doFinal(token.getBytes(StandardCharsets.UTF_8));
-    return DatatypeConverter.printBase64Binary(digestAsBytes);
+      for (int i = from; i < to; i++) {
+        encodedTokens[i] = sign(applicationId, serialize(tokens[i]), mac).encodeToString();
+      }
+    }
+  }
+
+  /**
+   * Verifies a chunk of a batch, counting the results per chunk.
+   */
+  @SuppressWarnings("serial")
+  private final class VerifyTask extends BatchTask {
+    private final String secret;
+    private final SecretSource secretSource;
+    private final String[] encodedTokens;
+    private final VerifyAndDecodeResult[] results;
+    private final AtomicIntegerArray counts;
+
+    private VerifyTask(String secret, SecretSource secretSource, String[] encodedTokens, VerifyAndDecodeResult[] results,
+        AtomicIntegerArray counts, int from, int to, int chunkSize) {
+      super(from, to, chunkSize);
+      this.secret = secret;
+      this.secretSource = secretSource;
+      this.encodedTokens = encodedTokens;
+      this.results = results;
+      this.counts = counts;
+    }
+
+    @Override
+    BatchTask split(int from, int to) {
+      return new VerifyTask(secret, secretSource, encodedTokens, results, counts, from, to, getChunkSize());
+    }
+
+    @Override
+    void compute(int from, int to) {
+      final int[] chunkCounts = new int[counts.length()];
+
+      for (int i = from; i < to; i++) {
+        final VerifyAndDecodeResult result = secretSource == null
+            ? verifyAndDecode(secret, encodedTokens[i])
+            : verifyAndDecode(secretSource, encodedTokens[i]);
+
+        results[i] = result;
+        chunkCounts[result.getCode().ordinal()]++;
+      }
+
+      for (int i = 0; i < chunkCounts.length; i++) {
+        if (chunkCounts[i] != 0) {
+          counts.addAndGet(i, chunkCounts[i]);
+        }
+      }
+    }
   }
-}
\ No newline at end of file
+}
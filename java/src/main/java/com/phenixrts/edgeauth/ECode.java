@@ -8,5 +8,6 @@ public enum ECode {
   BAD_TOKEN,
   BAD_DIGEST,
   NOT_A_DIGEST_TOKEN,
-  UNSUPPORTED
+  UNSUPPORTED,
+  EXPIRED
 }
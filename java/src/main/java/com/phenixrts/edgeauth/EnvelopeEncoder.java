@@ -0,0 +1,205 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import javax.crypto.Mac;
+
+/**
+ * Writes the signed envelope of a digest token and encodes it into a string or a caller supplied buffer.
+ * <p>
+ * The envelope is written once as UTF-8 into a buffer of the exact size: the application ID and the token are escaped
+ * from the UTF-8 bytes of the token that the digest is calculated from, and the digest is base64 encoded in place.
+ * The result is the same as serializing the envelope with the JSON writer. Instances are reused by the thread that owns
+ * them.
+ */
+final class EnvelopeEncoder {
+  // The envelope around the digest and the token, in the order the fields are written.
+  private static final byte[] ENVELOPE_APPLICATION_ID = ("{\"" + DigestTokens.FIELD_APPLICATION_ID + "\":").getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] ENVELOPE_DIGEST = (",\"" + DigestTokens.FIELD_DIGEST + "\":\"").getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] ENVELOPE_TOKEN = ("\",\"" + DigestTokens.FIELD_TOKEN + "\":").getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PREFIX = DigestTokens.DIGEST_TOKEN_PREFIX.getBytes(StandardCharsets.US_ASCII);
+  private static final int ENCODED_DIGEST_LENGTH = Base64Codec.encodedLength(HmacKeyCache.DIGEST_LENGTH);
+  // Encoding into buffers without an array goes through a scratch buffer in chunks of whole base64 quads.
+  private static final int CHUNK_SIZE = 768;
+
+  private byte[] token;
+  private int tokenLength;
+  private int applicationIdLength;
+  private int envelopeLength;
+  private byte[] envelope;
+
+  /**
+   * Get the length of the encoded digest token for a serialized token, without signing it.
+   */
+  int measure(String applicationId, CharSequence tokenAsString) {
+    prepare(applicationId, tokenAsString);
+    token = null;
+
+    return encodedLength();
+  }
+
+  /**
+   * Sign a serialized token with a keyed HMAC and write its envelope, ready to be encoded.
+   */
+  void sign(String applicationId, CharSequence tokenAsString, Mac mac) {
+    prepare(applicationId, tokenAsString);
+
+    final TokenBuffers buffers = TokenBuffers.get();
+    final byte[] digest = buffers.digest();
+
+    DigestTokens.calculateDigest(mac, token, 0, tokenLength, digest);
+
+    final int applicationIdEnd = tokenLength + applicationIdLength;
+    int position = 0;
+
+    envelope = buffers.decoded(envelopeLength);
+    position = append(ENVELOPE_APPLICATION_ID, envelope, position);
+    position = JsonStrings.writeQuoted(token, tokenLength, applicationIdEnd, envelope, position);
+    position = append(ENVELOPE_DIGEST, envelope, position);
+    position = Base64Codec.encode(digest, 0, digest.length, envelope, position);
+    position = append(ENVELOPE_TOKEN, envelope, position);
+    position = JsonStrings.writeQuoted(token, 0, tokenLength, envelope, position);
+    envelope[position] = '}';
+    token = null;
+  }
+
+  private void prepare(String applicationId, CharSequence tokenAsString) {
+    tokenLength = Utf8.encodedLength(tokenAsString);
+    applicationIdLength = Utf8.encodedLength(applicationId);
+    // The application ID is encoded behind the token, so that both are escaped from the same buffer.
+    token = TokenBuffers.get().token(tokenLength + applicationIdLength);
+    Utf8.encode(tokenAsString, token, 0);
+    Utf8.encode(applicationId, token, tokenLength);
+    envelopeLength = ENVELOPE_APPLICATION_ID.length
+        + JsonStrings.quotedLength(token, tokenLength, tokenLength + applicationIdLength)
+        + ENVELOPE_DIGEST.length + ENCODED_DIGEST_LENGTH + ENVELOPE_TOKEN.length
+        + JsonStrings.quotedLength(token, 0, tokenLength) + 1;
+  }
+
+  /**
+   * Get the length of the encoded digest token, including the prefix. Each character is a single byte.
+   */
+  int encodedLength() {
+    return PREFIX.length + Base64Codec.encodedLength(envelopeLength);
+  }
+
+  /**
+   * Encode the signed envelope into a new string.
+   */
+  String encodeToString() {
+    final char[] chars = encodeToChars();
+
+    return new String(chars, 0, encodedLength());
+  }
+
+  /**
+   * Encode the signed envelope into a byte array.
+   *
+   * @return the number of bytes written
+   */
+  int encodeTo(byte[] destination, int offset) {
+    final int length = encodedLength();
+
+    if (offset < 0 || offset > destination.length) {
+      throw new RuntimeException("Offset must be within the destination");
+    }
+
+    if (destination.length - offset < length) {
+      throw new RuntimeException("Destination must have room for " + length + " bytes");
+    }
+
+    System.arraycopy(PREFIX, 0, destination, offset, PREFIX.length);
+    Base64Codec.encode(envelope, 0, envelopeLength, destination, offset + PREFIX.length);
+    envelope = null;
+
+    return length;
+  }
+
+  /**
+   * Encode the signed envelope into a byte buffer at its position, advancing the position.
+   *
+   * @return the number of bytes written
+   */
+  int encodeTo(ByteBuffer destination) {
+    final int length = encodedLength();
+
+    if (destination.remaining() < length) {
+      throw new RuntimeException("Destination must have room for " + length + " bytes");
+    }
+
+    if (destination.hasArray()) {
+      encodeTo(destination.array(), destination.arrayOffset() + destination.position());
+      destination.position(destination.position() + length);
+
+      return length;
+    }
+
+    final byte[] chunk = TokenBuffers.get().token(CHUNK_SIZE / 3 * 4);
+
+    destination.put(PREFIX);
+
+    for (int from = 0; from < envelopeLength; from += CHUNK_SIZE) {
+      final int to = Math.min(from + CHUNK_SIZE, envelopeLength);
+
+      destination.put(chunk, 0, Base64Codec.encode(envelope, from, to, chunk, 0));
+    }
+
+    envelope = null;
+
+    return length;
+  }
+
+  /**
+   * Encode the signed envelope into an appendable, e.g. a writer or a string builder.
+   *
+   * @return the number of characters written
+   */
+  int encodeTo(Appendable destination) throws IOException {
+    final int length = encodedLength();
+    final char[] chars = encodeToChars();
+
+    if (destination instanceof StringBuilder) {
+      ((StringBuilder) destination).append(chars, 0, length);
+    } else if (destination instanceof Writer) {
+      ((Writer) destination).write(chars, 0, length);
+    } else {
+      destination.append(CharBuffer.wrap(chars, 0, length));
+    }
+
+    return length;
+  }
+
+  private char[] encodeToChars() {
+    final char[] chars = TokenBuffers.get().chars(encodedLength());
+
+    DigestTokens.DIGEST_TOKEN_PREFIX.getChars(0, PREFIX.length, chars, 0);
+    Base64Codec.encode(envelope, 0, envelopeLength, chars, PREFIX.length);
+    envelope = null;
+
+    return chars;
+  }
+
+  private static int append(byte[] source, byte[] destination, int offset) {
+    System.arraycopy(source, 0, destination, offset, source.length);
+
+    return offset + source.length;
+  }
+}
@@ -0,0 +1,322 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.phenixrts.edgeauth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Bounded cache of keyed HMAC state per application ID and secret.
+ * <p>
+ * Looking up the HMAC provider and initializing the key costs more than computing the digest of a token.
+ * The cache keeps an initialized prototype {@link Mac} per application ID and secret. Each thread works on its own
+ * clone of the prototype, which it keeps for as long as it keeps using the same key.
+ * <p>
+ * A thread that verifies on its own may instead use a cache confined to it, which is derived from a shared cache. Keys
+ * that are invalidated in the shared cache are also dropped from the caches derived from it.
+ */
+public final class HmacKeyCache {
+  public static final int DEFAULT_CAPACITY = 1024;
+  static final String HMAC_ALGORITHM = "HmacSHA512";
+  static final int DIGEST_LENGTH = 64;
+  private static final HmacKeyCache DEFAULT_INSTANCE = new HmacKeyCache(DEFAULT_CAPACITY);
+
+  private final int capacity;
+  // Used by a single thread only, which then keys its HMAC once per key instead of once per change of key.
+  private final boolean confined;
+  private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+  private final CopyOnWriteArrayList<HmacKeyCache> confinedCaches = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<Slot> slots = new ThreadLocal<Slot>() {
+    @Override
+    protected Slot initialValue() {
+      return new Slot();
+    }
+  };
+
+  private static final class Key {
+    private final String applicationId;
+    private final String secret;
+    private final int hash;
+
+    private Key(String applicationId, String secret) {
+      this.applicationId = applicationId;
+      this.secret = secret;
+      this.hash = 31 * applicationId.hashCode() + secret.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+
+      if (!(other instanceof Key)) {
+        return false;
+      }
+
+      final Key key = (Key) other;
+
+      return hash == key.hash && applicationId.equals(key.applicationId) && secret.equals(key.secret);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static final class Entry {
+    private final SecretKeySpec keySpec;
+    private final Mac prototype;
+    private volatile boolean referenced = true;
+
+    private Entry(SecretKeySpec keySpec, Mac prototype) {
+      this.keySpec = keySpec;
+      this.prototype = prototype;
+    }
+
+    private Mac newMac() throws NoSuchAlgorithmException, InvalidKeyException {
+      try {
+        return (Mac) prototype.clone();
+      } catch (CloneNotSupportedException e) {
+        // Not every provider supports cloning. Fall back to a fresh instance with the same key.
+        final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+
+        mac.init(keySpec);
+
+        return mac;
+      }
+    }
+  }
+
+  private static final class Slot {
+    private Entry entry;
+    private Mac mac;
+  }
+
+  /**
+   * Create a key cache.
+   *
+   * @param capacity the maximum number of keys held by the cache
+   */
+  public HmacKeyCache(int capacity) {
+    this(capacity, false);
+  }
+
+  private HmacKeyCache(int capacity, boolean confined) {
+    if (capacity <= 0) {
+      throw new RuntimeException("Capacity must be positive");
+    }
+
+    this.capacity = capacity;
+    this.confined = confined;
+  }
+
+  /**
+   * Create a key cache owned by a single thread, with the capacity of this cache. The keyed HMAC of each key is used as
+   * is, without cloning it for the calling thread. Keys invalidated in this cache are dropped from the confined cache
+   * until it is released.
+   */
+  HmacKeyCache confine() {
+    final HmacKeyCache confinedCache = new HmacKeyCache(capacity, true);
+
+    confinedCaches.add(confinedCache);
+
+    return confinedCache;
+  }
+
+  /**
+   * Stop passing invalidated keys to a cache returned by {@link #confine()}, once its thread no longer uses it.
+   */
+  void release(HmacKeyCache confinedCache) {
+    confinedCaches.remove(confinedCache);
+  }
+
+  /**
+   * Get the number of keys currently held by the caches confined from this cache.
+   */
+  int confinedSize() {
+    int size = 0;
+
+    for (HmacKeyCache confinedCache : confinedCaches) {
+      size += confinedCache.size();
+    }
+
+    return size;
+  }
+
+  /**
+   * Get the key cache shared by all digest token instances that were not given their own.
+   *
+   * @return the shared key cache
+   */
+  @NotNull
+  @Contract(pure = true)
+  public static HmacKeyCache getDefault() {
+    return DEFAULT_INSTANCE;
+  }
+
+  /**
+   * Get the maximum number of keys held by the cache.
+   *
+   * @return the capacity
+   */
+  @Contract(pure = true)
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Get the number of keys currently held by the cache.
+   *
+   * @return the number of keys
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Drop all keys of an application, e.g. after its secret was rotated.
+   *
+   * @param applicationId the application ID
+   */
+  @Contract("null -> fail")
+  public void invalidate(String applicationId) {
+    if (applicationId == null) {
+      throw new RuntimeException("Application ID must not be null");
+    }
+
+    for (Iterator<Key> iterator = entries.keySet().iterator(); iterator.hasNext(); ) {
+      if (iterator.next().applicationId.equals(applicationId)) {
+        iterator.remove();
+      }
+    }
+
+    for (HmacKeyCache confinedCache : confinedCaches) {
+      confinedCache.invalidate(applicationId);
+    }
+  }
+
+  /**
+   * Drop the key for a single secret of an application.
+   *
+   * @param applicationId the application ID
+   * @param secret        the secret that is no longer in use
+   */
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public void invalidate(String applicationId, String secret) {
+    if (applicationId == null) {
+      throw new RuntimeException("Application ID must not be null");
+    }
+
+    if (secret == null) {
+      throw new RuntimeException("Secret must not be null");
+    }
+
+    entries.remove(new Key(applicationId, secret));
+
+    for (HmacKeyCache confinedCache : confinedCaches) {
+      confinedCache.invalidate(applicationId, secret);
+    }
+  }
+
+  /**
+   * Drop all keys.
+   */
+  public void invalidateAll() {
+    entries.clear();
+
+    for (HmacKeyCache confinedCache : confinedCaches) {
+      confinedCache.invalidateAll();
+    }
+  }
+
+  /**
+   * Get a keyed HMAC for the calling thread.
+   * The returned instance must only be used by the calling thread and only until its next call to this method.
+   */
+  Mac getMac(String applicationId, String secret) throws NoSuchAlgorithmException, InvalidKeyException {
+    final Key key = new Key(applicationId, secret);
+    Entry entry = entries.get(key);
+
+    if (entry == null) {
+      entry = createEntry(applicationId, secret);
+
+      final Entry existing = entries.putIfAbsent(key, entry);
+
+      if (existing != null) {
+        entry = existing;
+      } else if (entries.size() > capacity) {
+        evict(entry);
+      }
+    }
+
+    entry.referenced = true;
+
+    if (confined) {
+      return entry.prototype;
+    }
+
+    final Slot slot = slots.get();
+
+    if (slot.entry != entry) {
+      slot.mac = entry.newMac();
+      slot.entry = entry;
+    }
+
+    return slot.mac;
+  }
+
+  private static Entry createEntry(String applicationId, String secret) throws NoSuchAlgorithmException, InvalidKeyException {
+    // The hmac salt is the concatenation of application ID and secret to eliminate the use of lookup table for brute force attacks.
+    final String salt = applicationId + secret;
+    final SecretKeySpec keySpec = new SecretKeySpec(salt.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+    final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+
+    mac.init(keySpec);
+
+    return new Entry(keySpec, mac);
+  }
+
+  private void evict(Entry added) {
+    // Second chance eviction: keys used since the last sweep survive one more sweep.
+    while (entries.size() > capacity) {
+      for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext() && entries.size() > capacity; ) {
+        final Entry entry = iterator.next();
+
+        if (entry == added) {
+          continue;
+        }
+
+        if (entry.referenced) {
+          entry.referenced = false;
+        } else {
+          iterator.remove();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.phenixrts.edgeauth;
+
+import java.util.Collections;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonReaderFactory;
+import javax.json.JsonWriterFactory;
+import javax.json.spi.JsonProvider;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParserFactory;
+
+/**
+ * JSON factories shared by all tokens.
+ * <p>
+ * Every call to {@link javax.json.Json} looks up the provider with a service loader. The provider is resolved once
+ * and the factories, which are thread safe, are reused for every token.
+ */
+final class JsonFactories {
+  static final JsonProvider PROVIDER = JsonProvider.provider();
+  static final JsonReaderFactory READER_FACTORY = PROVIDER.createReaderFactory(Collections.<String, Object>emptyMap());
+  static final JsonWriterFactory WRITER_FACTORY = PROVIDER.createWriterFactory(Collections.<String, Object>emptyMap());
+  static final JsonWriterFactory PRETTY_WRITER_FACTORY = PROVIDER.createWriterFactory(
+      Collections.<String, Object>singletonMap(JsonGenerator.PRETTY_PRINTING, true));
+  static final JsonBuilderFactory BUILDER_FACTORY = PROVIDER.createBuilderFactory(Collections.<String, Object>emptyMap());
+  static final JsonParserFactory PARSER_FACTORY = PROVIDER.createParserFactory(Collections.<String, Object>emptyMap());
+
+  private JsonFactories() {
+  }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+/**
+ * Single pass check of the nesting depth and string lengths of a JSON value, done before it is parsed.
+ */
+final class JsonLimits {
+  private JsonLimits() {
+  }
+
+  /**
+   * Checks if a JSON value in a range of bytes stays within the limits.
+   * Malformed values are left to the parser.
+   *
+   * @return true, if no structure is nested deeper than the maximum depth and no string, counted in encoded bytes,
+   *     is longer than the maximum string length
+   */
+  static boolean isWithin(byte[] source, int from, int to, int maxNestingDepth, int maxStringLength) {
+    int depth = 0;
+    int i = from;
+
+    while (i < to) {
+      final byte b = source[i];
+
+      if (b == '"') {
+        final int start = ++i;
+
+        while (i < to && source[i] != '"') {
+          i += source[i] == '\\' ? 2 : 1;
+
+          if (i - start > maxStringLength) {
+            return false;
+          }
+        }
+
+        i++;
+
+        continue;
+      }
+
+      if (b == '{' || b == '[') {
+        if (++depth > maxNestingDepth) {
+          return false;
+        }
+      } else if (b == '}' || b == ']') {
+        depth--;
+      }
+
+      i++;
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+/**
+ * Writes JSON strings escaped exactly like the JSON writer, so that tokens serialized by hand are byte-identical.
+ */
+final class JsonStrings {
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  // Length of the escape sequence of each ASCII character, 1 if it is written as is.
+  private static final int[] ESCAPED_LENGTHS = new int[128];
+
+  static {
+    for (int c = 0; c < ESCAPED_LENGTHS.length; c++) {
+      ESCAPED_LENGTHS[c] = c < 0x20 ? 6 : 1;
+    }
+
+    ESCAPED_LENGTHS['"'] = 2;
+    ESCAPED_LENGTHS['\\'] = 2;
+    ESCAPED_LENGTHS['\b'] = 2;
+    ESCAPED_LENGTHS['\f'] = 2;
+    ESCAPED_LENGTHS['\n'] = 2;
+    ESCAPED_LENGTHS['\r'] = 2;
+    ESCAPED_LENGTHS['\t'] = 2;
+  }
+
+  private JsonStrings() {
+  }
+
+  /**
+   * Append a string in quotes, escaping quotes, backslashes and control characters.
+   */
+  static void appendQuoted(StringBuilder builder, String value) {
+    builder.append('"');
+
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+
+      switch (c) {
+        case '"':
+        case '\\':
+          builder.append('\\').append(c);
+          break;
+        case '\b':
+          builder.append("\\b");
+          break;
+        case '\f':
+          builder.append("\\f");
+          break;
+        case '\n':
+          builder.append("\\n");
+          break;
+        case '\r':
+          builder.append("\\r");
+          break;
+        case '\t':
+          builder.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            builder.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+          } else {
+            builder.append(c);
+          }
+      }
+    }
+
+    builder.append('"');
+  }
+
+  /**
+   * Get the number of bytes needed to write a UTF-8 encoded string in quotes.
+   */
+  static int quotedLength(byte[] source, int from, int to) {
+    int length = to - from + 2;
+
+    for (int i = from; i < to; i++) {
+      final int b = source[i];
+
+      // Bytes of multi-byte characters are negative and written as is.
+      if (b >= 0) {
+        length += ESCAPED_LENGTHS[b] - 1;
+      }
+    }
+
+    return length;
+  }
+
+  /**
+   * Write a UTF-8 encoded string in quotes, escaping quotes, backslashes and control characters.
+   *
+   * @return the offset after the last byte written
+   */
+  static int writeQuoted(byte[] source, int from, int to, byte[] destination, int offset) {
+    int position = offset;
+
+    destination[position++] = '"';
+
+    for (int i = from; i < to; i++) {
+      final byte b = source[i];
+
+      if (b < 0 || ESCAPED_LENGTHS[b] == 1) {
+        destination[position++] = b;
+        continue;
+      }
+
+      destination[position++] = '\\';
+
+      switch (b) {
+        case '"':
+        case '\\':
+          destination[position++] = b;
+          break;
+        case '\b':
+          destination[position++] = 'b';
+          break;
+        case '\f':
+          destination[position++] = 'f';
+          break;
+        case '\n':
+          destination[position++] = 'n';
+          break;
+        case '\r':
+          destination[position++] = 'r';
+          break;
+        case '\t':
+          destination[position++] = 't';
+          break;
+        default:
+          destination[position++] = 'u';
+          destination[position++] = '0';
+          destination[position++] = '0';
+          destination[position++] = (byte) HEX_DIGITS[b >> 4];
+          destination[position++] = (byte) HEX_DIGITS[b & 0xF];
+      }
+    }
+
+    destination[position++] = '"';
+
+    return position;
+  }
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Secrets of many applications, looked up by the application ID of a token.
+ * <p>
+ * An application may have several secrets while a secret is rotated. The secret that most recently verified a token
+ * is tried first. Secrets are held in immutable arrays that are swapped atomically, so that lookups and updates do not
+ * block each other. Secrets that are removed are dropped from the key cache, which should be the same key cache that
+ * is used by the {@link DigestTokens} verifying with this key ring.
+ */
+public final class KeyRing implements SecretSource {
+  private static final String[] NO_SECRETS = new String[0];
+
+  private final HmacKeyCache keyCache;
+  private final ConcurrentHashMap<String, AtomicReference<String[]>> applications = new ConcurrentHashMap<>();
+
+  /**
+   * Create an empty key ring using the shared key cache.
+   */
+  public KeyRing() {
+    this(HmacKeyCache.getDefault());
+  }
+
+  /**
+   * Create an empty key ring using the given key cache.
+   *
+   * @param keyCache the key cache to invalidate when secrets are removed
+   */
+  @Contract("null -> fail")
+  public KeyRing(HmacKeyCache keyCache) {
+    if (keyCache == null) {
+      throw new RuntimeException("Key cache must not be null");
+    }
+
+    this.keyCache = keyCache;
+  }
+
+  /**
+   * Add a secret of an application. The new secret is tried first.
+   *
+   * @param applicationId the application ID
+   * @param secret        the secret
+   */
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public void addSecret(String applicationId, String secret) {
+    if (applicationId == null) {
+      throw new RuntimeException("Application ID must not be null");
+    }
+
+    if (secret == null) {
+      throw new RuntimeException("Secret must not be null");
+    }
+
+    while (true) {
+      final AtomicReference<String[]> reference = getOrCreate(applicationId);
+      final String[] secrets = reference.get();
+
+      if (indexOf(secrets, secret) >= 0) {
+        return;
+      }
+
+      final String[] updatedSecrets = new String[secrets.length + 1];
+
+      updatedSecrets[0] = secret;
+      System.arraycopy(secrets, 0, updatedSecrets, 1, secrets.length);
+
+      // Retry if the application was removed in the meantime.
+      if (reference.compareAndSet(secrets, updatedSecrets) && applications.get(applicationId) == reference) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Remove a secret of an application, e.g. once a rotation is complete.
+   *
+   * @param applicationId the application ID
+   * @param secret        the secret that is no longer in use
+   */
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public void removeSecret(String applicationId, String secret) {
+    if (applicationId == null) {
+      throw new RuntimeException("Application ID must not be null");
+    }
+
+    if (secret == null) {
+      throw new RuntimeException("Secret must not be null");
+    }
+
+    final AtomicReference<String[]> reference = applications.get(applicationId);
+
+    if (reference == null) {
+      return;
+    }
+
+    while (true) {
+      final String[] secrets = reference.get();
+      final int index = indexOf(secrets, secret);
+
+      if (index < 0) {
+        break;
+      }
+
+      final String[] updatedSecrets = new String[secrets.length - 1];
+
+      System.arraycopy(secrets, 0, updatedSecrets, 0, index);
+      System.arraycopy(secrets, index + 1, updatedSecrets, index, secrets.length - index - 1);
+
+      if (reference.compareAndSet(secrets, updatedSecrets)) {
+        break;
+      }
+    }
+
+    keyCache.invalidate(applicationId, secret);
+  }
+
+  /**
+   * Replace all secrets of an application. The first secret is tried first.
+   *
+   * @param applicationId the application ID
+   * @param secrets       the secrets
+   */
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public void setSecrets(String applicationId, String... secrets) {
+    if (applicationId == null) {
+      throw new RuntimeException("Application ID must not be null");
+    }
+
+    if (secrets == null) {
+      throw new RuntimeException("Secrets must not be null");
+    }
+
+    final String[] updatedSecrets = secrets.clone();
+
+    for (String secret : updatedSecrets) {
+      if (secret == null) {
+        throw new RuntimeException("Secret must not be null");
+      }
+    }
+
+    String[] previousSecrets;
+
+    while (true) {
+      final AtomicReference<String[]> reference = getOrCreate(applicationId);
+
+      previousSecrets = reference.getAndSet(updatedSecrets);
+
+      if (applications.get(applicationId) == reference) {
+        break;
+      }
+    }
+
+    for (String secret : previousSecrets) {
+      if (indexOf(updatedSecrets, secret) < 0) {
+        keyCache.invalidate(applicationId, secret);
+      }
+    }
+  }
+
+  /**
+   * Remove all secrets of an application.
+   *
+   * @param applicationId the application ID
+   */
+  @Contract("null -> fail")
+  public void removeApplication(String applicationId) {
+    if (applicationId == null) {
+      throw new RuntimeException("Application ID must not be null");
+    }
+
+    final AtomicReference<String[]> reference = applications.remove(applicationId);
+
+    if (reference != null) {
+      reference.set(NO_SECRETS);
+    }
+
+    keyCache.invalidate(applicationId);
+  }
+
+  /**
+   * Get the secrets of an application in the order they are tried.
+   *
+   * @param applicationId the application ID
+   * @return the secrets, empty if the application has none
+   */
+  @NotNull
+  @Contract("null -> fail")
+  public List<String> getSecrets(String applicationId) {
+    if (applicationId == null) {
+      throw new RuntimeException("Application ID must not be null");
+    }
+
+    return Collections.unmodifiableList(Arrays.asList(lookupSecrets(applicationId)));
+  }
+
+  @NotNull
+  @Override
+  public String[] lookupSecrets(String applicationId) {
+    final AtomicReference<String[]> reference = applications.get(applicationId);
+
+    return reference == null ? NO_SECRETS : reference.get();
+  }
+
+  /**
+   * Moves the secret that verified a token to the front, unless the secrets changed since they were looked up.
+   */
+  @Override
+  public void secretVerified(String applicationId, String[] secrets, int index) {
+    if (index == 0) {
+      return;
+    }
+
+    final AtomicReference<String[]> reference = applications.get(applicationId);
+
+    if (reference == null) {
+      return;
+    }
+
+    final String[] updatedSecrets = secrets.clone();
+
+    updatedSecrets[0] = secrets[index];
+    System.arraycopy(secrets, 0, updatedSecrets, 1, index);
+
+    reference.compareAndSet(secrets, updatedSecrets);
+  }
+
+  private AtomicReference<String[]> getOrCreate(String applicationId) {
+    final AtomicReference<String[]> reference = applications.get(applicationId);
+
+    if (reference != null) {
+      return reference;
+    }
+
+    final AtomicReference<String[]> createdReference = new AtomicReference<>(NO_SECRETS);
+    final AtomicReference<String[]> existingReference = applications.putIfAbsent(applicationId, createdReference);
+
+    return existingReference == null ? createdReference : existingReference;
+  }
+
+  private static int indexOf(String[] secrets, String secret) {
+    for (int i = 0; i < secrets.length; i++) {
+      if (secrets[i].equals(secret)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+}
@@ -0,0 +1,611 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Secrets of many applications, read from a memory-mapped binary file.
+ * <p>
+ * The file holds an index of the applications sorted by application ID, which is binary searched in place, so that
+ * opening a file with many applications does not read it into the heap. When the file is watched, a changed file is
+ * mapped and validated in the background and swapped in atomically. Verifications keep using the previous file until
+ * the swap and are never paused. A file that fails to validate is ignored.
+ * <p>
+ * The secrets of an application are decoded once per file and then looked up without allocating. Secrets that are no
+ * longer in a reloaded file are dropped from the key cache, which should be the same key cache that is used by the
+ * {@link DigestTokens} verifying with this file.
+ * <p>
+ * A mapped file must not be modified in place. Replace it with a new file instead, as {@link #write(Path, Map)} does.
+ * <p>
+ * The format is, in big-endian byte order: the magic number {@code EASF}, the version, the number of applications,
+ * the offset of every application sorted by the UTF-8 bytes of the application ID, and then every application as the
+ * length and the UTF-8 bytes of the application ID, the number of secrets and the length and the UTF-8 bytes of every
+ * secret. Lengths are unsigned shorts and the number of secrets is an unsigned byte.
+ */
+public final class MappedSecretsFile implements SecretSource, Closeable {
+  private static final int MAGIC = 0x45415346;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 12;
+  private static final int MAX_LENGTH = 0xFFFF;
+  private static final int MAX_SECRETS = 0xFF;
+  private static final String[] NO_SECRETS = new String[0];
+
+  private final Path path;
+  private final HmacKeyCache keyCache;
+  private final AtomicLong reloads = new AtomicLong();
+  private volatile Mapping mapping;
+  private WatchService watchService;
+
+  /**
+   * A mapping of a validated file, with the secrets of the applications looked up so far.
+   */
+  private static final class Mapping {
+    private final ByteBuffer buffer;
+    private final int count;
+    // Only applications in the file are added, so the map is bounded by the file.
+    private final ConcurrentHashMap<String, String[]> decodedSecrets = new ConcurrentHashMap<>();
+
+    private Mapping(ByteBuffer buffer, int count) {
+      this.buffer = buffer;
+      this.count = count;
+    }
+
+    private String[] lookup(String applicationId) {
+      final String[] cachedSecrets = decodedSecrets.get(applicationId);
+
+      if (cachedSecrets != null) {
+        return cachedSecrets;
+      }
+
+      final int secretsOffset = find(applicationId.getBytes(StandardCharsets.UTF_8));
+
+      if (secretsOffset < 0) {
+        return NO_SECRETS;
+      }
+
+      final String[] secrets = readSecrets(secretsOffset);
+      final String[] existingSecrets = decodedSecrets.putIfAbsent(applicationId, secrets);
+
+      return existingSecrets == null ? secrets : existingSecrets;
+    }
+
+    /**
+     * Get the offset of the secrets of an application.
+     *
+     * @return the offset of the number of secrets, or -1 if the application is not in the file
+     */
+    private int find(byte[] applicationId) {
+      int low = 0;
+      int high = count - 1;
+
+      while (low <= high) {
+        final int middle = (low + high) >>> 1;
+        final int offset = applicationOffset(middle);
+        final int comparison = compare(buffer, offset + 2, buffer.getShort(offset) & MAX_LENGTH, applicationId);
+
+        if (comparison < 0) {
+          low = middle + 1;
+        } else if (comparison > 0) {
+          high = middle - 1;
+        } else {
+          return offset + 2 + applicationId.length;
+        }
+      }
+
+      return -1;
+    }
+
+    private int applicationOffset(int index) {
+      return buffer.getInt(HEADER_SIZE + index * 4);
+    }
+
+    private boolean containsSecret(int secretsOffset, ByteBuffer otherBuffer, int otherOffset, int otherLength) {
+      final int secretCount = buffer.get(secretsOffset) & MAX_SECRETS;
+      int position = secretsOffset + 1;
+
+      for (int i = 0; i < secretCount; i++) {
+        final int length = buffer.getShort(position) & MAX_LENGTH;
+
+        if (compare(buffer, position + 2, length, otherBuffer, otherOffset, otherLength) == 0) {
+          return true;
+        }
+
+        position += 2 + length;
+      }
+
+      return false;
+    }
+
+    private String[] readSecrets(int offset) {
+      final String[] secrets = new String[buffer.get(offset) & MAX_SECRETS];
+      int position = offset + 1;
+
+      for (int i = 0; i < secrets.length; i++) {
+        final int length = buffer.getShort(position) & MAX_LENGTH;
+
+        secrets[i] = readString(buffer, position + 2, length);
+        position += 2 + length;
+      }
+
+      return secrets;
+    }
+  }
+
+  private static final class ByteKey implements Comparable<ByteKey> {
+    private final byte[] bytes;
+
+    private ByteKey(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public int compareTo(ByteKey other) {
+      return compare(ByteBuffer.wrap(bytes), 0, bytes.length, other.bytes);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof ByteKey && compareTo((ByteKey) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(bytes);
+    }
+  }
+
+  private MappedSecretsFile(Path path, HmacKeyCache keyCache, Mapping mapping) {
+    this.path = path;
+    this.keyCache = keyCache;
+    this.mapping = mapping;
+  }
+
+  /**
+   * Open a secrets file without watching it for changes, using the shared key cache.
+   *
+   * @param path the path of the secrets file
+   * @return the secrets file
+   * @throws IOException if the file can not be read or is not a valid secrets file
+   */
+  @NotNull
+  @Contract("null -> fail")
+  public static MappedSecretsFile open(Path path) throws IOException {
+    return open(path, HmacKeyCache.getDefault());
+  }
+
+  /**
+   * Open a secrets file without watching it for changes.
+   *
+   * @param path     the path of the secrets file
+   * @param keyCache the key cache to invalidate when secrets are removed by a reload
+   * @return the secrets file
+   * @throws IOException if the file can not be read or is not a valid secrets file
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public static MappedSecretsFile open(Path path, HmacKeyCache keyCache) throws IOException {
+    if (path == null) {
+      throw new RuntimeException("Path must not be null");
+    }
+
+    if (keyCache == null) {
+      throw new RuntimeException("Key cache must not be null");
+    }
+
+    return new MappedSecretsFile(path, keyCache, map(path));
+  }
+
+  /**
+   * Open a secrets file and reload it whenever it changes, until it is closed, using the shared key cache.
+   *
+   * @param path the path of the secrets file
+   * @return the secrets file
+   * @throws IOException if the file can not be read or is not a valid secrets file
+   */
+  @NotNull
+  @Contract("null -> fail")
+  public static MappedSecretsFile watch(Path path) throws IOException {
+    return watch(path, HmacKeyCache.getDefault());
+  }
+
+  /**
+   * Open a secrets file and reload it whenever it changes, until it is closed.
+   *
+   * @param path     the path of the secrets file
+   * @param keyCache the key cache to invalidate when secrets are removed by a reload
+   * @return the secrets file
+   * @throws IOException if the file can not be read or is not a valid secrets file
+   */
+  @NotNull
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public static MappedSecretsFile watch(Path path, HmacKeyCache keyCache) throws IOException {
+    final MappedSecretsFile secretsFile = open(path, keyCache);
+
+    secretsFile.startWatching();
+
+    return secretsFile;
+  }
+
+  /**
+   * Write a secrets file. The file is written next to the given path and then moved in place, so that a watched file
+   * is replaced atomically.
+   *
+   * @param path    the path of the secrets file
+   * @param secrets the secrets by application ID, in the order they should be tried
+   * @throws IOException if the file can not be written
+   */
+  @Contract("null, _ -> fail; !null, null -> fail")
+  public static void write(Path path, Map<String, ? extends Collection<String>> secrets) throws IOException {
+    if (path == null) {
+      throw new RuntimeException("Path must not be null");
+    }
+
+    if (secrets == null) {
+      throw new RuntimeException("Secrets must not be null");
+    }
+
+    final TreeMap<ByteKey, byte[][]> sorted = new TreeMap<>();
+
+    for (Map.Entry<String, ? extends Collection<String>> entry : secrets.entrySet()) {
+      final byte[] applicationId = toBytes(entry.getKey(), "Application ID");
+      final Collection<String> applicationSecrets = entry.getValue();
+
+      if (applicationSecrets == null || applicationSecrets.size() > MAX_SECRETS) {
+        throw new RuntimeException("Secrets of an application must not be null and at most " + MAX_SECRETS);
+      }
+
+      final byte[][] secretsAsBytes = new byte[applicationSecrets.size()][];
+      int i = 0;
+
+      for (String secret : applicationSecrets) {
+        secretsAsBytes[i++] = toBytes(secret, "Secret");
+      }
+
+      sorted.put(new ByteKey(applicationId), secretsAsBytes);
+    }
+
+    final Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+
+    try {
+      try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(sorted.size());
+
+        int offset = HEADER_SIZE + sorted.size() * 4;
+
+        for (Map.Entry<ByteKey, byte[][]> entry : sorted.entrySet()) {
+          output.writeInt(offset);
+          offset += 2 + entry.getKey().bytes.length + 1;
+
+          for (byte[] secret : entry.getValue()) {
+            offset += 2 + secret.length;
+          }
+        }
+
+        for (Map.Entry<ByteKey, byte[][]> entry : sorted.entrySet()) {
+          output.writeShort(entry.getKey().bytes.length);
+          output.write(entry.getKey().bytes);
+          output.writeByte(entry.getValue().length);
+
+          for (byte[] secret : entry.getValue()) {
+            output.writeShort(secret.length);
+            output.write(secret);
+          }
+        }
+      }
+
+      Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Get the number of applications in the current file.
+   *
+   * @return the number of applications
+   */
+  public int getApplicationCount() {
+    return mapping.count;
+  }
+
+  /**
+   * Get the number of times a changed file was swapped in.
+   *
+   * @return the number of reloads
+   */
+  public long getReloadCount() {
+    return reloads.get();
+  }
+
+  /**
+   * Map the file again and swap it in, e.g. when it is not watched. Secrets that are no longer in the file are dropped
+   * from the key cache.
+   *
+   * @return true, if the file was swapped in, false if it is not a valid secrets file
+   */
+  public synchronized boolean reload() {
+    final Mapping previousMapping = mapping;
+    final Mapping reloadedMapping;
+
+    try {
+      reloadedMapping = map(path);
+    } catch (IOException e) {
+      return false;
+    }
+
+    mapping = reloadedMapping;
+    reloads.incrementAndGet();
+    invalidateRemovedSecrets(previousMapping, reloadedMapping);
+
+    return true;
+  }
+
+  /**
+   * Look up the secrets of an application in the order they are stored in the file.
+   *
+   * @param applicationId the application ID of a token
+   * @return the secrets, empty if the application has none
+   */
+  @NotNull
+  @Override
+  public String[] lookupSecrets(String applicationId) {
+    return mapping.lookup(applicationId);
+  }
+
+  /**
+   * The order of the secrets is given by the file and not changed by verifications.
+   */
+  @Override
+  public void secretVerified(String applicationId, String[] secrets, int index) {
+  }
+
+  /**
+   * Stop watching the file. The last mapping stays readable.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (watchService != null) {
+      watchService.close();
+      watchService = null;
+    }
+  }
+
+  private synchronized void startWatching() throws IOException {
+    final Path directory = path.toAbsolutePath().getParent();
+    final Path fileName = path.getFileName();
+
+    watchService = directory.getFileSystem().newWatchService();
+    directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+    final WatchService watchedBy = watchService;
+    final Thread watcher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        watch(watchedBy, fileName);
+      }
+    }, "edge-auth-secrets-watcher");
+
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  private void watch(WatchService watchedBy, Path fileName) {
+    try {
+      while (true) {
+        final WatchKey key = watchedBy.take();
+        boolean changed = false;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+          changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context());
+        }
+
+        if (changed) {
+          reload();
+        }
+
+        if (!key.reset()) {
+          return;
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // Closed
+    }
+  }
+
+  private void invalidateRemovedSecrets(Mapping previousMapping, Mapping reloadedMapping) {
+    final ByteBuffer buffer = previousMapping.buffer;
+
+    for (int i = 0; i < previousMapping.count; i++) {
+      final int offset = previousMapping.applicationOffset(i);
+      final int applicationIdLength = buffer.getShort(offset) & MAX_LENGTH;
+      final byte[] applicationId = readBytes(buffer, offset + 2, applicationIdLength);
+      final int reloadedSecretsOffset = reloadedMapping.find(applicationId);
+      final int secretCount = buffer.get(offset + 2 + applicationIdLength) & MAX_SECRETS;
+      int position = offset + 2 + applicationIdLength + 1;
+
+      for (int j = 0; j < secretCount; j++) {
+        final int length = buffer.getShort(position) & MAX_LENGTH;
+        final int secretOffset = position + 2;
+
+        if (reloadedSecretsOffset < 0
+            || !reloadedMapping.containsSecret(reloadedSecretsOffset, buffer, secretOffset, length)) {
+          keyCache.invalidate(new String(applicationId, StandardCharsets.UTF_8), readString(buffer, secretOffset, length));
+        }
+
+        position = secretOffset + length;
+      }
+    }
+  }
+
+  private static Mapping map(Path path) throws IOException {
+    final MappedByteBuffer buffer;
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Secrets file is too large");
+      }
+
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    return new Mapping(buffer, validate(buffer));
+  }
+
+  private static int validate(ByteBuffer buffer) throws IOException {
+    // Every offset and length is checked once, so that lookups can trust the file.
+    final int size = buffer.limit();
+
+    if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a secrets file");
+    }
+
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported secrets file version");
+    }
+
+    final int count = buffer.getInt(8);
+
+    if (count < 0 || count > (size - HEADER_SIZE) / 4) {
+      throw new IOException("Invalid number of applications");
+    }
+
+    int previousOffset = -1;
+
+    for (int i = 0; i < count; i++) {
+      final int offset = buffer.getInt(HEADER_SIZE + i * 4);
+
+      if (offset < HEADER_SIZE + count * 4 || offset > size - 3) {
+        throw new IOException("Invalid application offset");
+      }
+
+      final int applicationIdLength = buffer.getShort(offset) & MAX_LENGTH;
+      int position = offset + 2 + applicationIdLength;
+
+      if (position >= size) {
+        throw new IOException("Invalid application ID length");
+      }
+
+      if (previousOffset >= 0 && compare(buffer, previousOffset + 2, buffer.getShort(previousOffset) & MAX_LENGTH,
+          buffer, offset + 2, applicationIdLength) >= 0) {
+        throw new IOException("Applications are not sorted");
+      }
+
+      final int secretCount = buffer.get(position) & MAX_SECRETS;
+
+      position++;
+
+      for (int j = 0; j < secretCount; j++) {
+        if (position + 2 > size) {
+          throw new IOException("Invalid secret");
+        }
+
+        position += 2 + (buffer.getShort(position) & MAX_LENGTH);
+
+        if (position > size) {
+          throw new IOException("Invalid secret length");
+        }
+      }
+
+      previousOffset = offset;
+    }
+
+    return count;
+  }
+
+  private static int compare(ByteBuffer buffer, int offset, int length, byte[] other) {
+    final int commonLength = Math.min(length, other.length);
+
+    for (int i = 0; i < commonLength; i++) {
+      final int difference = (buffer.get(offset + i) & 0xFF) - (other[i] & 0xFF);
+
+      if (difference != 0) {
+        return difference;
+      }
+    }
+
+    return length - other.length;
+  }
+
+  private static int compare(ByteBuffer buffer, int offset, int length, ByteBuffer otherBuffer, int otherOffset, int otherLength) {
+    final int commonLength = Math.min(length, otherLength);
+
+    for (int i = 0; i < commonLength; i++) {
+      final int difference = (buffer.get(offset + i) & 0xFF) - (otherBuffer.get(otherOffset + i) & 0xFF);
+
+      if (difference != 0) {
+        return difference;
+      }
+    }
+
+    return length - otherLength;
+  }
+
+  private static String readString(ByteBuffer buffer, int offset, int length) {
+    return new String(readBytes(buffer, offset, length), StandardCharsets.UTF_8);
+  }
+
+  private static byte[] readBytes(ByteBuffer buffer, int offset, int length) {
+    final byte[] bytes = new byte[length];
+
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(offset + i);
+    }
+
+    return bytes;
+  }
+
+  private static byte[] toBytes(String value, String name) {
+    if (value == null) {
+      throw new RuntimeException(name + " must not be null");
+    }
+
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+    if (bytes.length > MAX_LENGTH) {
+      throw new RuntimeException(name + " must be at most " + MAX_LENGTH + " bytes");
+    }
+
+    return bytes;
+  }
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.Contract;
+
+/**
+ * Fixed size cache of rejected tokens.
+ * <p>
+ * Misbehaving clients resend the same bad token over and over. The cache remembers tokens that were rejected with
+ * {@link ECode#BAD_TOKEN} or {@link ECode#BAD_DIGEST}, so that the same token with the same secret is rejected again
+ * without decoding it or calculating its digest.
+ * <p>
+ * Tokens are looked up by a 64-bit hash, and a hit is only accepted if the full encoded token and the secret match, so
+ * a token that was not rejected before is never reported as bad. Entries are dropped after the time to live. Each hash
+ * maps to a set of a few entries; when the set is full, an expired entry or one that was not hit recently is replaced.
+ * Tokens longer than {@link #MAX_TOKEN_LENGTH} characters are not cached, they are best rejected by the limits of the
+ * {@link VerifierPolicy}.
+ */
+public final class RejectedTokenCache {
+  public static final int MAX_TOKEN_LENGTH = 4096;
+  private static final int WAYS = 4;
+  private static final int LOCK_COUNT = 64;
+
+  private final int capacity;
+  private final long timeToLiveInMilliseconds;
+  private final long seed = new SecureRandom().nextLong();
+  private final int setMask;
+  private final long[] hashes;
+  private final long[] expirations;
+  private final String[] tokens;
+  private final String[] secrets;
+  private final ECode[] codes;
+  private final boolean[] referenced;
+  private final Object[] locks = new Object[LOCK_COUNT];
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Create a rejected token cache.
+   *
+   * @param capacity                 the maximum number of tokens held by the cache, rounded up to a power of two
+   * @param timeToLiveInMilliseconds the time a rejected token is remembered
+   */
+  public RejectedTokenCache(int capacity, long timeToLiveInMilliseconds) {
+    if (capacity <= 0 || capacity > 1 << 30) {
+      throw new RuntimeException("Capacity must be positive and at most 2^30");
+    }
+
+    if (timeToLiveInMilliseconds <= 0) {
+      throw new RuntimeException("Time to live must be positive");
+    }
+
+    final int slots = Math.max(WAYS, Integer.highestOneBit(capacity - 1) << 1);
+
+    this.capacity = slots;
+    this.timeToLiveInMilliseconds = timeToLiveInMilliseconds;
+    this.setMask = slots / WAYS - 1;
+    this.hashes = new long[slots];
+    this.expirations = new long[slots];
+    this.tokens = new String[slots];
+    this.secrets = new String[slots];
+    this.codes = new ECode[slots];
+    this.referenced = new boolean[slots];
+
+    for (int i = 0; i < LOCK_COUNT; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Get the maximum number of tokens held by the cache.
+   *
+   * @return the capacity
+   */
+  @Contract(pure = true)
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Get the time a rejected token is remembered.
+   *
+   * @return the time to live in milliseconds
+   */
+  @Contract(pure = true)
+  public long getTimeToLive() {
+    return timeToLiveInMilliseconds;
+  }
+
+  /**
+   * Get the number of lookups that found a rejected token.
+   *
+   * @return the number of hits
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * Get the number of lookups that did not find a rejected token.
+   *
+   * @return the number of misses
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Get the number of tokens replaced by other tokens or dropped after their time to live.
+   *
+   * @return the number of evictions
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * Drop all tokens, e.g. after a secret was changed.
+   */
+  public void invalidateAll() {
+    for (int set = 0; set <= setMask; set++) {
+      synchronized (locks[set & (LOCK_COUNT - 1)]) {
+        for (int i = set * WAYS; i < (set + 1) * WAYS; i++) {
+          clear(i);
+        }
+      }
+    }
+  }
+
+  /**
+   * Look up a rejected token.
+   *
+   * @return the code the token was rejected with, or null if the token is not cached
+   */
+  ECode get(String secret, CharSequence encodedToken, long now) {
+    if (encodedToken.length() > MAX_TOKEN_LENGTH) {
+      return null;
+    }
+
+    final long hash = TokenHashes.hash(seed, secret, encodedToken);
+    final int set = (int) hash & setMask;
+
+    synchronized (locks[set & (LOCK_COUNT - 1)]) {
+      for (int i = set * WAYS; i < (set + 1) * WAYS; i++) {
+        if (tokens[i] == null || hashes[i] != hash
+            || !TokenHashes.isEqual(tokens[i], encodedToken) || !secrets[i].equals(secret)) {
+          continue;
+        }
+
+        if (expirations[i] <= now) {
+          clear(i);
+          evictions.incrementAndGet();
+
+          break;
+        }
+
+        referenced[i] = true;
+        hits.incrementAndGet();
+
+        return codes[i];
+      }
+    }
+
+    misses.incrementAndGet();
+
+    return null;
+  }
+
+  /**
+   * Remember a rejected token for the time to live.
+   */
+  void put(String secret, CharSequence encodedToken, ECode code, long now) {
+    if (encodedToken.length() > MAX_TOKEN_LENGTH) {
+      return;
+    }
+
+    final long hash = TokenHashes.hash(seed, secret, encodedToken);
+    final int set = (int) hash & setMask;
+
+    synchronized (locks[set & (LOCK_COUNT - 1)]) {
+      final int slot = selectSlot(set, now);
+
+      if (tokens[slot] != null) {
+        evictions.incrementAndGet();
+      }
+
+      hashes[slot] = hash;
+      expirations[slot] = now + timeToLiveInMilliseconds;
+      tokens[slot] = encodedToken.toString();
+      secrets[slot] = secret;
+      codes[slot] = code;
+      referenced[slot] = false;
+    }
+  }
+
+  private int selectSlot(int set, long now) {
+    final int first = set * WAYS;
+
+    for (int i = first; i < first + WAYS; i++) {
+      if (tokens[i] == null || expirations[i] <= now) {
+        return i;
+      }
+    }
+
+    // Second chance: entries hit since the last replacement in this set survive one more round.
+    for (int i = first; i < first + WAYS; i++) {
+      if (!referenced[i]) {
+        return i;
+      }
+
+      referenced[i] = false;
+    }
+
+    return first;
+  }
+
+  private void clear(int slot) {
+    hashes[slot] = 0;
+    expirations[slot] = 0;
+    tokens[slot] = null;
+    secrets[slot] = null;
+    codes[slot] = null;
+    referenced[slot] = false;
+  }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Source of the secrets used to verify tokens of many applications.
+ *
+ * @see KeyRing
+ * @see MappedSecretsFile
+ */
+public interface SecretSource {
+  /**
+   * Look up the secrets of an application in the order they should be tried.
+   * The returned array must not be modified.
+   *
+   * @param applicationId the application ID of a token
+   * @return the secrets, empty if the application has none
+   */
+  @NotNull
+  String[] lookupSecrets(String applicationId);
+
+  /**
+   * Notifies the source that a secret verified a token.
+   *
+   * @param applicationId the application ID of the token
+   * @param secrets       the secrets returned by {@link #lookupSecrets(String)}
+   * @param index         the index of the secret that verified the token
+   */
+  void secretVerified(String applicationId, String[] secrets, int index);
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+/**
+ * Scratch buffers reused by the tokens verified and signed on the same thread.
+ */
+final class TokenBuffers {
+  private static final int INITIAL_SIZE = 1024;
+  // Larger buffers are allocated per use, so that a single large token does not pin memory to the thread.
+  private static final int MAX_RETAINED_SIZE = 64 * 1024;
+  private static final ThreadLocal<TokenBuffers> BUFFERS = new ThreadLocal<TokenBuffers>() {
+    @Override
+    protected TokenBuffers initialValue() {
+      return new TokenBuffers();
+    }
+  };
+
+  private byte[] decoded = new byte[INITIAL_SIZE];
+  private byte[] token = new byte[INITIAL_SIZE];
+  private char[] chars = new char[INITIAL_SIZE];
+  private StringBuilder text = new StringBuilder(INITIAL_SIZE);
+  private final byte[] digest = new byte[HmacKeyCache.DIGEST_LENGTH];
+  private final byte[] expectedDigest = new byte[HmacKeyCache.DIGEST_LENGTH];
+  private final TokenEnvelope envelope = new TokenEnvelope();
+  private final EnvelopeEncoder encoder = new EnvelopeEncoder();
+  private final AsciiSequence ascii = new AsciiSequence();
+
+  /**
+   * Get the buffers of the calling thread.
+   */
+  static TokenBuffers get() {
+    return BUFFERS.get();
+  }
+
+  /**
+   * Get a buffer of at least the given size for a decoded token.
+   */
+  byte[] decoded(int size) {
+    if (size <= decoded.length) {
+      return decoded;
+    }
+
+    final byte[] buffer = new byte[size];
+
+    if (size <= MAX_RETAINED_SIZE) {
+      decoded = buffer;
+    }
+
+    return buffer;
+  }
+
+  /**
+   * Get a buffer of at least the given size for the signed part of a token.
+   */
+  byte[] token(int size) {
+    if (size <= token.length) {
+      return token;
+    }
+
+    final byte[] buffer = new byte[size];
+
+    if (size <= MAX_RETAINED_SIZE) {
+      token = buffer;
+    }
+
+    return buffer;
+  }
+
+  /**
+   * Get a buffer of at least the given size for decoded characters.
+   */
+  char[] chars(int size) {
+    if (size <= chars.length) {
+      return chars;
+    }
+
+    final char[] buffer = new char[size];
+
+    if (size <= MAX_RETAINED_SIZE) {
+      chars = buffer;
+    }
+
+    return buffer;
+  }
+
+  /**
+   * Get an empty builder for a serialized token.
+   */
+  StringBuilder text() {
+    if (text.capacity() > MAX_RETAINED_SIZE) {
+      text = new StringBuilder(INITIAL_SIZE);
+    }
+
+    text.setLength(0);
+
+    return text;
+  }
+
+  /**
+   * Get the buffer for a calculated digest.
+   */
+  byte[] digest() {
+    return digest;
+  }
+
+  /**
+   * Get the buffer for the digest provided with a token.
+   */
+  byte[] expectedDigest() {
+    return expectedDigest;
+  }
+
+  /**
+   * Get the envelope of the token being verified.
+   */
+  TokenEnvelope envelope() {
+    return envelope;
+  }
+
+  /**
+   * Get the view of the encoded token being verified from a buffer.
+   */
+  AsciiSequence ascii() {
+    return ascii;
+  }
+
+  /**
+   * Get the encoder of the token being signed.
+   */
+  EnvelopeEncoder encoder() {
+    return encoder;
+  }
+}
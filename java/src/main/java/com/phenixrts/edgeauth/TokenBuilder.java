@@ -16,33 +16,32 @@
 
 package com.phenixrts.edgeauth;
 
+import java.io.IOException;
 import java.io.StringWriter;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
 
-import javax.json.Json;
+import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonWriter;
-import javax.json.JsonWriterFactory;
-import javax.json.stream.JsonGenerator;
 
 import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
 
 /**
  * Token builder helper class to create digest tokens that can be used with the Phenix platform.
  */
 public final class TokenBuilder {
-  private static final String FIELD_TYPE = "type";
-  private static final String FIELD_SESSION_ID = "sessionId";
-  private static final String FIELD_REMOTE_ADDRESS_ID = "remoteAddress";
-  private static final String FIELD_ORIGIN_STREAM_ID = "originStreamId";
-  private static final String FIELD_REQUIRED_TAG = "requiredTag";
-  private static final String FIELD_APPLY_TAGS = "applyTags";
-  private static final String FIELD_CAPABILITIES = "capabilities";
+  static final String FIELD_TYPE = "type";
+  static final String FIELD_SESSION_ID = "sessionId";
+  static final String FIELD_REMOTE_ADDRESS_ID = "remoteAddress";
+  static final String FIELD_ORIGIN_STREAM_ID = "originStreamId";
+  static final String FIELD_REQUIRED_TAG = "requiredTag";
+  static final String FIELD_APPLY_TAGS = "applyTags";
+  static final String FIELD_CAPABILITIES = "capabilities";
   private String applicationId;
   private String secret;
   private final JsonObjectBuilder tokenBuilder;
@@ -54,7 +53,7 @@ public final class TokenBuilder {
    * Token Builder Constructor.
    */
   public TokenBuilder() {
-    this.tokenBuilder = Json.createObjectBuilder();
+    this.tokenBuilder = JsonFactories.BUILDER_FACTORY.createObjectBuilder();
   }
 
   /**
@@ -120,7 +119,7 @@ public final class TokenBuilder {
     }
 
     if (capabilitiesBuilder == null) {
-      this.capabilitiesBuilder = Json.createArrayBuilder();
+      this.capabilitiesBuilder = JsonFactories.BUILDER_FACTORY.createArrayBuilder();
     }
 
     this.capabilitiesBuilder.add(capability);
@@ -166,7 +165,7 @@ public final class TokenBuilder {
    */
   @Contract(" -> this")
   public TokenBuilder forAuthenticationOnly() {
-    this.tokenBuilder.add(FIELD_TYPE, "auth");
+    this.tokenBuilder.add(FIELD_TYPE, TokenType.AUTHENTICATION.getValue());
 
     return this;
   }
@@ -178,7 +177,7 @@ public final class TokenBuilder {
    */
   @Contract(" -> this")
   public TokenBuilder forStreamingOnly() {
-    this.tokenBuilder.add(FIELD_TYPE, "stream");
+    this.tokenBuilder.add(FIELD_TYPE, TokenType.STREAMING.getValue());
 
     return this;
   }
@@ -190,7 +189,7 @@ public final class TokenBuilder {
    */
   @Contract(" -> this")
   public TokenBuilder forPublishingOnly() {
-    this.tokenBuilder.add(FIELD_TYPE, "publish");
+    this.tokenBuilder.add(FIELD_TYPE, TokenType.PUBLISHING.getValue());
 
     return this;
   }
@@ -351,7 +350,7 @@ public final class TokenBuilder {
     }
 
     if (this.tagBuilder == null) {
-      this.tagBuilder = Json.createArrayBuilder();
+      this.tagBuilder = JsonFactories.BUILDER_FACTORY.createArrayBuilder();
     }
 
     this.tagBuilder.add(tag);
@@ -365,37 +364,104 @@ public final class TokenBuilder {
    * @return the token as a JSON string
    */
   public String getValue() {
-    Map<String, Object> writerOptions = new HashMap<>();
     StringWriter stringWriter = new StringWriter();
-
-    writerOptions.put(JsonGenerator.PRETTY_PRINTING, true);
-    JsonWriterFactory writerFactory = Json.createWriterFactory(writerOptions);
-    JsonWriter jsonWriter = writerFactory.createWriter(stringWriter);
+    JsonWriter jsonWriter = JsonFactories.PRETTY_WRITER_FACTORY.createWriter(stringWriter);
     jsonWriter.writeObject(this.tokenObject);
     jsonWriter.close();
 
     return stringWriter.toString();
   }
 
+  /**
+   * Build a template to mint many tokens that differ only in their expiration, session ID or remote address.
+   * Like {@link #build()}, this can only be called once.
+   *
+   * @return the template
+   */
+  @NotNull
+  public TokenTemplate buildTemplate() {
+    return buildSpec().toTemplate();
+  }
+
+  /**
+   * Build the spec of the token without signing it. Like {@link #build()}, this can only be called once.
+   */
+  TokenSpec buildSpec() {
+    final JsonArray capabilities = this.capabilitiesBuilder == null ? null : this.capabilitiesBuilder.build();
+    final JsonArray applyTags = this.tagBuilder == null ? null : this.tagBuilder.build();
+
+    return new TokenSpec(this.applicationId, this.secret, this.tokenBuilder.build(), capabilities, applyTags);
+  }
+
   /**
    * Build the signed token.
    *
    * @return the signed token that can be used with the Phenix platform
    */
   public String build() {
-    final DigestTokens digestTokens = new DigestTokens();
+    return new DigestTokens().signAndEncode(this.applicationId, this.secret, buildToken());
+  }
 
-    if (this.capabilitiesBuilder != null) {
-      this.tokenBuilder.add(FIELD_CAPABILITIES, this.capabilitiesBuilder);
-    }
+  /**
+   * Build the signed token into a byte array.
+   *
+   * @param destination the array to write the signed token to, as ASCII characters
+   * @param offset      the offset to write the signed token at
+   * @return the number of bytes written, see {@link #getEncodedLength()}
+   */
+  @Contract("null, _ -> fail")
+  public int build(byte[] destination, int offset) {
+    return new DigestTokens().signAndEncode(this.applicationId, this.secret, buildToken(), destination, offset);
+  }
 
-    if (this.tagBuilder != null) {
-      this.tokenBuilder.add(FIELD_APPLY_TAGS, this.tagBuilder);
-    }
+  /**
+   * Build the signed token into a byte buffer at its position, advancing the position.
+   *
+   * @param destination the buffer to write the signed token to, as ASCII characters
+   * @return the number of bytes written, see {@link #getEncodedLength()}
+   */
+  @Contract("null -> fail")
+  public int build(ByteBuffer destination) {
+    return new DigestTokens().signAndEncode(this.applicationId, this.secret, buildToken(), destination);
+  }
+
+  /**
+   * Build the signed token into an appendable, e.g. a writer or a string builder.
+   *
+   * @param destination the appendable to write the signed token to
+   * @return the number of characters written, see {@link #getEncodedLength()}
+   * @throws IOException if the appendable fails
+   */
+  @Contract("null -> fail")
+  public int build(Appendable destination) throws IOException {
+    return new DigestTokens().signAndEncode(this.applicationId, this.secret, buildToken(), destination);
+  }
 
-    // Unfortunately, the build() method can only be called once. Must save the result for getValue().
-    this.tokenObject = this.tokenBuilder.build();
+  /**
+   * Get the exact length of the signed token, to size the buffer to build it into. The token is complete once this
+   * is called, like when it is built.
+   *
+   * @return the length of the signed token in characters, which is the same in bytes
+   */
+  public int getEncodedLength() {
+    return new DigestTokens().getEncodedLength(this.applicationId, buildToken());
+  }
+
+  private JsonObject buildToken() {
+    // Unfortunately, the build() method of the JSON builder can only be called once. Must save the result for
+    // getValue() and for building the signed token after getting its length.
+    if (this.tokenObject == null) {
+      if (this.capabilitiesBuilder != null) {
+        this.tokenBuilder.add(FIELD_CAPABILITIES, this.capabilitiesBuilder);
+      }
+
+      if (this.tagBuilder != null) {
+        this.tokenBuilder.add(FIELD_APPLY_TAGS, this.tagBuilder);
+      }
+
+      this.tokenObject = this.tokenBuilder.build();
+    }
 
-    return digestTokens.signAndEncode(this.applicationId, this.secret, this.tokenObject);
+    return this.tokenObject;
   }
-}
\ No newline at end of file
+}
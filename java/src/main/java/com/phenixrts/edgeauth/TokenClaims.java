@@ -0,0 +1,247 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+
+/**
+ * Read only view of the claims of a verified token.
+ * <p>
+ * The view wraps the parsed token and overlays the application ID of the envelope instead of copying the token into a
+ * new object.
+ */
+final class TokenClaims extends AbstractMap<String, JsonValue> implements JsonObject {
+  private final JsonObject token;
+  private final Map.Entry<String, JsonValue> applicationId;
+  private final int size;
+
+  private TokenClaims(JsonObject token, String applicationId) {
+    this.token = token;
+    this.applicationId = new SimpleImmutableEntry<String, JsonValue>(DigestTokens.FIELD_APPLICATION_ID,
+        JsonFactories.BUILDER_FACTORY.createArrayBuilder().add(applicationId).build().getJsonString(0));
+    this.size = token.containsKey(DigestTokens.FIELD_APPLICATION_ID) ? token.size() : token.size() + 1;
+  }
+
+  /**
+   * Parse the claims of a verified token.
+   */
+  static TokenClaims parse(String applicationId, String token) {
+    try (JsonReader reader = JsonFactories.READER_FACTORY.createReader(new StringReader(token))) {
+      return new TokenClaims(reader.readObject(), applicationId);
+    }
+  }
+
+  @Override
+  public JsonValue get(Object name) {
+    if (DigestTokens.FIELD_APPLICATION_ID.equals(name)) {
+      return applicationId.getValue();
+    }
+
+    return token.get(name);
+  }
+
+  @Override
+  public boolean containsKey(Object name) {
+    return DigestTokens.FIELD_APPLICATION_ID.equals(name) || token.containsKey(name);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Set<Map.Entry<String, JsonValue>> entrySet() {
+    return new AbstractSet<Map.Entry<String, JsonValue>>() {
+      @Override
+      public Iterator<Map.Entry<String, JsonValue>> iterator() {
+        return new ClaimsIterator(token.entrySet().iterator());
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  @Override
+  public JsonArray getJsonArray(String name) {
+    return (JsonArray) get(name);
+  }
+
+  @Override
+  public JsonObject getJsonObject(String name) {
+    return (JsonObject) get(name);
+  }
+
+  @Override
+  public JsonNumber getJsonNumber(String name) {
+    return (JsonNumber) get(name);
+  }
+
+  @Override
+  public JsonString getJsonString(String name) {
+    return (JsonString) get(name);
+  }
+
+  @Override
+  public String getString(String name) {
+    return getJsonString(name).getString();
+  }
+
+  @Override
+  public String getString(String name, String defaultValue) {
+    final JsonValue value = get(name);
+
+    return value instanceof JsonString ? ((JsonString) value).getString() : defaultValue;
+  }
+
+  @Override
+  public int getInt(String name) {
+    return getJsonNumber(name).intValue();
+  }
+
+  @Override
+  public int getInt(String name, int defaultValue) {
+    final JsonValue value = get(name);
+
+    return value instanceof JsonNumber ? ((JsonNumber) value).intValue() : defaultValue;
+  }
+
+  @Override
+  public boolean getBoolean(String name) {
+    final JsonValue value = get(name);
+
+    if (value == null) {
+      throw new NullPointerException();
+    }
+
+    if (value == JsonValue.TRUE) {
+      return true;
+    }
+
+    if (value == JsonValue.FALSE) {
+      return false;
+    }
+
+    throw new ClassCastException();
+  }
+
+  @Override
+  public boolean getBoolean(String name, boolean defaultValue) {
+    final JsonValue value = get(name);
+
+    if (value == JsonValue.TRUE) {
+      return true;
+    }
+
+    if (value == JsonValue.FALSE) {
+      return false;
+    }
+
+    return defaultValue;
+  }
+
+  @Override
+  public boolean isNull(String name) {
+    return get(name).equals(JsonValue.NULL);
+  }
+
+  @Override
+  public ValueType getValueType() {
+    return ValueType.OBJECT;
+  }
+
+  @Override
+  public String toString() {
+    final StringWriter stringWriter = new StringWriter();
+
+    try (JsonWriter jsonWriter = JsonFactories.WRITER_FACTORY.createWriter(stringWriter)) {
+      jsonWriter.writeObject(this);
+    }
+
+    return stringWriter.toString();
+  }
+
+  private final class ClaimsIterator implements Iterator<Map.Entry<String, JsonValue>> {
+    private final Iterator<Map.Entry<String, JsonValue>> tokenEntries;
+    private Map.Entry<String, JsonValue> next;
+    private boolean applicationIdReturned;
+
+    private ClaimsIterator(Iterator<Map.Entry<String, JsonValue>> tokenEntries) {
+      this.tokenEntries = tokenEntries;
+      advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<String, JsonValue> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+
+      final Map.Entry<String, JsonValue> current = next;
+
+      advance();
+
+      return current;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private void advance() {
+      // The application ID of the envelope replaces any application ID of the token and comes last.
+      while (tokenEntries.hasNext()) {
+        final Map.Entry<String, JsonValue> entry = tokenEntries.next();
+
+        if (!DigestTokens.FIELD_APPLICATION_ID.equals(entry.getKey())) {
+          next = entry;
+
+          return;
+        }
+      }
+
+      if (applicationIdReturned) {
+        next = null;
+      } else {
+        next = applicationId;
+        applicationIdReturned = true;
+      }
+    }
+  }
+}
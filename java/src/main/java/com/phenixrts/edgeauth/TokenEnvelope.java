@@ -0,0 +1,549 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The decoded outer object of a digest token, holding the application ID, the digest and the signed token.
+ * The envelope is read with a single pass over its UTF-8 bytes, without building a JSON tree: only the values of the
+ * three known fields are read, other fields are checked and skipped.
+ * The strings that are read are unescaped in place, into the UTF-8 bytes of their value, which are never longer than
+ * their escaped bytes. The values are then used as slices of the decoded envelope, and strings are only created when
+ * they are requested.
+ * Instances are reused by the thread that owns them.
+ */
+final class TokenEnvelope {
+  private static final byte[] FIELD_APPLICATION_ID = DigestTokens.FIELD_APPLICATION_ID.getBytes(StandardCharsets.UTF_8);
+  private static final byte[] FIELD_DIGEST = DigestTokens.FIELD_DIGEST.getBytes(StandardCharsets.UTF_8);
+  private static final byte[] FIELD_TOKEN = DigestTokens.FIELD_TOKEN.getBytes(StandardCharsets.UTF_8);
+  private static final int APPLICATION_ID = 0;
+  private static final int DIGEST = 1;
+  private static final int TOKEN = 2;
+
+  private byte[] source;
+  // The start and end of the unescaped value of each known field, or -1 if the field was not read.
+  private final int[] starts = new int[3];
+  private final int[] ends = new int[3];
+  private int stringStart;
+  private int stringEnd;
+  // The application ID of the previous envelope, which is reused while the envelopes of a thread are of the same one.
+  private byte[] applicationIdBytes = new byte[0];
+  private String applicationId = "";
+  // For each open structure of a skipped value, true for an object and false for an array.
+  private boolean[] structures = new boolean[16];
+
+  /**
+   * Parse a decoded envelope. The strings of the known fields are unescaped in place, so the source is changed.
+   *
+   * @return true, if the envelope is an object with string application ID, digest and token fields, each present once
+   */
+  boolean parse(byte[] source, int length) {
+    this.source = source;
+    Arrays.fill(starts, -1);
+    Arrays.fill(ends, -1);
+
+    return parseObject(source, length);
+  }
+
+  /**
+   * Get the application ID. The string is only created if it differs from that of the previous envelope.
+   */
+  String getApplicationId() {
+    final int start = starts[APPLICATION_ID];
+    final int end = ends[APPLICATION_ID];
+
+    if (!isEqual(source, start, end, applicationIdBytes)) {
+      applicationIdBytes = Arrays.copyOfRange(source, start, end);
+      applicationId = new String(applicationIdBytes, StandardCharsets.UTF_8);
+    }
+
+    return applicationId;
+  }
+
+  String getDigest() {
+    return new String(source, starts[DIGEST], ends[DIGEST] - starts[DIGEST], StandardCharsets.UTF_8);
+  }
+
+  String getToken() {
+    return new String(source, starts[TOKEN], ends[TOKEN] - starts[TOKEN], StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Decode the digest, if it is the canonical encoding of exactly as many bytes as the destination holds.
+   *
+   * @return true, if the digest is decoded
+   */
+  boolean decodeDigest(byte[] destination) {
+    return Base64Codec.decodeCanonical(source, starts[DIGEST], ends[DIGEST], destination);
+  }
+
+  /**
+   * Get the decoded envelope that holds the UTF-8 bytes of the token between {@link #getTokenStart()} and
+   * {@link #getTokenEnd()}.
+   */
+  byte[] getSource() {
+    return source;
+  }
+
+  int getTokenStart() {
+    return starts[TOKEN];
+  }
+
+  int getTokenEnd() {
+    return ends[TOKEN];
+  }
+
+  /**
+   * Copy the UTF-8 bytes of the token, e.g. to decode it after the envelope was reused.
+   */
+  byte[] copyToken() {
+    return Arrays.copyOfRange(source, starts[TOKEN], ends[TOKEN]);
+  }
+
+  private boolean parseObject(byte[] source, int length) {
+    int i = skipWhitespace(source, 0, length);
+
+    if (i >= length || source[i] != '{') {
+      return false;
+    }
+
+    i = skipWhitespace(source, i + 1, length);
+
+    while (i < length && source[i] == '"') {
+      i = readString(source, i, length);
+
+      if (i < 0) {
+        return false;
+      }
+
+      final int field = matchField(source);
+
+      i = skipWhitespace(source, i, length);
+
+      if (i >= length || source[i] != ':') {
+        return false;
+      }
+
+      i = skipWhitespace(source, i + 1, length);
+
+      if (field < 0) {
+        i = skipValue(source, i, length);
+      } else if (i < length && source[i] == '"' && starts[field] < 0) {
+        i = readString(source, i, length);
+        starts[field] = stringStart;
+        ends[field] = stringEnd;
+      } else {
+        // The value of a known field is not a string, or the field is repeated.
+        return false;
+      }
+
+      if (i < 0) {
+        return false;
+      }
+
+      i = skipWhitespace(source, i, length);
+
+      if (i < length && source[i] == ',') {
+        i = skipWhitespace(source, i + 1, length);
+
+        if (i >= length || source[i] != '"') {
+          return false;
+        }
+      } else if (i < length && source[i] == '}') {
+        return skipWhitespace(source, i + 1, length) == length
+            && starts[APPLICATION_ID] >= 0 && starts[DIGEST] >= 0 && starts[TOKEN] >= 0;
+      } else {
+        return false;
+      }
+    }
+
+    return false;
+  }
+
+  private int matchField(byte[] source) {
+    if (isEqual(source, stringStart, stringEnd, FIELD_APPLICATION_ID)) {
+      return APPLICATION_ID;
+    }
+
+    if (isEqual(source, stringStart, stringEnd, FIELD_DIGEST)) {
+      return DIGEST;
+    }
+
+    if (isEqual(source, stringStart, stringEnd, FIELD_TOKEN)) {
+      return TOKEN;
+    }
+
+    return -1;
+  }
+
+  private static boolean isEqual(byte[] source, int start, int end, byte[] value) {
+    if (end - start != value.length) {
+      return false;
+    }
+
+    for (int i = 0; i < value.length; i++) {
+      if (source[start + i] != value[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Read the string starting at the opening quote and unescape it in place. Its value is left between the start and
+   * the end of the string. Escaped surrogates that are not part of a pair are replaced with '?', the same as when the
+   * value is encoded with {@link Utf8}.
+   *
+   * @return the index after the closing quote, or -1 if the string is malformed
+   */
+  private int readString(byte[] source, int from, int length) {
+    int position = from + 1;
+    int i = from + 1;
+
+    stringStart = position;
+
+    while (i < length) {
+      final byte b = source[i];
+
+      if (b == '"') {
+        stringEnd = position;
+
+        return i + 1;
+      }
+
+      // Both the bytes of non-ASCII characters, which are negative, and the ASCII characters other than control
+      // characters are part of the value as they are.
+      if (b != '\\') {
+        if (b >= 0 && b < 0x20) {
+          return -1;
+        }
+
+        source[position++] = b;
+        i++;
+        continue;
+      }
+
+      if (i + 1 >= length) {
+        return -1;
+      }
+
+      final int escaped = unescaped(source[i + 1]);
+
+      if (escaped >= 0) {
+        source[position++] = (byte) escaped;
+        i += 2;
+        continue;
+      }
+
+      if (source[i + 1] != 'u' || i + 6 > length) {
+        return -1;
+      }
+
+      final int value = hexValue(source[i + 2], source[i + 3], source[i + 4], source[i + 5]);
+
+      if (value < 0) {
+        return -1;
+      }
+
+      i += 6;
+
+      if (Character.isHighSurrogate((char) value) && i + 6 <= length && source[i] == '\\' && source[i + 1] == 'u') {
+        final int low = hexValue(source[i + 2], source[i + 3], source[i + 4], source[i + 5]);
+
+        if (low >= 0 && Character.isLowSurrogate((char) low)) {
+          position = Utf8.encode(Character.toCodePoint((char) value, (char) low), source, position);
+          i += 6;
+          continue;
+        }
+      }
+
+      position = Utf8.encode(value, source, position);
+    }
+
+    return -1;
+  }
+
+  /**
+   * Check and skip a value of a field that is not read.
+   *
+   * @return the index after the value, or -1 if the value is malformed
+   */
+  private int skipValue(byte[] source, int from, int length) {
+    int depth = 0;
+    int i = from;
+
+    while (true) {
+      if (i < 0 || i >= length) {
+        return -1;
+      }
+
+      final byte b = source[i];
+
+      if (b == '{' || b == '[') {
+        final byte close = b == '{' ? (byte) '}' : (byte) ']';
+
+        i = skipWhitespace(source, i + 1, length);
+
+        if (i < length && source[i] == close) {
+          i++;
+        } else {
+          if (depth == structures.length) {
+            structures = Arrays.copyOf(structures, depth * 2);
+          }
+
+          structures[depth++] = b == '{';
+          i = b == '{' ? skipName(source, i, length) : i;
+          continue;
+        }
+      } else if (b == '"') {
+        i = skipString(source, i, length);
+      } else {
+        i = skipLiteralOrNumber(source, i, length);
+      }
+
+      // A value is complete, close the structures that end after it.
+      while (i >= 0 && depth > 0) {
+        i = skipWhitespace(source, i, length);
+
+        if (i >= length) {
+          return -1;
+        }
+
+        final boolean object = structures[depth - 1];
+
+        if (source[i] == ',') {
+          i = skipWhitespace(source, i + 1, length);
+          i = object ? skipName(source, i, length) : i;
+          break;
+        }
+
+        if (source[i] != (object ? '}' : ']')) {
+          return -1;
+        }
+
+        depth--;
+        i++;
+      }
+
+      if (i < 0 || depth == 0) {
+        return i;
+      }
+    }
+  }
+
+  /**
+   * Skip the name of a field and the colon after it.
+   *
+   * @return the index of the value, or -1 if the name is malformed
+   */
+  private static int skipName(byte[] source, int from, int length) {
+    if (from >= length || source[from] != '"') {
+      return -1;
+    }
+
+    int i = skipString(source, from, length);
+
+    if (i < 0) {
+      return -1;
+    }
+
+    i = skipWhitespace(source, i, length);
+
+    if (i >= length || source[i] != ':') {
+      return -1;
+    }
+
+    return skipWhitespace(source, i + 1, length);
+  }
+
+  private static int skipString(byte[] source, int from, int length) {
+    int i = from + 1;
+
+    while (i < length) {
+      final byte b = source[i];
+
+      if (b == '"') {
+        return i + 1;
+      }
+
+      if (b >= 0 && b < 0x20) {
+        return -1;
+      }
+
+      if (b == '\\') {
+        if (i + 1 >= length) {
+          return -1;
+        }
+
+        if (unescaped(source[i + 1]) >= 0) {
+          i += 2;
+        } else if (source[i + 1] == 'u' && i + 6 <= length
+            && hexValue(source[i + 2], source[i + 3], source[i + 4], source[i + 5]) >= 0) {
+          i += 6;
+        } else {
+          return -1;
+        }
+
+        continue;
+      }
+
+      i++;
+    }
+
+    return -1;
+  }
+
+  private static int skipLiteralOrNumber(byte[] source, int from, int length) {
+    switch (source[from]) {
+      case 't':
+        return skipLiteral(source, from, length, "true");
+      case 'f':
+        return skipLiteral(source, from, length, "false");
+      case 'n':
+        return skipLiteral(source, from, length, "null");
+      default:
+        return skipNumber(source, from, length);
+    }
+  }
+
+  private static int skipLiteral(byte[] source, int from, int length, String literal) {
+    if (from + literal.length() > length) {
+      return -1;
+    }
+
+    for (int i = 0; i < literal.length(); i++) {
+      if (source[from + i] != literal.charAt(i)) {
+        return -1;
+      }
+    }
+
+    return from + literal.length();
+  }
+
+  private static int skipNumber(byte[] source, int from, int length) {
+    int i = from;
+
+    if (i < length && source[i] == '-') {
+      i++;
+    }
+
+    if (i < length && source[i] == '0') {
+      i++;
+    } else {
+      final int digits = i;
+
+      i = skipDigits(source, i, length);
+
+      if (i == digits) {
+        return -1;
+      }
+    }
+
+    if (i < length && source[i] == '.') {
+      final int digits = ++i;
+
+      i = skipDigits(source, i, length);
+
+      if (i == digits) {
+        return -1;
+      }
+    }
+
+    if (i < length && (source[i] == 'e' || source[i] == 'E')) {
+      i++;
+
+      if (i < length && (source[i] == '+' || source[i] == '-')) {
+        i++;
+      }
+
+      final int digits = i;
+
+      i = skipDigits(source, i, length);
+
+      if (i == digits) {
+        return -1;
+      }
+    }
+
+    return i;
+  }
+
+  private static int skipDigits(byte[] source, int from, int length) {
+    int i = from;
+
+    while (i < length && source[i] >= '0' && source[i] <= '9') {
+      i++;
+    }
+
+    return i;
+  }
+
+  /**
+   * Get the character of a single character escape sequence.
+   *
+   * @return the character, or -1 if the escape sequence is not a single character one
+   */
+  private static int unescaped(int c) {
+    switch (c) {
+      case '"':
+      case '\\':
+      case '/':
+        return c;
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      default:
+        return -1;
+    }
+  }
+
+  private static int hexValue(int c0, int c1, int c2, int c3) {
+    // Any invalid digit makes the combined value negative.
+    return hexDigit(c0) << 12 | hexDigit(c1) << 8 | hexDigit(c2) << 4 | hexDigit(c3);
+  }
+
+  private static int hexDigit(int c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    }
+
+    if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    }
+
+    return c >= 'A' && c <= 'F' ? c - 'A' + 10 : -1;
+  }
+
+  private static int skipWhitespace(byte[] source, int from, int length) {
+    int i = from;
+
+    while (i < length && (source[i] == ' ' || source[i] == '\t' || source[i] == '\n' || source[i] == '\r')) {
+      i++;
+    }
+
+    return i;
+  }
+}
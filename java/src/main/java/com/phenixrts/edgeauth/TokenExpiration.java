@@ -0,0 +1,175 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the expiration of a token from its UTF-8 bytes without parsing it.
+ */
+final class TokenExpiration {
+  static final long UNKNOWN = Long.MIN_VALUE;
+  private static final byte[] FIELD_EXPIRES = DigestTokens.FIELD_EXPIRES.getBytes(StandardCharsets.UTF_8);
+  private static final int MAX_FAST_DIGITS = 18;
+  private static final BigDecimal MAX_EXPIRES = BigDecimal.valueOf(Long.MAX_VALUE);
+  // The smallest expiration that is not mistaken for UNKNOWN.
+  private static final BigDecimal MIN_EXPIRES = BigDecimal.valueOf(UNKNOWN + 1);
+
+  private TokenExpiration() {
+  }
+
+  /**
+   * Read the expiration of a token from a range of its UTF-8 bytes.
+   * Only top level fields are considered. When the field occurs more than once, the last one wins, the same as when
+   * the token is parsed.
+   *
+   * @return the expiration in milliseconds since UNIX epoch, or {@link #UNKNOWN} if the token has no numeric expiration
+   */
+  static long read(byte[] token, int from, int to) {
+    long expires = UNKNOWN;
+    int depth = 0;
+    int i = from;
+
+    while (i < to) {
+      final byte b = token[i];
+
+      if (b == '"') {
+        final int start = i + 1;
+        final int end = skipString(token, start, to);
+
+        if (end < 0) {
+          return expires;
+        }
+
+        i = end + 1;
+
+        if (depth == 1 && isFieldExpires(token, start, end)) {
+          final int colon = skipWhitespace(token, i, to);
+
+          if (colon < to && token[colon] == ':') {
+            final int value = skipWhitespace(token, colon + 1, to);
+            final int valueEnd = skipNumber(token, value, to);
+
+            if (valueEnd > value) {
+              expires = parseNumber(token, value, valueEnd);
+              i = valueEnd;
+            } else {
+              expires = UNKNOWN;
+            }
+          }
+        }
+
+        continue;
+      }
+
+      if (b == '{' || b == '[') {
+        depth++;
+      } else if (b == '}' || b == ']') {
+        depth--;
+      }
+
+      i++;
+    }
+
+    return expires;
+  }
+
+  private static boolean isFieldExpires(byte[] token, int start, int end) {
+    if (end - start != FIELD_EXPIRES.length) {
+      return false;
+    }
+
+    for (int i = 0; i < FIELD_EXPIRES.length; i++) {
+      if (token[start + i] != FIELD_EXPIRES[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static int skipString(byte[] token, int start, int length) {
+    for (int i = start; i < length; i++) {
+      if (token[i] == '\\') {
+        i++;
+      } else if (token[i] == '"') {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private static int skipWhitespace(byte[] token, int start, int length) {
+    int i = start;
+
+    while (i < length && (token[i] == ' ' || token[i] == '\t' || token[i] == '\n' || token[i] == '\r')) {
+      i++;
+    }
+
+    return i;
+  }
+
+  private static int skipNumber(byte[] token, int start, int length) {
+    int i = start;
+
+    while (i < length && (token[i] >= '0' && token[i] <= '9' || token[i] == '-' || token[i] == '+'
+        || token[i] == '.' || token[i] == 'e' || token[i] == 'E')) {
+      i++;
+    }
+
+    return i;
+  }
+
+  private static long parseNumber(byte[] token, int start, int end) {
+    final boolean negative = token[start] == '-';
+    final int digitsStart = negative ? start + 1 : start;
+
+    if (end - digitsStart <= MAX_FAST_DIGITS && end > digitsStart) {
+      long value = 0;
+      int i = digitsStart;
+
+      while (i < end && token[i] >= '0' && token[i] <= '9') {
+        value = value * 10 + token[i] - '0';
+        i++;
+      }
+
+      if (i == end) {
+        return negative ? -value : value;
+      }
+    }
+
+    final BigDecimal value;
+
+    try {
+      value = new BigDecimal(new String(token, start, end - start, StandardCharsets.US_ASCII));
+    } catch (NumberFormatException e) {
+      return UNKNOWN;
+    }
+
+    // Out of range values are clamped rather than wrapped, which would turn a far future expiration into a past one.
+    if (value.compareTo(MAX_EXPIRES) >= 0) {
+      return Long.MAX_VALUE;
+    }
+
+    if (value.compareTo(MIN_EXPIRES) <= 0) {
+      return MIN_EXPIRES.longValue();
+    }
+
+    return value.longValue();
+  }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+/**
+ * Hashing and comparing encoded tokens for the token caches.
+ */
+final class TokenHashes {
+  private TokenHashes() {
+  }
+
+  /**
+   * Hash an encoded token together with the secret it is verified with.
+   * The seed should be chosen at random per cache so that collisions cannot be precomputed.
+   */
+  static long hash(long seed, String secret, CharSequence encodedToken) {
+    return hash(seed ^ secret.hashCode(), encodedToken);
+  }
+
+  /**
+   * Hash an encoded token on its own.
+   */
+  static long hash(long seed, CharSequence encodedToken) {
+    // FNV-1a over the characters of the token.
+    long hash = seed;
+
+    for (int i = 0; i < encodedToken.length(); i++) {
+      hash ^= encodedToken.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+
+    // Spread the bits so that both the low and the high bits are mixed.
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+
+    return hash;
+  }
+
+  /**
+   * Compare a cached token with an encoded token.
+   * All characters are compared to not leak how much of a cached token matches.
+   */
+  static boolean isEqual(String cached, CharSequence encodedToken) {
+    if (cached.length() != encodedToken.length()) {
+      return false;
+    }
+
+    int difference = 0;
+
+    for (int i = 0; i < cached.length(); i++) {
+      difference |= cached.charAt(i) ^ encodedToken.charAt(i);
+    }
+
+    return difference == 0;
+  }
+}
@@ -0,0 +1,578 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Bounded cache of issued tokens.
+ * <p>
+ * Many clients ask for a token with the same spec at once, e.g. every viewer of a channel. The cache returns the token
+ * it issued before for the same application ID, secret and fields, for as long as the token has at least the minimum
+ * remaining lifetime. The fields are compared regardless of the order they were added to the builder.
+ * <p>
+ * Tokens that were requested since they were issued are issued again in the background once their remaining lifetime
+ * drops below the refresh threshold, so that requests for them do not wait on signing. Tokens that are not requested
+ * are dropped once they fall below the minimum remaining lifetime. When the cache is full, a token that was not
+ * requested recently is dropped.
+ */
+public final class TokenIssuanceCache implements Closeable {
+  public static final int DEFAULT_CAPACITY = 10000;
+  public static final long DEFAULT_TOKEN_LIFETIME = 3600000;
+
+  private final int capacity;
+  private final long tokenLifetimeInMilliseconds;
+  private final long minRemainingLifetimeInMilliseconds;
+  private final long refreshThresholdInMilliseconds;
+  private final long refreshIntervalInMilliseconds;
+  private final Clock clock;
+  private final ScheduledExecutorService scheduler;
+  private final boolean ownsScheduler;
+  private final ScheduledFuture<?> refreshTask;
+  private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong refreshes = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Builder for token issuance caches.
+   */
+  public static final class Builder {
+    private int capacity = DEFAULT_CAPACITY;
+    private long tokenLifetimeInMilliseconds = DEFAULT_TOKEN_LIFETIME;
+    private long minRemainingLifetimeInMilliseconds = -1;
+    private long refreshThresholdInMilliseconds = -1;
+    private long refreshIntervalInMilliseconds = -1;
+    private Clock clock = Clock.SYSTEM;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * The maximum number of tokens held by the cache (optional, defaults to {@link #DEFAULT_CAPACITY}).
+     *
+     * @param capacity the capacity
+     * @return itself
+     */
+    @Contract("_ -> this")
+    public Builder withCapacity(int capacity) {
+      if (capacity <= 0) {
+        throw new RuntimeException("Capacity must be positive");
+      }
+
+      this.capacity = capacity;
+
+      return this;
+    }
+
+    /**
+     * The lifetime of issued tokens (optional, defaults to {@link #DEFAULT_TOKEN_LIFETIME}).
+     *
+     * @param milliseconds the lifetime in milliseconds
+     * @return itself
+     */
+    @Contract("_ -> this")
+    public Builder withTokenLifetime(long milliseconds) {
+      if (milliseconds <= 0) {
+        throw new RuntimeException("Token lifetime must be positive");
+      }
+
+      this.tokenLifetimeInMilliseconds = milliseconds;
+
+      return this;
+    }
+
+    /**
+     * The lifetime a cached token must have left to be returned (optional, defaults to a quarter of the token lifetime).
+     *
+     * @param milliseconds the minimum remaining lifetime in milliseconds
+     * @return itself
+     */
+    @Contract("_ -> this")
+    public Builder withMinRemainingLifetime(long milliseconds) {
+      if (milliseconds < 0) {
+        throw new RuntimeException("Minimum remaining lifetime must not be negative");
+      }
+
+      this.minRemainingLifetimeInMilliseconds = milliseconds;
+
+      return this;
+    }
+
+    /**
+     * The remaining lifetime below which requested tokens are issued again in the background (optional, defaults to
+     * half of the token lifetime). It must be greater than the minimum remaining lifetime.
+     *
+     * @param milliseconds the refresh threshold in milliseconds
+     * @return itself
+     */
+    @Contract("_ -> this")
+    public Builder withRefreshThreshold(long milliseconds) {
+      if (milliseconds <= 0) {
+        throw new RuntimeException("Refresh threshold must be positive");
+      }
+
+      this.refreshThresholdInMilliseconds = milliseconds;
+
+      return this;
+    }
+
+    /**
+     * The interval at which tokens are checked for refresh (optional, defaults to a quarter of the time between the
+     * refresh threshold and the minimum remaining lifetime).
+     *
+     * @param milliseconds the refresh interval in milliseconds
+     * @return itself
+     */
+    @Contract("_ -> this")
+    public Builder withRefreshInterval(long milliseconds) {
+      if (milliseconds <= 0) {
+        throw new RuntimeException("Refresh interval must be positive");
+      }
+
+      this.refreshIntervalInMilliseconds = milliseconds;
+
+      return this;
+    }
+
+    /**
+     * The clock used to set the expiration of tokens (optional, defaults to the system clock).
+     *
+     * @param clock the clock
+     * @return itself
+     */
+    @Contract("null -> fail, _ -> this")
+    public Builder withClock(Clock clock) {
+      if (clock == null) {
+        throw new RuntimeException("Clock must not be null");
+      }
+
+      this.clock = clock;
+
+      return this;
+    }
+
+    /**
+     * The scheduler that refreshes tokens (optional, defaults to a daemon thread owned by the cache). A given scheduler
+     * is not shut down when the cache is closed.
+     *
+     * @param scheduler the scheduler
+     * @return itself
+     */
+    @Contract("null -> fail, _ -> this")
+    public Builder withScheduler(ScheduledExecutorService scheduler) {
+      if (scheduler == null) {
+        throw new RuntimeException("Scheduler must not be null");
+      }
+
+      this.scheduler = scheduler;
+
+      return this;
+    }
+
+    /**
+     * Build the cache and start refreshing tokens.
+     *
+     * @return the cache
+     */
+    @NotNull
+    public TokenIssuanceCache build() {
+      return new TokenIssuanceCache(this);
+    }
+  }
+
+  private static final class Key {
+    private final String applicationId;
+    private final String secret;
+    private final String spec;
+    private final int hash;
+
+    private Key(String applicationId, String secret, String spec) {
+      this.applicationId = applicationId;
+      this.secret = secret;
+      this.spec = spec;
+      this.hash = 31 * (31 * applicationId.hashCode() + secret.hashCode()) + spec.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+
+      if (!(other instanceof Key)) {
+        return false;
+      }
+
+      final Key key = (Key) other;
+
+      return hash == key.hash && spec.equals(key.spec) && applicationId.equals(key.applicationId)
+          && secret.equals(key.secret);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static final class IssuedToken {
+    private final String token;
+    private final long expires;
+
+    private IssuedToken(String token, long expires) {
+      this.token = token;
+      this.expires = expires;
+    }
+  }
+
+  private static final class Entry {
+    private final TokenTemplate template;
+    private volatile IssuedToken issuedToken;
+    // Requested since the last eviction sweep.
+    private volatile boolean referenced = true;
+    // Requested since the token was issued.
+    private volatile boolean requested;
+
+    private Entry(TokenTemplate template) {
+      this.template = template;
+    }
+  }
+
+  private TokenIssuanceCache(Builder builder) {
+    final long tokenLifetime = builder.tokenLifetimeInMilliseconds;
+    final long minRemainingLifetime = builder.minRemainingLifetimeInMilliseconds < 0
+        ? tokenLifetime / 4 : builder.minRemainingLifetimeInMilliseconds;
+    final long refreshThreshold = builder.refreshThresholdInMilliseconds < 0
+        ? tokenLifetime / 2 : builder.refreshThresholdInMilliseconds;
+
+    if (refreshThreshold >= tokenLifetime) {
+      throw new RuntimeException("Refresh threshold must be less than the token lifetime");
+    }
+
+    if (refreshThreshold <= minRemainingLifetime) {
+      throw new RuntimeException("Refresh threshold must be greater than the minimum remaining lifetime");
+    }
+
+    final long refreshInterval = builder.refreshIntervalInMilliseconds < 0
+        ? Math.max(1, (refreshThreshold - minRemainingLifetime) / 4) : builder.refreshIntervalInMilliseconds;
+
+    this.capacity = builder.capacity;
+    this.tokenLifetimeInMilliseconds = tokenLifetime;
+    this.minRemainingLifetimeInMilliseconds = minRemainingLifetime;
+    this.refreshThresholdInMilliseconds = refreshThreshold;
+    this.refreshIntervalInMilliseconds = refreshInterval;
+    this.clock = builder.clock;
+    this.ownsScheduler = builder.scheduler == null;
+    this.scheduler = ownsScheduler ? createScheduler() : builder.scheduler;
+    this.refreshTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        refresh();
+      }
+    }, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Get a token for the spec of the builder. The expiration set on the builder, if any, is ignored: tokens expire after
+   * the token lifetime. The builder is consumed, like by {@link TokenBuilder#build()}.
+   *
+   * @param tokenBuilder the builder with the application ID, secret and fields of the token
+   * @return the signed token
+   */
+  @NotNull
+  @Contract("null -> fail")
+  public String issue(TokenBuilder tokenBuilder) {
+    if (tokenBuilder == null) {
+      throw new RuntimeException("Token builder must not be null");
+    }
+
+    final TokenSpec spec = tokenBuilder.buildSpec();
+    final Key key = new Key(spec.getApplicationId(), spec.getSecret(), spec.toCanonicalString());
+    Entry entry = entries.get(key);
+
+    if (entry == null) {
+      entry = new Entry(spec.toTemplate());
+
+      final Entry existing = entries.putIfAbsent(key, entry);
+
+      if (existing != null) {
+        entry = existing;
+      } else if (entries.size() > capacity) {
+        evict(entry);
+      }
+    }
+
+    if (!entry.referenced) {
+      entry.referenced = true;
+    }
+
+    try {
+      final long now = clock.currentTimeMillis();
+      final IssuedToken issuedToken = entry.issuedToken;
+
+      if (issuedToken != null && issuedToken.expires - now >= minRemainingLifetimeInMilliseconds) {
+        if (!entry.requested) {
+          entry.requested = true;
+        }
+
+        hits.incrementAndGet();
+
+        return issuedToken.token;
+      }
+
+      misses.incrementAndGet();
+
+      return issueIfStale(entry, now).token;
+    } catch (RuntimeException e) {
+      // A token that was never issued must not take up a slot, so that the next request for it tries again.
+      if (entry.issuedToken == null) {
+        entries.remove(key, entry);
+      }
+
+      throw e;
+    }
+  }
+
+  /**
+   * Get the maximum number of tokens held by the cache.
+   *
+   * @return the capacity
+   */
+  @Contract(pure = true)
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Get the lifetime of issued tokens.
+   *
+   * @return the token lifetime in milliseconds
+   */
+  @Contract(pure = true)
+  public long getTokenLifetime() {
+    return tokenLifetimeInMilliseconds;
+  }
+
+  /**
+   * Get the lifetime a cached token must have left to be returned.
+   *
+   * @return the minimum remaining lifetime in milliseconds
+   */
+  @Contract(pure = true)
+  public long getMinRemainingLifetime() {
+    return minRemainingLifetimeInMilliseconds;
+  }
+
+  /**
+   * Get the remaining lifetime below which requested tokens are issued again in the background.
+   *
+   * @return the refresh threshold in milliseconds
+   */
+  @Contract(pure = true)
+  public long getRefreshThreshold() {
+    return refreshThresholdInMilliseconds;
+  }
+
+  /**
+   * Get the interval at which tokens are checked for refresh.
+   *
+   * @return the refresh interval in milliseconds
+   */
+  @Contract(pure = true)
+  public long getRefreshInterval() {
+    return refreshIntervalInMilliseconds;
+  }
+
+  /**
+   * Get the number of tokens currently held by the cache.
+   *
+   * @return the number of tokens
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Get the number of requests that returned a cached token.
+   *
+   * @return the number of hits
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * Get the number of requests that issued a token.
+   *
+   * @return the number of misses
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Get the share of requests that returned a cached token.
+   *
+   * @return the hit rate between 0 and 1, or 0 if there were no requests
+   */
+  public double getHitRate() {
+    final long hitCount = hits.get();
+    final long requestCount = hitCount + misses.get();
+
+    return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+  }
+
+  /**
+   * Get the number of tokens issued again in the background.
+   *
+   * @return the number of refreshes
+   */
+  public long getRefreshCount() {
+    return refreshes.get();
+  }
+
+  /**
+   * Get the number of tokens dropped because they were not requested or to make room for other tokens.
+   *
+   * @return the number of evictions
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * Drop all tokens, e.g. after a secret was revoked.
+   */
+  public void invalidateAll() {
+    entries.clear();
+  }
+
+  /**
+   * Stop refreshing tokens. Tokens are still issued on request.
+   */
+  @Override
+  public void close() {
+    refreshTask.cancel(false);
+
+    if (ownsScheduler) {
+      scheduler.shutdown();
+    }
+  }
+
+  /**
+   * Issue the tokens that were requested and fall below the refresh threshold again, and drop the tokens that were not
+   * requested and fall below the minimum remaining lifetime.
+   */
+  void refresh() {
+    final long now = clock.currentTimeMillis();
+
+    for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+      final Entry entry = iterator.next();
+      final IssuedToken issuedToken = entry.issuedToken;
+
+      if (issuedToken == null) {
+        continue;
+      }
+
+      final long remainingLifetime = issuedToken.expires - now;
+
+      if (remainingLifetime > refreshThresholdInMilliseconds) {
+        continue;
+      }
+
+      if (entry.requested) {
+        try {
+          issue(entry, now);
+          refreshes.incrementAndGet();
+        } catch (RuntimeException e) {
+          // Keep refreshing the other tokens. The token is issued on request once it falls below the minimum lifetime.
+        }
+      } else if (remainingLifetime < minRemainingLifetimeInMilliseconds) {
+        iterator.remove();
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  private IssuedToken issueIfStale(Entry entry, long now) {
+    synchronized (entry) {
+      final IssuedToken issuedToken = entry.issuedToken;
+
+      // Another request may have issued the token while waiting.
+      if (issuedToken != null && issuedToken.expires - now >= minRemainingLifetimeInMilliseconds) {
+        return issuedToken;
+      }
+
+      return issue(entry, now);
+    }
+  }
+
+  private IssuedToken issue(Entry entry, long now) {
+    synchronized (entry) {
+      final long expires = now + tokenLifetimeInMilliseconds;
+      final IssuedToken issuedToken = new IssuedToken(entry.template.mint(expires, null, null), expires);
+
+      entry.issuedToken = issuedToken;
+      entry.requested = false;
+
+      return issuedToken;
+    }
+  }
+
+  private void evict(Entry added) {
+    // Second chance eviction: tokens requested since the last sweep survive one more sweep.
+    while (entries.size() > capacity) {
+      for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext() && entries.size() > capacity; ) {
+        final Entry entry = iterator.next();
+
+        if (entry == added) {
+          continue;
+        }
+
+        if (entry.referenced) {
+          entry.referenced = false;
+        } else {
+          iterator.remove();
+          evictions.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  private static ScheduledExecutorService createScheduler() {
+    return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        final Thread thread = new Thread(runnable, "edge-auth-token-refresh");
+
+        thread.setDaemon(true);
+
+        return thread;
+      }
+    });
+  }
+}
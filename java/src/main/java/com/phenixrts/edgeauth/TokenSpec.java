@@ -0,0 +1,96 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.util.Arrays;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+/**
+ * The application ID, secret and fields of a token, as collected by a {@link TokenBuilder}.
+ */
+final class TokenSpec {
+  private final String applicationId;
+  private final String secret;
+  private final JsonObject token;
+  private final JsonArray capabilities;
+  private final JsonArray applyTags;
+
+  TokenSpec(String applicationId, String secret, JsonObject token, JsonArray capabilities, JsonArray applyTags) {
+    if (applicationId == null) {
+      throw new RuntimeException("Application ID must not be null");
+    }
+
+    if (secret == null) {
+      throw new RuntimeException("Secret must not be null");
+    }
+
+    this.applicationId = applicationId;
+    this.secret = secret;
+    this.token = token;
+    this.capabilities = capabilities;
+    this.applyTags = applyTags;
+  }
+
+  String getApplicationId() {
+    return applicationId;
+  }
+
+  String getSecret() {
+    return secret;
+  }
+
+  /**
+   * Create a template to mint tokens of this spec.
+   */
+  TokenTemplate toTemplate() {
+    return new TokenTemplate(applicationId, secret, token, capabilities, applyTags);
+  }
+
+  /**
+   * Write the fields other than the expiration sorted by name, so that specs built by calling the builder in a
+   * different order are equal.
+   */
+  String toCanonicalString() {
+    final String[] names = token.keySet().toArray(new String[token.size()]);
+    final StringBuilder builder = new StringBuilder(128);
+
+    Arrays.sort(names);
+
+    for (String name : names) {
+      if (!name.equals(DigestTokens.FIELD_EXPIRES)) {
+        appendField(builder, name, token.get(name));
+      }
+    }
+
+    // The builder adds these after all other fields.
+    if (capabilities != null) {
+      appendField(builder, TokenBuilder.FIELD_CAPABILITIES, capabilities);
+    }
+
+    if (applyTags != null) {
+      appendField(builder, TokenBuilder.FIELD_APPLY_TAGS, applyTags);
+    }
+
+    return builder.toString();
+  }
+
+  private static void appendField(StringBuilder builder, String name, JsonValue value) {
+    CompactJson.appendField(builder, name, value);
+    builder.append(',');
+  }
+}
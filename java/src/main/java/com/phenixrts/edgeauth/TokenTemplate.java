@@ -0,0 +1,246 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Immutable template to mint many tokens that differ only in their expiration, session ID or remote address.
+ * <p>
+ * The constant fields of the token are serialized once. Minting only writes the expiration, session ID and remote
+ * address and signs the token. A minted token is byte-identical to the token built by the builder the template was
+ * created from, after calling {@link TokenBuilder#expiresAt(Date)}, {@link TokenBuilder#forSession(String)} and
+ * {@link TokenBuilder#forRemoteAddress(String)} with the same values. Templates are safe to use from many threads.
+ *
+ * @see TokenBuilder#buildTemplate()
+ */
+public final class TokenTemplate {
+  private static final String EXPIRES_PREFIX = "\"" + DigestTokens.FIELD_EXPIRES + "\":";
+  private static final String SESSION_ID_PREFIX = "\"" + TokenBuilder.FIELD_SESSION_ID + "\":";
+  private static final String REMOTE_ADDRESS_PREFIX = "\"" + TokenBuilder.FIELD_REMOTE_ADDRESS_ID + "\":";
+
+  private final DigestTokens digestTokens = new DigestTokens();
+  private final String applicationId;
+  private final String secret;
+  // Serialized fields in the order of the builder. The fields stamped when minting are null.
+  private final String[] fields;
+  private final int expiresIndex;
+  private final int sessionIdIndex;
+  private final int remoteAddressIndex;
+  private final String sessionId;
+  private final String remoteAddress;
+  // Serialized capabilities and applied tags, which the builder adds last.
+  private final String[] trailingFields;
+  private final int length;
+
+  TokenTemplate(String applicationId, String secret, JsonObject token, JsonArray capabilities, JsonArray applyTags) {
+    if (applicationId == null) {
+      throw new RuntimeException("Application ID must not be null");
+    }
+
+    if (secret == null) {
+      throw new RuntimeException("Secret must not be null");
+    }
+
+    final StringBuilder builder = new StringBuilder();
+    final List<String> serializedFields = new ArrayList<>();
+    int expiresIndex = -1;
+    int sessionIdIndex = -1;
+    int remoteAddressIndex = -1;
+    String sessionId = null;
+    String remoteAddress = null;
+    int length = 2;
+
+    for (Map.Entry<String, JsonValue> entry : token.entrySet()) {
+      switch (entry.getKey()) {
+        case DigestTokens.FIELD_EXPIRES:
+          expiresIndex = serializedFields.size();
+          serializedFields.add(null);
+          break;
+        case TokenBuilder.FIELD_SESSION_ID:
+          sessionIdIndex = serializedFields.size();
+          sessionId = token.getString(TokenBuilder.FIELD_SESSION_ID);
+          serializedFields.add(null);
+          break;
+        case TokenBuilder.FIELD_REMOTE_ADDRESS_ID:
+          remoteAddressIndex = serializedFields.size();
+          remoteAddress = token.getString(TokenBuilder.FIELD_REMOTE_ADDRESS_ID);
+          serializedFields.add(null);
+          break;
+        default:
+          final String field = serialize(builder, entry.getKey(), entry.getValue());
+
+          serializedFields.add(field);
+          length += field.length() + 1;
+      }
+    }
+
+    final List<String> serializedTrailingFields = new ArrayList<>();
+
+    if (capabilities != null) {
+      serializedTrailingFields.add(serialize(builder, TokenBuilder.FIELD_CAPABILITIES, capabilities));
+    }
+
+    if (applyTags != null) {
+      serializedTrailingFields.add(serialize(builder, TokenBuilder.FIELD_APPLY_TAGS, applyTags));
+    }
+
+    for (String field : serializedTrailingFields) {
+      length += field.length() + 1;
+    }
+
+    this.applicationId = applicationId;
+    this.secret = secret;
+    this.fields = serializedFields.toArray(new String[serializedFields.size()]);
+    this.expiresIndex = expiresIndex;
+    this.sessionIdIndex = sessionIdIndex;
+    this.remoteAddressIndex = remoteAddressIndex;
+    this.sessionId = sessionId;
+    this.remoteAddress = remoteAddress;
+    this.trailingFields = serializedTrailingFields.toArray(new String[serializedTrailingFields.size()]);
+    this.length = length;
+  }
+
+  /**
+   * Get the application ID the tokens are signed for.
+   *
+   * @return the application ID
+   */
+  @Contract(pure = true)
+  public String getApplicationId() {
+    return applicationId;
+  }
+
+  /**
+   * Mint a token that expires at the given date.
+   *
+   * @param expirationDate the expiration date
+   * @return the signed token
+   */
+  @NotNull
+  @Contract("null -> fail")
+  public String mint(Date expirationDate) {
+    if (expirationDate == null) {
+      throw new RuntimeException("Expiration date must not be null");
+    }
+
+    return mint(expirationDate.getTime(), null, null);
+  }
+
+  /**
+   * Mint a token that expires at the given date, for a session and a remote address.
+   *
+   * @param expirationDate the expiration date
+   * @param sessionId      the session ID, or null to keep the session ID of the template, if any
+   * @param remoteAddress  the remote address, or null to keep the remote address of the template, if any
+   * @return the signed token
+   */
+  @NotNull
+  @Contract("null, _, _ -> fail")
+  public String mint(Date expirationDate, String sessionId, String remoteAddress) {
+    if (expirationDate == null) {
+      throw new RuntimeException("Expiration date must not be null");
+    }
+
+    return mint(expirationDate.getTime(), sessionId, remoteAddress);
+  }
+
+  /**
+   * Mint a token that expires at the given time in milliseconds since UNIX epoch.
+   */
+  String mint(long expires, String sessionId, String remoteAddress) {
+    return digestTokens.signAndEncode(applicationId, secret, serialize(expires, sessionId, remoteAddress));
+  }
+
+  /**
+   * Serialize the token, stamping the expiration and optionally the session ID and remote address.
+   */
+  String serialize(long expires, String sessionId, String remoteAddress) {
+    final String effectiveSessionId = sessionId == null ? this.sessionId : sessionId;
+    final String effectiveRemoteAddress = remoteAddress == null ? this.remoteAddress : remoteAddress;
+    final StringBuilder token = new StringBuilder(length + 64
+        + (effectiveSessionId == null ? 0 : effectiveSessionId.length())
+        + (effectiveRemoteAddress == null ? 0 : effectiveRemoteAddress.length()));
+
+    token.append('{');
+
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        token.append(',');
+      }
+
+      if (i == expiresIndex) {
+        token.append(EXPIRES_PREFIX).append(expires);
+      } else if (i == sessionIdIndex) {
+        appendField(token, SESSION_ID_PREFIX, effectiveSessionId);
+      } else if (i == remoteAddressIndex) {
+        appendField(token, REMOTE_ADDRESS_PREFIX, effectiveRemoteAddress);
+      } else {
+        token.append(fields[i]);
+      }
+    }
+
+    // Fields that the template does not have are added after the others, as the builder would.
+    if (expiresIndex < 0) {
+      appendSeparator(token);
+      token.append(EXPIRES_PREFIX).append(expires);
+    }
+
+    if (sessionIdIndex < 0 && effectiveSessionId != null) {
+      appendSeparator(token);
+      appendField(token, SESSION_ID_PREFIX, effectiveSessionId);
+    }
+
+    if (remoteAddressIndex < 0 && effectiveRemoteAddress != null) {
+      appendSeparator(token);
+      appendField(token, REMOTE_ADDRESS_PREFIX, effectiveRemoteAddress);
+    }
+
+    for (String field : trailingFields) {
+      appendSeparator(token);
+      token.append(field);
+    }
+
+    return token.append('}').toString();
+  }
+
+  private static void appendSeparator(StringBuilder token) {
+    if (token.length() > 1) {
+      token.append(',');
+    }
+  }
+
+  private static void appendField(StringBuilder token, String prefix, String value) {
+    token.append(prefix);
+    JsonStrings.appendQuoted(token, value);
+  }
+
+  private static String serialize(StringBuilder builder, String name, JsonValue value) {
+    builder.setLength(0);
+    CompactJson.appendField(builder, name, value);
+
+    return builder.toString();
+  }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import org.jetbrains.annotations.Contract;
+
+/**
+ * The use a token is limited to.
+ */
+public enum TokenType {
+  AUTHENTICATION("auth"),
+  STREAMING("stream"),
+  PUBLISHING("publish");
+
+  private final String value;
+
+  TokenType(String value) {
+    this.value = value;
+  }
+
+  /**
+   * Get the value of the type field of a token.
+   *
+   * @return the value
+   */
+  @Contract(pure = true)
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * Get the type for a value of the type field of a token.
+   *
+   * @param value the value
+   * @return the type, or null if the value is not a known type
+   */
+  @Contract(value = "null -> null", pure = true)
+  public static TokenType fromValue(String value) {
+    for (TokenType type : values()) {
+      if (type.value.equals(value)) {
+        return type;
+      }
+    }
+
+    return null;
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+/**
+ * UTF-8 encoding into caller supplied buffers.
+ * Malformed surrogates are replaced with '?', the same as {@link String#getBytes(java.nio.charset.Charset)}.
+ */
+final class Utf8 {
+  private static final byte REPLACEMENT = '?';
+
+  private Utf8() {
+  }
+
+  /**
+   * Get the number of bytes needed to encode a value.
+   */
+  static int encodedLength(CharSequence value) {
+    final int length = value.length();
+    int encodedLength = length;
+
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+
+      if (c < 0x80) {
+        continue;
+      }
+
+      if (c < 0x800) {
+        encodedLength += 1;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+        encodedLength += 2;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        continue;
+      } else {
+        encodedLength += 2;
+      }
+    }
+
+    return encodedLength;
+  }
+
+  /**
+   * Encode a value into a buffer.
+   *
+   * @return the offset after the last byte written
+   */
+  static int encode(CharSequence value, byte[] destination, int offset) {
+    final int length = value.length();
+    int position = offset;
+
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+
+      if (c < 0x80) {
+        destination[position++] = (byte) c;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+        position = encode(Character.toCodePoint(c, value.charAt(++i)), destination, position);
+      } else {
+        position = encode(c, destination, position);
+      }
+    }
+
+    return position;
+  }
+
+  /**
+   * Encode a code point into a buffer. A surrogate on its own is replaced.
+   *
+   * @return the offset after the last byte written
+   */
+  static int encode(int codePoint, byte[] destination, int offset) {
+    int position = offset;
+
+    if (codePoint < 0x80) {
+      destination[position++] = (byte) codePoint;
+    } else if (codePoint < 0x800) {
+      destination[position++] = (byte) (0xc0 | codePoint >> 6);
+      destination[position++] = (byte) (0x80 | codePoint & 0x3f);
+    } else if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+      destination[position++] = REPLACEMENT;
+    } else if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+      destination[position++] = (byte) (0xe0 | codePoint >> 12);
+      destination[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+      destination[position++] = (byte) (0x80 | codePoint & 0x3f);
+    } else {
+      destination[position++] = (byte) (0xf0 | codePoint >> 18);
+      destination[position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+      destination[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+      destination[position++] = (byte) (0x80 | codePoint & 0x3f);
+    }
+
+    return position;
+  }
+}
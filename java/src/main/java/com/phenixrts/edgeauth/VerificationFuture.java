@@ -0,0 +1,203 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jetbrains.annotations.Contract;
+
+/**
+ * The pending result of an asynchronous verification.
+ * <p>
+ * Event loops should not block on {@link #get()}, but add a listener that is notified once the result is available.
+ * Listeners are notified on the thread that completes the verification, or on the calling thread if the verification
+ * is already complete when they are added.
+ */
+public final class VerificationFuture implements Future<DigestTokens.VerifyAndDecodeResult> {
+  private DigestTokens.VerifyAndDecodeResult result;
+  private Throwable cause;
+  private boolean done;
+  private List<Listener> listeners;
+
+  /**
+   * Listener notified when a verification completes.
+   */
+  public interface Listener {
+    /**
+     * Called once the verification completed, successfully or not.
+     *
+     * @param future the completed future
+     */
+    void onComplete(VerificationFuture future);
+  }
+
+  VerificationFuture() {
+  }
+
+  /**
+   * Add a listener, notified once the verification completes.
+   *
+   * @param listener the listener
+   * @return itself
+   */
+  @Contract("null -> fail, _ -> this")
+  public VerificationFuture addListener(Listener listener) {
+    if (listener == null) {
+      throw new RuntimeException("Listener must not be null");
+    }
+
+    synchronized (this) {
+      if (!done) {
+        if (listeners == null) {
+          listeners = new ArrayList<>(1);
+        }
+
+        listeners.add(listener);
+
+        return this;
+      }
+    }
+
+    listener.onComplete(this);
+
+    return this;
+  }
+
+  /**
+   * Check if the verification completed with a result. A token that did not verify is still a result.
+   *
+   * @return true, if a result is available
+   */
+  public synchronized boolean isSuccess() {
+    return done && cause == null;
+  }
+
+  /**
+   * Get the result without waiting.
+   *
+   * @return the result, or null if the verification is not complete or failed
+   */
+  public synchronized DigestTokens.VerifyAndDecodeResult getNow() {
+    return result;
+  }
+
+  /**
+   * Get the reason the verification failed, e.g. a {@link java.util.concurrent.RejectedExecutionException} if the
+   * verifier was full or closed.
+   *
+   * @return the cause, or null if the verification is not complete or succeeded
+   */
+  public synchronized Throwable getCause() {
+    return cause;
+  }
+
+  /**
+   * Verifications cannot be cancelled.
+   *
+   * @return false
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return false;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return false;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return done;
+  }
+
+  @Override
+  public synchronized DigestTokens.VerifyAndDecodeResult get() throws InterruptedException, ExecutionException {
+    while (!done) {
+      wait();
+    }
+
+    return getResult();
+  }
+
+  @Override
+  public synchronized DigestTokens.VerifyAndDecodeResult get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+    while (!done) {
+      final long remaining = deadline - System.nanoTime();
+
+      if (remaining <= 0) {
+        throw new TimeoutException();
+      }
+
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    }
+
+    return getResult();
+  }
+
+  void complete(DigestTokens.VerifyAndDecodeResult result) {
+    complete(result, null);
+  }
+
+  void fail(Throwable cause) {
+    complete(null, cause);
+  }
+
+  private DigestTokens.VerifyAndDecodeResult getResult() throws ExecutionException {
+    if (cause != null) {
+      throw new ExecutionException(cause);
+    }
+
+    return result;
+  }
+
+  private void complete(DigestTokens.VerifyAndDecodeResult result, Throwable cause) {
+    final List<Listener> listeners;
+
+    synchronized (this) {
+      if (done) {
+        return;
+      }
+
+      this.result = result;
+      this.cause = cause;
+      this.done = true;
+      listeners = this.listeners;
+      this.listeners = null;
+      notifyAll();
+    }
+
+    if (listeners == null) {
+      return;
+    }
+
+    for (Listener listener : listeners) {
+      try {
+        listener.onComplete(this);
+      } catch (RuntimeException e) {
+        // A failing listener must not keep the other listeners, or the rest of the batch, from being notified.
+      }
+    }
+  }
+}
@@ -0,0 +1,425 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.Contract;
+
+/**
+ * Bounded cache of verified tokens.
+ * <p>
+ * Clients reuse the same token until it expires. The cache remembers tokens that were verified, so that a token seen
+ * again skips decoding and calculating the digest. Tokens are looked up by a 64-bit hash of the encoded token, which
+ * includes the digest, and a hit is only accepted if the full encoded token matches. When verifying with a secret, it
+ * must also be the secret the token was verified with. When verifying with the secrets of its application, that secret
+ * must still be one of them.
+ * <p>
+ * Entries are dropped once their token expires. Tokens without an expiration are not cached. The estimated memory held
+ * by the cache, including its tables, never exceeds the given maximum. When a new token does not fit, expired entries
+ * are dropped first, followed by the entries that expire soonest.
+ */
+public final class VerifiedTokenCache {
+  private static final int SEGMENT_COUNT = 16;
+  private static final int INITIAL_SLOTS = 16;
+  private static final int EVICTION_SAMPLE_SIZE = 8;
+  // Estimated per slot cost of the tables: hash, expiration and a reference.
+  private static final int SLOT_SIZE = 8 + 8 + 8;
+  // Estimated cost of an entry besides its characters: the entry, the result and the headers of its strings.
+  private static final int ENTRY_OVERHEAD = 160;
+
+  private final long maxMemory;
+  private final long seed = new SecureRandom().nextLong();
+  private final Segment[] segments = new Segment[SEGMENT_COUNT];
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  private static final class Entry {
+    private final String encodedToken;
+    private final String secret;
+    private final DigestTokens.VerifyAndDecodeResult result;
+    private final long size;
+
+    private Entry(String encodedToken, String secret, DigestTokens.VerifyAndDecodeResult result, long size) {
+      this.encodedToken = encodedToken;
+      this.secret = secret;
+      this.result = result;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Open addressing table with linear probing. All access is guarded by the segment.
+   */
+  private final class Segment {
+    private final long maxMemory;
+    private long[] hashes = new long[INITIAL_SLOTS];
+    private long[] expirations = new long[INITIAL_SLOTS];
+    private Entry[] entries = new Entry[INITIAL_SLOTS];
+    private int size;
+    private long memory = (long) INITIAL_SLOTS * SLOT_SIZE;
+    private int cursor;
+
+    private Segment(long maxMemory) {
+      this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Find the entry of a token that was verified with a secret, or with any secret if none is given.
+     */
+    private synchronized Entry get(long hash, String secret, CharSequence encodedToken, long now) {
+      final int mask = entries.length - 1;
+
+      for (int i = (int) hash & mask; entries[i] != null; i = (i + 1) & mask) {
+        if (hashes[i] != hash) {
+          continue;
+        }
+
+        final Entry entry = entries[i];
+
+        if (!TokenHashes.isEqual(entry.encodedToken, encodedToken) || secret != null && !entry.secret.equals(secret)) {
+          continue;
+        }
+
+        if (expirations[i] <= now) {
+          remove(i);
+          evictions.incrementAndGet();
+
+          return null;
+        }
+
+        return entry;
+      }
+
+      return null;
+    }
+
+    private synchronized void put(long hash, long expires, Entry entry, long now) {
+      final int mask = entries.length - 1;
+
+      for (int i = (int) hash & mask; entries[i] != null; i = (i + 1) & mask) {
+        if (hashes[i] == hash && entries[i].encodedToken.equals(entry.encodedToken) && entries[i].secret.equals(entry.secret)) {
+          return;
+        }
+      }
+
+      if (!reserve(entry.size, now)) {
+        return;
+      }
+
+      insert(hash, expires, entry);
+      memory += entry.size;
+      size++;
+    }
+
+    private boolean reserve(long entrySize, long now) {
+      final boolean grow = (size + 1) * 2 > entries.length;
+      final long required = entrySize + (grow ? (long) entries.length * SLOT_SIZE : 0);
+
+      if (memory + required > maxMemory) {
+        removeExpired(now);
+      }
+
+      while (memory + required > maxMemory && size > 0) {
+        removeSoonestExpiring();
+      }
+
+      if (memory + required > maxMemory) {
+        return false;
+      }
+
+      if ((size + 1) * 2 > entries.length) {
+        resize(entries.length * 2);
+      }
+
+      return true;
+    }
+
+    private void insert(long hash, long expires, Entry entry) {
+      final int mask = entries.length - 1;
+      int i = (int) hash & mask;
+
+      while (entries[i] != null) {
+        i = (i + 1) & mask;
+      }
+
+      hashes[i] = hash;
+      expirations[i] = expires;
+      entries[i] = entry;
+    }
+
+    private void resize(int slots) {
+      final long[] oldHashes = hashes;
+      final long[] oldExpirations = expirations;
+      final Entry[] oldEntries = entries;
+
+      hashes = new long[slots];
+      expirations = new long[slots];
+      entries = new Entry[slots];
+      memory += (long) (slots - oldEntries.length) * SLOT_SIZE;
+
+      for (int i = 0; i < oldEntries.length; i++) {
+        if (oldEntries[i] != null) {
+          insert(oldHashes[i], oldExpirations[i], oldEntries[i]);
+        }
+      }
+    }
+
+    private void removeExpired(long now) {
+      int i = 0;
+
+      while (i < entries.length) {
+        // Removing shifts a later entry into this slot, which has to be checked as well.
+        if (entries[i] != null && expirations[i] <= now) {
+          remove(i);
+          evictions.incrementAndGet();
+        } else {
+          i++;
+        }
+      }
+    }
+
+    private void removeSoonestExpiring() {
+      final int mask = entries.length - 1;
+      int candidate = -1;
+      int sampled = 0;
+
+      for (int i = cursor; sampled < EVICTION_SAMPLE_SIZE && sampled < size; i = (i + 1) & mask) {
+        if (entries[i] != null) {
+          if (candidate < 0 || expirations[i] < expirations[candidate]) {
+            candidate = i;
+          }
+
+          sampled++;
+        }
+      }
+
+      cursor = (candidate + 1) & mask;
+      remove(candidate);
+      evictions.incrementAndGet();
+    }
+
+    private void remove(int slot) {
+      final int mask = entries.length - 1;
+
+      memory -= entries[slot].size;
+      size--;
+
+      // Shift back entries of the same probe sequence so that lookups do not stop at the emptied slot.
+      int empty = slot;
+
+      for (int i = (slot + 1) & mask; entries[i] != null; i = (i + 1) & mask) {
+        final int home = (int) hashes[i] & mask;
+
+        if (((i - home) & mask) >= ((i - empty) & mask)) {
+          hashes[empty] = hashes[i];
+          expirations[empty] = expirations[i];
+          entries[empty] = entries[i];
+          empty = i;
+        }
+      }
+
+      hashes[empty] = 0;
+      expirations[empty] = 0;
+      entries[empty] = null;
+    }
+
+    private synchronized void clear() {
+      hashes = new long[INITIAL_SLOTS];
+      expirations = new long[INITIAL_SLOTS];
+      entries = new Entry[INITIAL_SLOTS];
+      size = 0;
+      memory = (long) INITIAL_SLOTS * SLOT_SIZE;
+      cursor = 0;
+    }
+
+    private synchronized int size() {
+      return size;
+    }
+
+    private synchronized long memory() {
+      return memory;
+    }
+  }
+
+  /**
+   * Create a verified token cache.
+   *
+   * @param maxMemory the maximum estimated memory held by the cache in bytes
+   */
+  public VerifiedTokenCache(long maxMemory) {
+    if (maxMemory < (long) SEGMENT_COUNT * INITIAL_SLOTS * SLOT_SIZE) {
+      throw new RuntimeException("Maximum memory must be at least " + SEGMENT_COUNT * INITIAL_SLOTS * SLOT_SIZE + " bytes");
+    }
+
+    this.maxMemory = maxMemory;
+
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      segments[i] = new Segment(maxMemory / SEGMENT_COUNT);
+    }
+  }
+
+  /**
+   * Get the maximum estimated memory held by the cache.
+   *
+   * @return the maximum memory in bytes
+   */
+  @Contract(pure = true)
+  public long getMaxMemory() {
+    return maxMemory;
+  }
+
+  /**
+   * Get the estimated memory currently held by the cache.
+   *
+   * @return the memory in bytes
+   */
+  public long getMemory() {
+    long memory = 0;
+
+    for (Segment segment : segments) {
+      memory += segment.memory();
+    }
+
+    return memory;
+  }
+
+  /**
+   * Get the number of tokens currently held by the cache.
+   *
+   * @return the number of tokens
+   */
+  public int size() {
+    int size = 0;
+
+    for (Segment segment : segments) {
+      size += segment.size();
+    }
+
+    return size;
+  }
+
+  /**
+   * Get the number of lookups that found a verified token.
+   *
+   * @return the number of hits
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * Get the number of lookups that did not find a verified token.
+   *
+   * @return the number of misses
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Get the number of tokens dropped because they expired or to make room for other tokens.
+   *
+   * @return the number of evictions
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * Drop all tokens, e.g. after a secret was revoked.
+   */
+  public void invalidateAll() {
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  /**
+   * Look up a verified token.
+   *
+   * @return the result of verifying the token, or null if the token is not cached
+   */
+  DigestTokens.VerifyAndDecodeResult get(String secret, CharSequence encodedToken, long now) {
+    final long hash = TokenHashes.hash(seed, encodedToken);
+
+    return count(segmentFor(hash).get(hash, secret, encodedToken, now));
+  }
+
+  /**
+   * Look up a token verified with one of the current secrets of its application. The application ID is that of the
+   * cached result, so the token is neither decoded nor parsed.
+   *
+   * @return the result of verifying the token, or null if the token is not cached
+   */
+  DigestTokens.VerifyAndDecodeResult get(SecretSource secretSource, CharSequence encodedToken, long now) {
+    final long hash = TokenHashes.hash(seed, encodedToken);
+    final Entry entry = segmentFor(hash).get(hash, null, encodedToken, now);
+
+    if (entry == null) {
+      return count(null);
+    }
+
+    // The secrets are looked up outside of the segment, and a secret that was removed since no longer verifies.
+    final String applicationId = entry.result.getApplicationId();
+    final String[] secrets = secretSource.lookupSecrets(applicationId);
+    final int index = Arrays.asList(secrets).indexOf(entry.secret);
+
+    if (index < 0) {
+      return count(null);
+    }
+
+    secretSource.secretVerified(applicationId, secrets, index);
+
+    return count(entry);
+  }
+
+  /**
+   * Remember a verified token until it expires.
+   */
+  void put(String secret, CharSequence encodedToken, long expires, DigestTokens.VerifyAndDecodeResult result, long now) {
+    if (expires == TokenExpiration.UNKNOWN || expires <= now) {
+      return;
+    }
+
+    // The application ID and token of the result decode from the encoded token and are shorter than it. Counting the
+    // characters of the encoded token and of the result at two bytes each, plus the UTF-8 bytes of the token, bounds
+    // an entry to five bytes per character of the encoded token.
+    final long size = ENTRY_OVERHEAD + 5L * encodedToken.length();
+    final long hash = TokenHashes.hash(seed, encodedToken);
+
+    segmentFor(hash).put(hash, expires, new Entry(encodedToken.toString(), secret, result, size), now);
+  }
+
+  private DigestTokens.VerifyAndDecodeResult count(Entry entry) {
+    if (entry == null) {
+      misses.incrementAndGet();
+
+      return null;
+    }
+
+    hits.incrementAndGet();
+
+    return entry.result;
+  }
+
+  private Segment segmentFor(long hash) {
+    return segments[(int) (hash >>> 60)];
+  }
+}
@@ -0,0 +1,335 @@
+/**
+ * Copyright 2019 Phenix Real Time Solutions, Inc. All Rights Reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phenixrts.edgeauth;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Policy applied when verifying tokens.
+ * <p>
+ * The default policy verifies the digest only and does not limit the size of tokens, which is what
+ * {@link DigestTokens#DigestTokens()} does.
+ */
+public final class VerifierPolicy {
+  /**
+   * The default policy.
+   */
+  public static final VerifierPolicy DEFAULT = new Builder().build();
+
+  private final boolean rejectExpiredTokens;
+  private final Clock clock;
+  private final long clockSkewInMilliseconds;
+  private final int maxEncodedLength;
+  private final int maxDecodedLength;
+  private final int maxNestingDepth;
+  private final int maxStringLength;
+  private final VerifiedTokenCache verifiedTokenCache;
+  private final RejectedTokenCache rejectedTokenCache;
+
+  /**
+   * Builder for verifier policies.
+   */
+  public static final class Builder {
+    private boolean rejectExpiredTokens;
+    private Clock clock = Clock.SYSTEM;
+    private long clockSkewInMilliseconds;
+    private int maxEncodedLength = Integer.MAX_VALUE;
+    private int maxDecodedLength = Integer.MAX_VALUE;
+    private int maxNestingDepth = Integer.MAX_VALUE;
+    private int maxStringLength = Integer.MAX_VALUE;
+    private VerifiedTokenCache verifiedTokenCache;
+    private RejectedTokenCache rejectedTokenCache;
+
+    /**
+     * Reject tokens past their expiration with {@link ECode#EXPIRED}.
+     * Tokens without an expiration are rejected as well.
+     *
+     * @return itself
+     */
+    @Contract(" -> this")
+    public Builder rejectExpiredTokens() {
+      this.rejectExpiredTokens = true;
+
+      return this;
+    }
+
+    /**
+     * The clock used to check the expiration of tokens (optional, defaults to the system clock).
+     *
+     * @param clock the clock
+     * @return itself
+     */
+    @Contract("null -> fail, _ -> this")
+    public Builder withClock(Clock clock) {
+      if (clock == null) {
+        throw new RuntimeException("Clock must not be null");
+      }
+
+      this.clock = clock;
+
+      return this;
+    }
+
+    /**
+     * Accept tokens up to the given time past their expiration to allow for clocks that are not in sync (optional).
+     *
+     * @param milliseconds the clock skew in milliseconds
+     * @return itself
+     */
+    @Contract("_ -> this")
+    public Builder withClockSkew(long milliseconds) {
+      if (milliseconds < 0) {
+        throw new RuntimeException("Clock skew must not be negative");
+      }
+
+      this.clockSkewInMilliseconds = milliseconds;
+
+      return this;
+    }
+
+    /**
+     * Reject encoded tokens longer than the given number of characters with {@link ECode#BAD_TOKEN} (optional).
+     *
+     * @param maxEncodedLength the maximum length of an encoded token, including the prefix
+     * @return itself
+     */
+    @Contract("_ -> this")
+    public Builder withMaxEncodedLength(int maxEncodedLength) {
+      this.maxEncodedLength = requirePositive(maxEncodedLength, "Maximum encoded length");
+
+      return this;
+    }
+
+    /**
+     * Reject tokens that decode to more than the given number of bytes with {@link ECode#BAD_TOKEN} (optional).
+     * The length is known before the token is decoded.
+     *
+     * @param maxDecodedLength the maximum length of a decoded token in bytes
+     * @return itself
+     */
+    @Contract("_ -> this")
+    public Builder withMaxDecodedLength(int maxDecodedLength) {
+      this.maxDecodedLength = requirePositive(maxDecodedLength, "Maximum decoded length");
+
+      return this;
+    }
+
+    /**
+     * Reject tokens with objects or arrays nested deeper than the given depth with {@link ECode#BAD_TOKEN} (optional).
+     * The envelope and the signed token within it are checked separately, each starting at a depth of 1.
+     *
+     * @param maxNestingDepth the maximum nesting depth, 1 for a flat object
+     * @return itself
+     */
+    @Contract("_ -> this")
+    public Builder withMaxNestingDepth(int maxNestingDepth) {
+      this.maxNestingDepth = requirePositive(maxNestingDepth, "Maximum nesting depth");
+
+      return this;
+    }
+
+    /**
+     * Reject tokens with strings longer than the given number of bytes with {@link ECode#BAD_TOKEN} (optional).
+     * Strings are measured as encoded in the token, including escapes. The signed token is one of these strings, and
+     * the strings within it are measured once it is unescaped.
+     *
+     * @param maxStringLength the maximum length of a string in bytes
+     * @return itself
+     */
+    @Contract("_ -> this")
+    public Builder withMaxStringLength(int maxStringLength) {
+      this.maxStringLength = requirePositive(maxStringLength, "Maximum string length");
+
+      return this;
+    }
+
+    /**
+     * Remember verified tokens until they expire, so that verifying the same token again is a lookup (optional).
+     * The cache must only be shared between verifiers with the same policy.
+     *
+     * @param verifiedTokenCache the cache of verified tokens
+     * @return itself
+     */
+    @Contract("null -> fail, _ -> this")
+    public Builder withVerifiedTokenCache(VerifiedTokenCache verifiedTokenCache) {
+      if (verifiedTokenCache == null) {
+        throw new RuntimeException("Verified token cache must not be null");
+      }
+
+      this.verifiedTokenCache = verifiedTokenCache;
+
+      return this;
+    }
+
+    /**
+     * Remember tokens rejected as {@link ECode#BAD_TOKEN} or {@link ECode#BAD_DIGEST}, so that rejecting the same token
+     * again is a lookup (optional).
+     * The cache must only be shared between verifiers with the same policy.
+     *
+     * @param rejectedTokenCache the cache of rejected tokens
+     * @return itself
+     */
+    @Contract("null -> fail, _ -> this")
+    public Builder withRejectedTokenCache(RejectedTokenCache rejectedTokenCache) {
+      if (rejectedTokenCache == null) {
+        throw new RuntimeException("Rejected token cache must not be null");
+      }
+
+      this.rejectedTokenCache = rejectedTokenCache;
+
+      return this;
+    }
+
+    /**
+     * Build the policy.
+     *
+     * @return the policy
+     */
+    @NotNull
+    public VerifierPolicy build() {
+      return new VerifierPolicy(this);
+    }
+
+    private static int requirePositive(int value, String name) {
+      if (value <= 0) {
+        throw new RuntimeException(name + " must be positive");
+      }
+
+      return value;
+    }
+  }
+
+  private VerifierPolicy(Builder builder) {
+    this.rejectExpiredTokens = builder.rejectExpiredTokens;
+    this.clock = builder.clock;
+    this.clockSkewInMilliseconds = builder.clockSkewInMilliseconds;
+    this.maxEncodedLength = builder.maxEncodedLength;
+    this.maxDecodedLength = builder.maxDecodedLength;
+    this.maxNestingDepth = builder.maxNestingDepth;
+    this.maxStringLength = builder.maxStringLength;
+    this.verifiedTokenCache = builder.verifiedTokenCache;
+    this.rejectedTokenCache = builder.rejectedTokenCache;
+  }
+
+  /**
+   * Checks if expired tokens are rejected.
+   *
+   * @return true, if expired tokens are rejected
+   */
+  @Contract(pure = true)
+  public boolean isRejectingExpiredTokens() {
+    return rejectExpiredTokens;
+  }
+
+  /**
+   * Get the clock used to check the expiration of tokens.
+   *
+   * @return the clock
+   */
+  @Contract(pure = true)
+  public Clock getClock() {
+    return clock;
+  }
+
+  /**
+   * Get the time tokens are accepted past their expiration.
+   *
+   * @return the clock skew in milliseconds
+   */
+  @Contract(pure = true)
+  public long getClockSkew() {
+    return clockSkewInMilliseconds;
+  }
+
+  /**
+   * Get the maximum length of an encoded token.
+   *
+   * @return the maximum length in characters
+   */
+  @Contract(pure = true)
+  public int getMaxEncodedLength() {
+    return maxEncodedLength;
+  }
+
+  /**
+   * Get the maximum length of a decoded token.
+   *
+   * @return the maximum length in bytes
+   */
+  @Contract(pure = true)
+  public int getMaxDecodedLength() {
+    return maxDecodedLength;
+  }
+
+  /**
+   * Get the maximum nesting depth of a decoded token.
+   *
+   * @return the maximum nesting depth
+   */
+  @Contract(pure = true)
+  public int getMaxNestingDepth() {
+    return maxNestingDepth;
+  }
+
+  /**
+   * Get the maximum length of a string in a decoded token.
+   *
+   * @return the maximum length in bytes
+   */
+  @Contract(pure = true)
+  public int getMaxStringLength() {
+    return maxStringLength;
+  }
+
+  /**
+   * Get the cache of verified tokens.
+   *
+   * @return the cache, or null if verified tokens are not cached
+   */
+  @Contract(pure = true)
+  public VerifiedTokenCache getVerifiedTokenCache() {
+    return verifiedTokenCache;
+  }
+
+  /**
+   * Get the cache of rejected tokens.
+   *
+   * @return the cache, or null if rejected tokens are not cached
+   */
+  @Contract(pure = true)
+  public RejectedTokenCache getRejectedTokenCache() {
+    return rejectedTokenCache;
+  }
+
+  /**
+   * Checks if the structure of decoded tokens is limited.
+   */
+  boolean isLimitingStructure() {
+    return maxNestingDepth != Integer.MAX_VALUE || maxStringLength != Integer.MAX_VALUE;
+  }
+
+  /**
+   * Checks if a token with the given expiration is expired, allowing for the clock skew.
+   */
+  boolean isExpired(long expires) {
+    if (expires == TokenExpiration.UNKNOWN) {
+      return true;
+    }
+
+    return clock.currentTimeMillis() - clockSkewInMilliseconds > expires;
+  }
+}
@@ -0,0 +1,66 @@
+package com.phenixrts.edgeauth;
+
+import java.util.Date;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenDecodingATypedToken {
+  private DecodedToken decodedToken;
+
+  @BeforeTest
+  void givenAVerifiedToken() {
+    final String token = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .withUri("https://my-custom-backend.example.org")
+        .expiresAt(new Date(1000L))
+        .forPublishingOnly()
+        .forSession("my-session")
+        .forRemoteAddress("10.1.2.3")
+        .forOriginStream("my-origin-stream")
+        .forChannelAlias("my-channel")
+        .withCapability("multi-bitrate")
+        .withCapability("my-capability")
+        .applyTag("my-tag")
+        .applyTag("my-other-tag")
+        .build();
+
+    decodedToken = new DigestTokens().verifyAndDecode("my-secret", token).getDecodedToken();
+  }
+
+  @Test
+  void theFieldsMatchTheBuilder() {
+    Assert.assertEquals(decodedToken.getApplicationId(), "my-application-id");
+    Assert.assertEquals(decodedToken.getUri(), "https://my-custom-backend.example.org");
+    Assert.assertEquals(decodedToken.getExpires(), 1000L);
+    Assert.assertEquals(decodedToken.getType(), TokenType.PUBLISHING);
+    Assert.assertEquals(decodedToken.getSessionId(), "my-session");
+    Assert.assertEquals(decodedToken.getRemoteAddress(), "10.1.2.3");
+    Assert.assertEquals(decodedToken.getOriginStreamId(), "my-origin-stream");
+    Assert.assertEquals(decodedToken.getRequiredTag(), "channelAlias:my-channel");
+  }
+
+  @Test
+  void theCapabilitiesAreAvailable() {
+    Assert.assertTrue(decodedToken.hasCapability(Capability.MULTI_BITRATE));
+    Assert.assertTrue(decodedToken.hasCapability("multi-bitrate"));
+    Assert.assertTrue(decodedToken.hasCapability("my-capability"));
+    Assert.assertFalse(decodedToken.hasCapability(Capability.STREAMING));
+    Assert.assertFalse(decodedToken.hasCapability("my-other-capability"));
+    Assert.assertEquals(decodedToken.getOtherCapabilities(), new String[] {"my-capability"});
+  }
+
+  @Test
+  void theAppliedTagsAreAvailable() {
+    Assert.assertEquals(decodedToken.getApplyTagCount(), 2);
+    Assert.assertEquals(decodedToken.getApplyTag(0), "my-tag");
+    Assert.assertEquals(decodedToken.getApplyTags(), new String[] {"my-tag", "my-other-tag"});
+  }
+
+  @Test
+  void aTokenThatFailsToVerifyHasNoDecodedToken() {
+    Assert.assertNull(new DigestTokens().verifyAndDecode("my-secret", "DIGEST:bad-token").getDecodedToken());
+  }
+}
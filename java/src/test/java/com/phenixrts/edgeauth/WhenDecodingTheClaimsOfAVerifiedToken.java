@@ -0,0 +1,65 @@
+package com.phenixrts.edgeauth;
+
+import java.util.Date;
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenDecodingTheClaimsOfAVerifiedToken {
+  private DigestTokens.VerifyAndDecodeResult result;
+
+  @BeforeTest
+  void givenAVerifiedToken() {
+    final String token = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(new Date(1000L))
+        .forStreamingOnly()
+        .forChannelAlias("my-channel")
+        .build();
+
+    result = new DigestTokens().verifyAndDecode("my-secret", token);
+  }
+
+  @Test
+  void theClaimsIncludeTheApplicationIdAfterTheTokenFields() {
+    Assert.assertEquals(result.getValue().toString(),
+        "{\"expires\":1000,\"type\":\"stream\",\"requiredTag\":\"channelAlias:my-channel\",\"applicationId\":\"my-application-id\"}");
+    Assert.assertEquals(result.getValue().size(), 4);
+    Assert.assertEquals(result.getValue().getString("applicationId"), "my-application-id");
+    Assert.assertTrue(result.getValue().containsKey("applicationId"));
+  }
+
+  @Test
+  void theClaimsEqualAnObjectWithTheSameFields() {
+    final JsonObject expected = Json.createObjectBuilder()
+        .add("expires", 1000L)
+        .add("type", "stream")
+        .add("requiredTag", "channelAlias:my-channel")
+        .add("applicationId", "my-application-id")
+        .build();
+
+    Assert.assertEquals(result.getValue(), expected);
+    Assert.assertEquals(result.getValue().hashCode(), expected.hashCode());
+  }
+
+  @Test
+  void theClaimsAreParsedOnlyOnce() {
+    Assert.assertSame(result.getValue(), result.getValue());
+  }
+
+  @Test
+  void missingClaimsFallBackToTheirDefaults() {
+    Assert.assertEquals(result.getValue().getString("sessionId", "none"), "none");
+    Assert.assertEquals(result.getValue().getInt("type", 7), 7);
+    Assert.assertNull(result.getValue().get("sessionId"));
+  }
+
+  @Test(expectedExceptions = UnsupportedOperationException.class)
+  void theClaimsCannotBeModified() {
+    result.getValue().put("type", Json.createArrayBuilder().build());
+  }
+}
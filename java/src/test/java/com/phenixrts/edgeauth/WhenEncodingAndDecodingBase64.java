@@ -0,0 +1,178 @@
+package com.phenixrts.edgeauth;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.xml.bind.DatatypeConverter;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class WhenEncodingAndDecodingBase64 {
+  private final Random random = new Random(42);
+
+  @Test
+  void theEncodingIsTheSameAsDatatypeConverter() {
+    for (int length = 0; length < 100; length++) {
+      final byte[] value = randomBytes(length);
+      final String expected = DatatypeConverter.printBase64Binary(value);
+      final char[] chars = new char[Base64Codec.encodedLength(length) + 2];
+
+      Assert.assertEquals(Base64Codec.encodeToString(value), expected);
+      Assert.assertEquals(Base64Codec.encode(value, 0, length, chars, 1), expected.length() + 1);
+      Assert.assertEquals(new String(chars, 1, expected.length()), expected);
+    }
+  }
+
+  @Test
+  void theDecodingIsTheSameAsDatatypeConverter() {
+    for (int length = 0; length < 100; length++) {
+      final String encoded = DatatypeConverter.printBase64Binary(randomBytes(length));
+      final byte[] expected = DatatypeConverter.parseBase64Binary(encoded);
+
+      Assert.assertEquals(Base64Codec.decodedLength(encoded, 0, encoded.length()), expected.length);
+      Assert.assertEquals(decodeFromChars(encoded), expected);
+      Assert.assertEquals(decodeFromBytes(encoded), expected);
+      Assert.assertEquals(decodeFromBuffer(encoded, false), expected);
+      Assert.assertEquals(decodeFromBuffer(encoded, true), expected);
+    }
+  }
+
+  @Test
+  void irregularValuesAreDecodedLikeDatatypeConverter() {
+    final List<String> values = Arrays.asList(
+        "", "YWJj", "YWI=", "YWI", "YQ", "Y", "YWI==", "YWI===", "YQ====", "=", "==", "====", "YQ=", "Y===",
+        "YQ==YQ==", "Y=Jj", "YW=j", "YWJj\r\n", "YWI=\r\n", "\r\nYWJj", " YW Jj ", "YW\tI=", "Y!WJj", "YWJj!", "!!!!",
+        "YW-J_j", "YWJ.jZA==", "YWJjZA", "YWJjZA=", "YWJjZA===",
+        "YWJjZGVm\r\nZ2hp", "YWJjZGVmZ2hp===", "YWJjZGVm=Z2hp", "YWJjZGVmZ2g\r\n", "YWJjZGVmZ2g=\r\n");
+
+    for (String value : values) {
+      final byte[] expected = parseBase64Binary(value);
+
+      Assert.assertEquals(decodeFromChars(value), expected, value);
+      Assert.assertEquals(decodeFromBytes(value), expected, value);
+      Assert.assertEquals(decodeFromBuffer(value, false), expected, value);
+      Assert.assertEquals(decodeFromBuffer(value, true), expected, value);
+    }
+  }
+
+  @Test
+  void valuesWithNonAsciiCharactersAreRejected() {
+    for (String invalid : Arrays.asList("YWJj\u00e9", "\u00e9YWJj", "YW\u0080Jj", "YW\u0100Jj", "YWI=\u00ff")) {
+      final byte[] bytes = invalid.getBytes(StandardCharsets.ISO_8859_1);
+      final byte[] destination = new byte[8];
+
+      Assert.assertEquals(Base64Codec.decode(invalid, 0, invalid.length(), destination, 0), -1, invalid);
+
+      if (invalid.indexOf('\u0100') < 0) {
+        Assert.assertEquals(Base64Codec.decode(bytes, 0, bytes.length, destination, 0), -1, invalid);
+        Assert.assertEquals(Base64Codec.decode(ByteBuffer.allocateDirect(8).put(bytes), 0, bytes.length, destination, 0),
+            -1, invalid);
+      }
+    }
+  }
+
+  @Test
+  void onlyTheCanonicalEncodingIsDecodedAsCanonical() {
+    final byte[] value = randomBytes(64);
+    final String encoded = Base64Codec.encodeToString(value);
+    final byte[] decoded = new byte[64];
+
+    Assert.assertTrue(decodeCanonical(encoded, decoded));
+    Assert.assertEquals(decoded, value);
+
+    for (String other : Arrays.asList(encoded.substring(0, 86), encoded + "=", " " + encoded.substring(1),
+        encoded.substring(0, 85) + "B==", encoded.substring(0, 86) + "A=")) {
+      Assert.assertFalse(decodeCanonical(other, new byte[64]), other);
+    }
+  }
+
+  @Test
+  void aRangeOfABufferIsDecodedWithoutMovingItsPosition() {
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+    final byte[] destination = new byte[3];
+
+    buffer.put("xxYWJjxx".getBytes(StandardCharsets.US_ASCII)).flip();
+
+    Assert.assertEquals(Base64Codec.decodedLength(buffer, 2, 6), 3);
+    Assert.assertEquals(Base64Codec.decode(buffer, 2, 6, destination, 0), 3);
+    Assert.assertEquals(new String(destination, StandardCharsets.US_ASCII), "abc");
+    Assert.assertEquals(buffer.position(), 0);
+  }
+
+  private byte[] randomBytes(int length) {
+    final byte[] value = new byte[length];
+
+    random.nextBytes(value);
+
+    return value;
+  }
+
+  // Values DatatypeConverter fails to decode are null, like values the codec rejects.
+  private static byte[] parseBase64Binary(String encoded) {
+    try {
+      return DatatypeConverter.parseBase64Binary(encoded);
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static byte[] decodeFromChars(String encoded) {
+    final int maxLength = Base64Codec.decodedLength(encoded, 0, encoded.length());
+
+    if (maxLength < 0) {
+      return null;
+    }
+
+    final byte[] decoded = new byte[maxLength];
+
+    return trim(decoded, Base64Codec.decode(encoded, 0, encoded.length(), decoded, 0));
+  }
+
+  private static byte[] decodeFromBytes(String encoded) {
+    final byte[] bytes = encoded.getBytes(StandardCharsets.US_ASCII);
+    final int maxLength = Base64Codec.decodedLength(bytes, 0, bytes.length);
+
+    if (maxLength < 0) {
+      return null;
+    }
+
+    final byte[] decoded = new byte[maxLength];
+
+    return trim(decoded, Base64Codec.decode(bytes, 0, bytes.length, decoded, 0));
+  }
+
+  private static byte[] decodeFromBuffer(String encoded, boolean direct) {
+    final byte[] bytes = encoded.getBytes(StandardCharsets.US_ASCII);
+    final ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(bytes.length + 4) : ByteBuffer.allocate(bytes.length + 4);
+
+    buffer.position(4);
+    buffer.put(bytes);
+    buffer.position(4);
+
+    // Slicing gives heap buffers a non-zero array offset.
+    final ByteBuffer slice = buffer.slice();
+    final int maxLength = Base64Codec.decodedLength(slice, 0, bytes.length);
+
+    if (maxLength < 0) {
+      return null;
+    }
+
+    final byte[] decoded = new byte[maxLength];
+
+    return trim(decoded, Base64Codec.decode(slice, 0, bytes.length, decoded, 0));
+  }
+
+  // The value is surrounded by other characters, which are not part of the decoded range.
+  private static boolean decodeCanonical(String encoded, byte[] destination) {
+    final byte[] bytes = ("{" + encoded + "}").getBytes(StandardCharsets.US_ASCII);
+
+    return Base64Codec.decodeCanonical(bytes, 1, bytes.length - 1, destination);
+  }
+
+  private static byte[] trim(byte[] decoded, int length) {
+    return length < 0 ? null : Arrays.copyOf(decoded, length);
+  }
+}
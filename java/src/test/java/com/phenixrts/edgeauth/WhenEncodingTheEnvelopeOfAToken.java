@@ -0,0 +1,106 @@
+package com.phenixrts.edgeauth;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.json.JsonObject;
+import javax.xml.bind.DatatypeConverter;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class WhenEncodingTheEnvelopeOfAToken {
+  @Test
+  void theTokenIsTheSameAsTheJsonWriterWouldWrite() throws Exception {
+    assertSameAsJsonWriter("my-application-id", "my-secret", "my-session");
+  }
+
+  @Test
+  void thePaddingIsTheSameForAllLengths() throws Exception {
+    final StringBuilder sessionId = new StringBuilder();
+
+    for (int i = 0; i < 6; i++) {
+      assertSameAsJsonWriter("my-application-id", "my-secret", sessionId.toString());
+      sessionId.append('x');
+    }
+  }
+
+  @Test
+  void escapedCharactersAreTheSameAsTheJsonWriterWouldWrite() throws Exception {
+    assertSameAsJsonWriter("my-application-id", "my-secret",
+        "a\"b\\c/d\b\f\n\r\t\u0001\u001f\u007f\u00e9 \ud83d\ude00");
+  }
+
+  @Test
+  void anApplicationIdWithEscapedCharactersIsTheSameAsTheJsonWriterWouldWrite() throws Exception {
+    assertSameAsJsonWriter("my-\"application\"-id-\u00e9\n", "my-secret", "my-session");
+  }
+
+  @Test
+  void malformedSurrogatesAreReplacedLikeTheJsonWriterWouldWrite() throws Exception {
+    assertSameAsJsonWriter("my-application-id\ud800", "my-secret", "a\udc00b\ud800");
+  }
+
+  @Test
+  void numbersLiteralsAndNestedValuesAreTheSameAsTheJsonWriterWouldWrite() throws Exception {
+    final JsonObject token = JsonFactories.BUILDER_FACTORY.createObjectBuilder()
+        .add(DigestTokens.FIELD_EXPIRES, 12345678901234L)
+        .add("int", -5)
+        .add("double", 1e20)
+        .add("decimal", new BigDecimal("1E+3"))
+        .add("big", new BigInteger("123456789012345678901234567890"))
+        .add("true", true)
+        .add("false", false)
+        .addNull("null")
+        .add("object", JsonFactories.BUILDER_FACTORY.createObjectBuilder()
+            .add("x", "y")
+            .add("empty", JsonFactories.BUILDER_FACTORY.createObjectBuilder()))
+        .add("array", JsonFactories.BUILDER_FACTORY.createArrayBuilder()
+            .add(1)
+            .add("s")
+            .addNull()
+            .add(JsonFactories.BUILDER_FACTORY.createArrayBuilder()))
+        .build();
+
+    assertSameAsJsonWriter("my-application-id", "my-secret", token);
+  }
+
+  private static void assertSameAsJsonWriter(String applicationId, String secret, String sessionId) throws Exception {
+    assertSameAsJsonWriter(applicationId, secret, JsonFactories.BUILDER_FACTORY.createObjectBuilder()
+        .add(DigestTokens.FIELD_EXPIRES, 1000L)
+        .add(TokenBuilder.FIELD_SESSION_ID, sessionId)
+        .build());
+  }
+
+  private static void assertSameAsJsonWriter(String applicationId, String secret, JsonObject token) throws Exception {
+    Assert.assertEquals(new DigestTokens().signAndEncode(applicationId, secret, token),
+        signAndEncodeWithJsonWriter(applicationId, secret, token));
+  }
+
+  private static String signAndEncodeWithJsonWriter(String applicationId, String secret, JsonObject token) throws Exception {
+    final String tokenAsString = write(token);
+    final Mac mac = Mac.getInstance("HmacSHA512");
+
+    mac.init(new SecretKeySpec((applicationId + secret).getBytes(StandardCharsets.UTF_8), "HmacSHA512"));
+
+    final String digest = DatatypeConverter.printBase64Binary(mac.doFinal(tokenAsString.getBytes(StandardCharsets.UTF_8)));
+    final String envelope = write(JsonFactories.BUILDER_FACTORY.createObjectBuilder()
+        .add("applicationId", applicationId)
+        .add("digest", digest)
+        .add("token", tokenAsString)
+        .build());
+
+    return "DIGEST:" + DatatypeConverter.printBase64Binary(envelope.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String write(JsonObject value) {
+    final StringWriter writer = new StringWriter();
+
+    JsonFactories.WRITER_FACTORY.createWriter(writer).write(value);
+
+    return writer.toString();
+  }
+}
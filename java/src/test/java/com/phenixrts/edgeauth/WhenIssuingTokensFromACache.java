@@ -0,0 +1,200 @@
+package com.phenixrts.edgeauth;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class WhenIssuingTokensFromACache {
+  private final long[] now = new long[1];
+  private final Clock clock = new Clock() {
+    @Override
+    public long currentTimeMillis() {
+      return now[0];
+    }
+  };
+
+  @Test
+  void theSameSpecReturnsTheSameToken() {
+    final TokenIssuanceCache cache = createCache(16);
+    final String token = cache.issue(createStreamingTokenBuilder("my-channel"));
+
+    Assert.assertEquals(cache.issue(createStreamingTokenBuilder("my-channel")), token);
+    Assert.assertEquals(cache.getMissCount(), 1);
+    Assert.assertEquals(cache.getHitCount(), 1);
+    Assert.assertEquals(cache.getHitRate(), 0.5);
+    cache.close();
+  }
+
+  @Test
+  void theOrderOfTheFieldsDoesNotMatter() {
+    final TokenIssuanceCache cache = createCache(16);
+    final String token = cache.issue(createStreamingTokenBuilder("my-channel").forSession("my-session"));
+
+    Assert.assertEquals(cache.issue(new TokenBuilder()
+        .forSession("my-session")
+        .forChannelAlias("my-channel")
+        .withSecret("my-secret")
+        .forStreamingOnly()
+        .withApplicationId("my-application-id")), token);
+    cache.close();
+  }
+
+  @Test
+  void aDifferentSpecReturnsADifferentToken() {
+    final TokenIssuanceCache cache = createCache(16);
+    final String token = cache.issue(createStreamingTokenBuilder("my-channel"));
+
+    Assert.assertNotEquals(cache.issue(createStreamingTokenBuilder("my-channel").forSession("my-session")), token);
+    Assert.assertNotEquals(cache.issue(createStreamingTokenBuilder("my-other-channel")), token);
+    Assert.assertNotEquals(cache.issue(createStreamingTokenBuilder("my-channel").withSecret("my-other-secret")), token);
+    Assert.assertEquals(cache.size(), 4);
+    cache.close();
+  }
+
+  @Test
+  void theIssuedTokenVerifiesAndExpiresAfterTheTokenLifetime() {
+    final TokenIssuanceCache cache = createCache(16);
+
+    now[0] = 5000L;
+
+    final DigestTokens.VerifyAndDecodeResult result = new DigestTokens()
+        .verifyAndDecode("my-secret", cache.issue(createStreamingTokenBuilder("my-channel")));
+
+    Assert.assertTrue(result.isVerified());
+    Assert.assertEquals(result.getDecodedToken().getExpires(), 5000L + 100000L);
+    cache.close();
+  }
+
+  @Test
+  void aTokenBelowTheMinimumRemainingLifetimeIsIssuedAgain() {
+    final TokenIssuanceCache cache = createCache(16);
+
+    now[0] = 0;
+
+    final String token = cache.issue(createStreamingTokenBuilder("my-channel"));
+
+    now[0] = 75000L;
+    Assert.assertEquals(cache.issue(createStreamingTokenBuilder("my-channel")), token);
+
+    now[0] = 75001L;
+    Assert.assertNotEquals(cache.issue(createStreamingTokenBuilder("my-channel")), token);
+    Assert.assertEquals(cache.getMissCount(), 2);
+    cache.close();
+  }
+
+  @Test
+  void aRequestedTokenIsRefreshedBeforeItIsStale() {
+    final TokenIssuanceCache cache = createCache(16);
+
+    now[0] = 0;
+
+    final String token = cache.issue(createStreamingTokenBuilder("my-channel"));
+
+    cache.issue(createStreamingTokenBuilder("my-channel"));
+
+    now[0] = 40000L;
+    cache.refresh();
+    Assert.assertEquals(cache.getRefreshCount(), 0);
+
+    now[0] = 50000L;
+    cache.refresh();
+    Assert.assertEquals(cache.getRefreshCount(), 1);
+
+    now[0] = 80000L;
+
+    final String refreshedToken = cache.issue(createStreamingTokenBuilder("my-channel"));
+
+    Assert.assertNotEquals(refreshedToken, token);
+    Assert.assertEquals(cache.getMissCount(), 1);
+    Assert.assertEquals(cache.getHitCount(), 2);
+    cache.close();
+  }
+
+  @Test
+  void aTokenThatIsNotRequestedIsDropped() {
+    final TokenIssuanceCache cache = createCache(16);
+
+    now[0] = 0;
+    cache.issue(createStreamingTokenBuilder("my-channel"));
+
+    now[0] = 50000L;
+    cache.refresh();
+    Assert.assertEquals(cache.size(), 1);
+    Assert.assertEquals(cache.getRefreshCount(), 0);
+
+    now[0] = 75001L;
+    cache.refresh();
+    Assert.assertEquals(cache.size(), 0);
+    Assert.assertEquals(cache.getEvictionCount(), 1);
+    cache.close();
+  }
+
+  @Test
+  void theCacheDoesNotGrowBeyondItsCapacity() {
+    final TokenIssuanceCache cache = createCache(4);
+
+    for (int i = 0; i < 10; i++) {
+      cache.issue(createStreamingTokenBuilder("my-channel-" + i));
+    }
+
+    Assert.assertEquals(cache.size(), 4);
+    Assert.assertEquals(cache.getEvictionCount(), 6);
+    cache.close();
+  }
+
+  @Test
+  void aTokenThatFailedToBeIssuedIsIssuedOnTheNextRequest() {
+    final boolean[] failing = {true};
+    final TokenIssuanceCache cache = new TokenIssuanceCache.Builder()
+        .withCapacity(16)
+        .withRefreshInterval(3600000L)
+        .withClock(new Clock() {
+          @Override
+          public long currentTimeMillis() {
+            if (failing[0]) {
+              failing[0] = false;
+
+              throw new IllegalStateException("my-failure");
+            }
+
+            return now[0];
+          }
+        })
+        .build();
+
+    try {
+      cache.issue(createStreamingTokenBuilder("my-channel"));
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertEquals(e.getMessage(), "my-failure");
+    }
+
+    Assert.assertEquals(cache.size(), 0);
+
+    final String token = cache.issue(createStreamingTokenBuilder("my-channel"));
+
+    Assert.assertEquals(cache.issue(createStreamingTokenBuilder("my-channel")), token);
+    Assert.assertEquals(cache.size(), 1);
+    Assert.assertEquals(cache.getMissCount(), 1);
+    Assert.assertEquals(cache.getHitCount(), 1);
+    cache.close();
+  }
+
+  private TokenIssuanceCache createCache(int capacity) {
+    return new TokenIssuanceCache.Builder()
+        .withCapacity(capacity)
+        .withTokenLifetime(100000L)
+        .withMinRemainingLifetime(25000L)
+        .withRefreshThreshold(50000L)
+        .withRefreshInterval(3600000L)
+        .withClock(clock)
+        .build();
+  }
+
+  private static TokenBuilder createStreamingTokenBuilder(String channelAlias) {
+    return new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .forStreamingOnly()
+        .forChannelAlias(channelAlias);
+  }
+}
@@ -0,0 +1,93 @@
+package com.phenixrts.edgeauth;
+
+import java.util.Date;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class WhenMintingTokensFromATemplate {
+  private static final Date EXPIRES = new Date(1000L);
+  private static final Date OTHER_EXPIRES = new Date(123456789L);
+
+  @Test
+  void theTokenIsTheSameAsTheBuilderWouldBuild() {
+    final TokenTemplate template = createStreamingTokenBuilder()
+        .expiresAt(EXPIRES)
+        .buildTemplate();
+
+    Assert.assertEquals(template.mint(OTHER_EXPIRES), createStreamingTokenBuilder().expiresAt(OTHER_EXPIRES).build());
+  }
+
+  @Test
+  void theSessionIdAndRemoteAddressAreStampedInPlace() {
+    final TokenTemplate template = createStreamingTokenBuilder()
+        .forSession("my-session")
+        .expiresAt(EXPIRES)
+        .forRemoteAddress("10.1.2.3")
+        .buildTemplate();
+
+    Assert.assertEquals(template.mint(OTHER_EXPIRES, "other-session", "10.4.5.6"), createStreamingTokenBuilder()
+        .forSession("my-session")
+        .expiresAt(EXPIRES)
+        .forRemoteAddress("10.1.2.3")
+        .expiresAt(OTHER_EXPIRES)
+        .forSession("other-session")
+        .forRemoteAddress("10.4.5.6")
+        .build());
+    Assert.assertEquals(template.mint(OTHER_EXPIRES), createStreamingTokenBuilder()
+        .forSession("my-session")
+        .expiresAt(OTHER_EXPIRES)
+        .forRemoteAddress("10.1.2.3")
+        .build());
+  }
+
+  @Test
+  void fieldsMissingFromTheTemplateAreAddedLast() {
+    final TokenTemplate template = createStreamingTokenBuilder().buildTemplate();
+
+    Assert.assertEquals(template.mint(OTHER_EXPIRES, "my-session", "10.4.5.6"), createStreamingTokenBuilder()
+        .expiresAt(OTHER_EXPIRES)
+        .forSession("my-session")
+        .forRemoteAddress("10.4.5.6")
+        .build());
+  }
+
+  @Test
+  void stampedStringsAreEscapedLikeTheBuilderEscapesThem() {
+    final TokenTemplate template = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .forAuthenticationOnly()
+        .buildTemplate();
+    final String sessionId = "a\"b\\c/d\b\f\n\r\t\u0001\u001f\u00e9\u2028\ud83d\ude00";
+
+    Assert.assertEquals(template.mint(EXPIRES, sessionId, null), new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .forAuthenticationOnly()
+        .expiresAt(EXPIRES)
+        .forSession(sessionId)
+        .build());
+  }
+
+  @Test
+  void theMintedTokenVerifies() {
+    final TokenTemplate template = createStreamingTokenBuilder().buildTemplate();
+    final DigestTokens.VerifyAndDecodeResult result = new DigestTokens().verifyAndDecode("my-secret", template.mint(OTHER_EXPIRES));
+
+    Assert.assertTrue(result.isVerified());
+    Assert.assertEquals(result.getDecodedToken().getExpires(), OTHER_EXPIRES.getTime());
+  }
+
+  private static TokenBuilder createStreamingTokenBuilder() {
+    return new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .forStreamingOnly()
+        .forChannelAlias("my-channel")
+        .withCapability("multi-bitrate")
+        .withCapability("hd")
+        .applyTag("customer:1234")
+        .withUri("https://my-uri");
+  }
+}
@@ -0,0 +1,165 @@
+package com.phenixrts.edgeauth;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class WhenParsingTheEnvelopeOfAToken {
+  private final TokenEnvelope envelope = new TokenEnvelope();
+
+  @Test
+  void theFieldsAreTheSameAsTheJsonReaderWouldRead() {
+    assertSameAsJsonReader("{\"applicationId\":\"my-application-id\",\"digest\":\"abc=\",\"token\":\"{\\\"expires\\\":1000}\"}");
+  }
+
+  @Test
+  void whitespaceAndTheOrderOfTheFieldsDoNotMatter() {
+    assertSameAsJsonReader(" {\r\n\t\"token\" : \"t\" ,\n\"digest\":\"d\", \"applicationId\" :\"a\" } \n");
+  }
+
+  @Test
+  void escapedCharactersAreUnescaped() {
+    assertSameAsJsonReader("{\"applicationId\":\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\\u00e9\\u00E9\\ud83d\\ude00\","
+        + "\"digest\":\"d\",\"token\":\"t\"}");
+  }
+
+  @Test
+  void anEscapedFieldNameIsMatched() {
+    assertSameAsJsonReader("{\"applicationI\\u0064\":\"a\",\"digest\":\"d\",\"token\":\"t\"}");
+  }
+
+  @Test
+  void nonAsciiAndMalformedUtf8IsDecodedLikeTheJsonReader() {
+    final byte[] prefix = "{\"applicationId\":\"\u00e9\ud83d\ude00".getBytes(StandardCharsets.UTF_8);
+    final byte[] malformed = {(byte) 0xe2, (byte) 0x82, (byte) 0xff, 'x'};
+    final byte[] suffix = "\",\"digest\":\"d\",\"token\":\"t\"}".getBytes(StandardCharsets.UTF_8);
+    final byte[] source = new byte[prefix.length + malformed.length + suffix.length];
+
+    System.arraycopy(prefix, 0, source, 0, prefix.length);
+    System.arraycopy(malformed, 0, source, prefix.length, malformed.length);
+    System.arraycopy(suffix, 0, source, prefix.length + malformed.length, suffix.length);
+
+    assertSameAsJsonReader(source);
+  }
+
+  @Test
+  void theTokenIsUnescapedIntoItsUtf8Bytes() {
+    final byte[] source = ("{\"applicationId\":\"a\",\"digest\":\"d\","
+        + "\"token\":\"{\\\"channel\\\":\\\"\u00e9\\u00e9\\ud83d\\ude00\\\"}\"}").getBytes(StandardCharsets.UTF_8);
+
+    Assert.assertTrue(envelope.parse(source, source.length));
+    Assert.assertEquals(envelope.copyToken(),
+        "{\"channel\":\"\u00e9\u00e9\ud83d\ude00\"}".getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void anEscapedSurrogateThatIsNotPartOfAPairIsReplaced() {
+    final byte[] source = "{\"applicationId\":\"a\",\"digest\":\"d\",\"token\":\"\\ud83dx\\ude00\"}"
+        .getBytes(StandardCharsets.UTF_8);
+
+    Assert.assertTrue(envelope.parse(source, source.length));
+    Assert.assertEquals(envelope.getToken(), "?x?");
+  }
+
+  @Test
+  void theApplicationIdIsReusedForTheSameApplication() {
+    final byte[] first = "{\"applicationId\":\"a\",\"digest\":\"d\",\"token\":\"t\"}".getBytes(StandardCharsets.UTF_8);
+    final byte[] second = "{\"token\":\"u\",\"applicationId\":\"a\",\"digest\":\"e\"}".getBytes(StandardCharsets.UTF_8);
+
+    Assert.assertTrue(envelope.parse(first, first.length));
+
+    final String applicationId = envelope.getApplicationId();
+
+    Assert.assertTrue(envelope.parse(second, second.length));
+    Assert.assertSame(envelope.getApplicationId(), applicationId);
+  }
+
+  @Test
+  void otherFieldsAreSkipped() {
+    assertSameAsJsonReader("{\"version\":1,\"applicationId\":\"a\",\"extra\":{\"x\":[1,-2.5e+3,true,false,null,{},[],\"s\\\"]\"]},"
+        + "\"digest\":\"d\",\"empty\":[ ],\"token\":\"t\",\"last\":0}");
+  }
+
+  @Test
+  void aRepeatedFieldIsRejected() {
+    assertRejected("{\"applicationId\":\"a\",\"digest\":\"d\",\"token\":\"t\",\"applicationId\":\"b\"}");
+    assertRejected("{\"applicationId\":\"a\",\"digest\":\"d\",\"digest\":\"d\",\"token\":\"t\"}");
+  }
+
+  @Test
+  void aFieldThatIsNotAStringIsRejected() {
+    assertRejected("{\"applicationId\":\"a\",\"digest\":\"d\",\"token\":{}}");
+    assertRejected("{\"applicationId\":1,\"digest\":\"d\",\"token\":\"t\"}");
+    assertRejected("{\"applicationId\":\"a\",\"digest\":null,\"token\":\"t\"}");
+  }
+
+  @Test
+  void aMissingFieldIsRejected() {
+    assertRejected("{\"applicationId\":\"a\",\"digest\":\"d\"}");
+    assertRejected("{}");
+  }
+
+  @Test
+  void malformedJsonIsRejected() {
+    assertRejected("");
+    assertRejected("[\"applicationId\",\"a\"]");
+    assertRejected("{\"applicationId\":\"a\",\"digest\":\"d\",\"token\":\"t\"");
+    assertRejected("{\"applicationId\":\"a\",\"digest\":\"d\",\"token\":\"t\",}");
+    assertRejected("{\"applicationId\":\"a\",\"digest\":\"d\",\"token\":\"t\"}x");
+    assertRejected("{\"applicationId\":\"a\",\"digest\":\"d\" \"token\":\"t\"}");
+    assertRejected("{\"applicationId\":\"a\\x\",\"digest\":\"d\",\"token\":\"t\"}");
+    assertRejected("{\"applicationId\":\"a\\u00g0\",\"digest\":\"d\",\"token\":\"t\"}");
+    assertRejected("{\"applicationId\":\"a\nb\",\"digest\":\"d\",\"token\":\"t\"}");
+    assertRejected("{\"applicationId\":\"a\",\"digest\":\"d\",\"token\":\"t\",\"x\":[1,}");
+    assertRejected("{\"applicationId\":\"a\",\"digest\":\"d\",\"token\":\"t\",\"x\":{\"y\"}}");
+    assertRejected("{\"applicationId\":\"a\",\"digest\":\"d\",\"token\":\"t\",\"x\":01}");
+    assertRejected("{\"applicationId\":\"a\",\"digest\":\"d\",\"token\":\"t\",\"x\":tru}");
+    assertRejected("{\"applicationId\":\"a\",\"digest\":\"d\",\"token\":\"t\",\"x\":[[[[[[[[[[[[[[[[[[[[]]]]]]]]]]]]]]]]]]}");
+  }
+
+  @Test
+  void deeplyNestedOtherFieldsAreSkipped() {
+    final StringBuilder nested = new StringBuilder();
+
+    for (int i = 0; i < 100; i++) {
+      nested.append(i % 2 == 0 ? "[" : "{\"x\":");
+    }
+
+    nested.append("0");
+
+    for (int i = 99; i >= 0; i--) {
+      nested.append(i % 2 == 0 ? "]" : "}");
+    }
+
+    assertSameAsJsonReader("{\"applicationId\":\"a\",\"deep\":" + nested + ",\"digest\":\"d\",\"token\":\"t\"}");
+  }
+
+  private void assertSameAsJsonReader(String envelopeAsString) {
+    assertSameAsJsonReader(envelopeAsString.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void assertSameAsJsonReader(byte[] source) {
+    final JsonObject expected;
+
+    try (JsonReader reader = JsonFactories.READER_FACTORY.createReader(
+        new StringReader(new String(source, StandardCharsets.UTF_8)))) {
+      expected = reader.readObject();
+    }
+
+    Assert.assertTrue(envelope.parse(source, source.length));
+    Assert.assertEquals(envelope.getApplicationId(), expected.getString(DigestTokens.FIELD_APPLICATION_ID));
+    Assert.assertEquals(envelope.getDigest(), expected.getString(DigestTokens.FIELD_DIGEST));
+    Assert.assertEquals(envelope.getToken(), expected.getString(DigestTokens.FIELD_TOKEN));
+    Assert.assertEquals(envelope.copyToken(), expected.getString(DigestTokens.FIELD_TOKEN).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void assertRejected(String envelopeAsString) {
+    final byte[] source = envelopeAsString.getBytes(StandardCharsets.UTF_8);
+
+    Assert.assertFalse(envelope.parse(source, source.length), envelopeAsString);
+  }
+}
@@ -0,0 +1,67 @@
+package com.phenixrts.edgeauth;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import javax.json.JsonObject;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenSigningABatchOfTokens {
+  private final DigestTokens digestTokens = new DigestTokens();
+  private List<JsonObject> tokens;
+
+  @BeforeTest
+  void givenManyTokensOfTheSameApplication() {
+    tokens = new ArrayList<>();
+
+    for (int i = 0; i < 2000; i++) {
+      final TokenBuilder tokenBuilder = new TokenBuilder()
+          .withApplicationId("my-application-id")
+          .withSecret("my-secret")
+          .expiresAt(new Date(1000L + i))
+          .forChannelAlias("my-channel-" + i);
+
+      tokenBuilder.build();
+      tokens.add(JsonFactories.READER_FACTORY.createReader(new StringReader(tokenBuilder.getValue())).readObject());
+    }
+  }
+
+  @Test
+  void theTokensAreTheSameAsWhenSignedOneByOne() {
+    final List<String> encodedTokens = digestTokens.signAndEncode("my-application-id", "my-secret", tokens, new ForkJoinPool(4));
+
+    Assert.assertEquals(encodedTokens.size(), tokens.size());
+
+    for (int i = 0; i < tokens.size(); i++) {
+      Assert.assertEquals(encodedTokens.get(i), digestTokens.signAndEncode("my-application-id", "my-secret", tokens.get(i)));
+    }
+  }
+
+  @Test
+  void aSmallBatchIsSignedWithTheSharedPool() {
+    final List<String> encodedTokens = digestTokens.signAndEncode("my-application-id", "my-secret", tokens.subList(0, 10));
+
+    Assert.assertEquals(encodedTokens.size(), 10);
+    Assert.assertEquals(digestTokens.verify("my-secret", encodedTokens.get(9)), ECode.VERIFIED);
+  }
+
+  @Test
+  void anEmptyBatchIsEmpty() {
+    Assert.assertTrue(digestTokens.signAndEncode("my-application-id", "my-secret", Collections.<JsonObject>emptyList()).isEmpty());
+  }
+
+  @Test(expectedExceptions = RuntimeException.class)
+  void aBatchWithATokenWithoutExpirationFails() {
+    final List<JsonObject> tokensWithoutExpiration = new ArrayList<>(tokens);
+
+    tokensWithoutExpiration.add(JsonFactories.BUILDER_FACTORY.createObjectBuilder().add("type", "auth").build());
+
+    digestTokens.signAndEncode("my-application-id", "my-secret", tokensWithoutExpiration);
+  }
+}
@@ -0,0 +1,127 @@
+package com.phenixrts.edgeauth;
+
+import java.io.CharArrayWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import javax.json.JsonObject;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenSigningIntoABuffer {
+  private final DigestTokens digestTokens = new DigestTokens();
+  private JsonObject token;
+  private String expectedToken;
+
+  @BeforeTest
+  void givenAToken() {
+    token = JsonFactories.BUILDER_FACTORY.createObjectBuilder()
+        .add(DigestTokens.FIELD_EXPIRES, 1000L)
+        .add(TokenBuilder.FIELD_SESSION_ID, "my-session-\u00e9-\ud83d\ude00")
+        .build();
+    expectedToken = digestTokens.signAndEncode("my-application-id", "my-secret", token);
+  }
+
+  @Test
+  void theEncodedLengthIsExact() {
+    Assert.assertEquals(digestTokens.getEncodedLength("my-application-id", token), expectedToken.length());
+  }
+
+  @Test
+  void theTokenIsWrittenIntoAByteArrayAtTheOffset() {
+    final byte[] destination = new byte[expectedToken.length() + 10];
+    final int length = digestTokens.signAndEncode("my-application-id", "my-secret", token, destination, 5);
+
+    Assert.assertEquals(length, expectedToken.length());
+    Assert.assertEquals(new String(destination, 5, length, StandardCharsets.US_ASCII), expectedToken);
+    Assert.assertEquals(destination[4], 0);
+    Assert.assertEquals(destination[5 + length], 0);
+  }
+
+  @Test
+  void theTokenIsWrittenIntoAHeapByteBuffer() {
+    final ByteBuffer destination = ByteBuffer.allocate(expectedToken.length() + 10);
+
+    destination.position(3);
+
+    final int length = digestTokens.signAndEncode("my-application-id", "my-secret", token, destination);
+
+    Assert.assertEquals(length, expectedToken.length());
+    Assert.assertEquals(destination.position(), 3 + length);
+    destination.flip().position(3);
+    Assert.assertEquals(StandardCharsets.US_ASCII.decode(destination).toString(), expectedToken);
+  }
+
+  @Test
+  void theTokenIsWrittenIntoADirectByteBuffer() {
+    final ByteBuffer destination = ByteBuffer.allocateDirect(expectedToken.length());
+    final int length = digestTokens.signAndEncode("my-application-id", "my-secret", token, destination);
+
+    Assert.assertEquals(length, expectedToken.length());
+    Assert.assertFalse(destination.hasRemaining());
+    destination.flip();
+    Assert.assertEquals(StandardCharsets.US_ASCII.decode(destination).toString(), expectedToken);
+  }
+
+  @Test
+  void aLargeTokenIsWrittenIntoADirectByteBuffer() {
+    final StringBuilder sessionId = new StringBuilder();
+
+    for (int i = 0; i < 1000; i++) {
+      sessionId.append("session-").append(i);
+    }
+
+    final JsonObject largeToken = JsonFactories.BUILDER_FACTORY.createObjectBuilder()
+        .add(DigestTokens.FIELD_EXPIRES, 1000L)
+        .add(TokenBuilder.FIELD_SESSION_ID, sessionId.toString())
+        .build();
+    final ByteBuffer destination = ByteBuffer.allocateDirect(digestTokens.getEncodedLength("my-application-id", largeToken));
+
+    digestTokens.signAndEncode("my-application-id", "my-secret", largeToken, destination);
+    destination.flip();
+    Assert.assertEquals(StandardCharsets.US_ASCII.decode(destination).toString(),
+        digestTokens.signAndEncode("my-application-id", "my-secret", largeToken));
+  }
+
+  @Test
+  void theTokenIsAppended() throws Exception {
+    final StringBuilder builder = new StringBuilder("token=");
+    final CharArrayWriter writer = new CharArrayWriter();
+    final CharBuffer buffer = CharBuffer.allocate(expectedToken.length());
+
+    Assert.assertEquals(digestTokens.signAndEncode("my-application-id", "my-secret", token, builder), expectedToken.length());
+    Assert.assertEquals(digestTokens.signAndEncode("my-application-id", "my-secret", token, writer), expectedToken.length());
+    Assert.assertEquals(digestTokens.signAndEncode("my-application-id", "my-secret", token, buffer), expectedToken.length());
+    Assert.assertEquals(builder.toString(), "token=" + expectedToken);
+    Assert.assertEquals(writer.toString(), expectedToken);
+    Assert.assertEquals(buffer.flip().toString(), expectedToken);
+  }
+
+  @Test(expectedExceptions = RuntimeException.class)
+  void aBufferThatIsTooSmallIsRejected() {
+    digestTokens.signAndEncode("my-application-id", "my-secret", token, ByteBuffer.allocate(expectedToken.length() - 1));
+  }
+
+  @Test
+  void theBuilderWritesTheSameTokenItWouldBuild() {
+    final Date expires = new Date(1000L);
+    final String builtToken = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(expires)
+        .forChannelAlias("my-channel")
+        .build();
+    final TokenBuilder tokenBuilder = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(expires)
+        .forChannelAlias("my-channel");
+    final ByteBuffer destination = ByteBuffer.allocate(tokenBuilder.getEncodedLength());
+
+    Assert.assertEquals(tokenBuilder.build(destination), builtToken.length());
+    Assert.assertEquals(new String(destination.array(), StandardCharsets.US_ASCII), builtToken);
+  }
+}
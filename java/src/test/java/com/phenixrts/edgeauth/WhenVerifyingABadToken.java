@@ -14,4 +14,13 @@ public class WhenVerifyingABadToken {
     Assert.assertEquals(result.getCode(), ECode.BAD_TOKEN);
     Assert.assertNull(result.getValue());
   }
+
+  @Test
+  void aTokenThatIsNotAnObjectFailsToVerify() {
+    DigestTokens.VerifyAndDecodeResult result = new DigestTokens().verifyAndDecode("bad-secret", "DIGEST:WyJ0b2tlbiJd");
+
+    Assert.assertFalse(result.isVerified());
+    Assert.assertEquals(result.getCode(), ECode.BAD_TOKEN);
+    Assert.assertNull(result.getValue());
+  }
 }
@@ -0,0 +1,71 @@
+package com.phenixrts.edgeauth;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenVerifyingABatchOfTokens {
+  private final DigestTokens digestTokens = new DigestTokens();
+  private List<String> encodedTokens;
+
+  @BeforeTest
+  void givenManyGoodAndBadTokens() {
+    encodedTokens = new ArrayList<>();
+
+    for (int i = 0; i < 2000; i++) {
+      final String token = new TokenBuilder()
+          .withApplicationId("my-application-id")
+          .withSecret(i % 10 == 0 ? "bad-secret" : "my-secret")
+          .expiresAt(new Date(1000L + i))
+          .forChannelAlias("my-channel-" + i)
+          .build();
+
+      encodedTokens.add(i % 100 == 1 ? "not-a-token-" + i : token);
+    }
+  }
+
+  @Test
+  void theResultsAreInTheOrderOfTheTokens() {
+    final DigestTokens.BatchVerifyResult result = digestTokens.verifyAndDecode("my-secret", encodedTokens, new ForkJoinPool(4));
+
+    Assert.assertEquals(result.getResults().size(), encodedTokens.size());
+
+    for (int i = 0; i < encodedTokens.size(); i++) {
+      final DigestTokens.VerifyAndDecodeResult expected = digestTokens.verifyAndDecode("my-secret", encodedTokens.get(i));
+      final DigestTokens.VerifyAndDecodeResult actual = result.getResults().get(i);
+
+      Assert.assertEquals(actual.getCode(), expected.getCode());
+
+      if (expected.isVerified()) {
+        Assert.assertEquals(actual.getDecodedToken().getRequiredTag(), "channelAlias:my-channel-" + i);
+      }
+    }
+  }
+
+  @Test
+  void theResultsAreCountedPerCode() {
+    final DigestTokens.BatchVerifyResult result = digestTokens.verifyAndDecode("my-secret", encodedTokens, new ForkJoinPool(4));
+
+    Assert.assertEquals(result.getCount(ECode.VERIFIED), 1780);
+    Assert.assertEquals(result.getCount(ECode.BAD_DIGEST), 200);
+    Assert.assertEquals(result.getCount(ECode.NOT_A_DIGEST_TOKEN), 20);
+    Assert.assertEquals(result.getCounts().get(ECode.BAD_TOKEN), Integer.valueOf(0));
+  }
+
+  @Test
+  void theTokensAreVerifiedWithTheSecretsOfTheirApplications() {
+    final KeyRing keyRing = new KeyRing();
+
+    keyRing.setSecrets("my-application-id", "my-secret", "bad-secret");
+
+    final DigestTokens.BatchVerifyResult result = digestTokens.verifyAndDecode(keyRing, encodedTokens);
+
+    Assert.assertEquals(result.getCount(ECode.VERIFIED), 1980);
+    Assert.assertEquals(result.getCount(ECode.NOT_A_DIGEST_TOKEN), 20);
+  }
+}
@@ -0,0 +1,120 @@
+package com.phenixrts.edgeauth;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenVerifyingATokenFromABuffer {
+  private static final String HEADER_PREFIX = "Authorization: Bearer ";
+  private static final String HEADER_SUFFIX = "\r\n";
+
+  private final DigestTokens digestTokens = new DigestTokens();
+  private String token;
+
+  @BeforeTest
+  void givenAToken() {
+    token = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(new Date(2000L))
+        .forChannelAlias("my-channel")
+        .build();
+  }
+
+  @Test
+  void theTokenIsVerifiedFromASliceOfACharacterSequence() {
+    final String header = HEADER_PREFIX + token + HEADER_SUFFIX;
+    final CharSequence slice = CharBuffer.wrap(header, HEADER_PREFIX.length(), header.length() - HEADER_SUFFIX.length());
+    final DigestTokens.VerifyAndDecodeResult result = digestTokens.verifyAndDecode("my-secret", slice);
+
+    Assert.assertEquals(digestTokens.verify("my-secret", slice), ECode.VERIFIED);
+    Assert.assertTrue(result.isVerified());
+    Assert.assertEquals(result.getDecodedToken().getApplicationId(), "my-application-id");
+    Assert.assertEquals(result.getDecodedToken().getRequiredTag(), "channelAlias:my-channel");
+  }
+
+  @Test
+  void theTokenIsVerifiedFromASliceOfAHeapBuffer() {
+    final ByteBuffer header = createHeader(ByteBuffer.allocate(1024));
+
+    Assert.assertEquals(digestTokens.verify("my-secret", header), ECode.VERIFIED);
+    Assert.assertTrue(digestTokens.verifyAndDecode("my-secret", header).isVerified());
+    Assert.assertEquals(header.position(), HEADER_PREFIX.length());
+    Assert.assertEquals(header.remaining(), token.length());
+  }
+
+  @Test
+  void theTokenIsVerifiedFromASliceOfADirectBuffer() {
+    final ByteBuffer header = createHeader(ByteBuffer.allocateDirect(1024));
+
+    Assert.assertEquals(digestTokens.verify("my-secret", header), ECode.VERIFIED);
+    Assert.assertEquals(digestTokens.verifyAndDecode("my-secret", header).getDecodedToken().getApplicationId(), "my-application-id");
+    Assert.assertEquals(header.position(), HEADER_PREFIX.length());
+  }
+
+  @Test
+  void theTokenIsVerifiedFromABufferWithAKeyRing() {
+    final KeyRing keyRing = new KeyRing();
+    final ByteBuffer header = createHeader(ByteBuffer.allocateDirect(1024));
+
+    keyRing.setSecrets("my-application-id", "my-other-secret", "my-secret");
+
+    Assert.assertEquals(digestTokens.verify(keyRing, header), ECode.VERIFIED);
+    Assert.assertTrue(digestTokens.verifyAndDecode(keyRing, header).isVerified());
+  }
+
+  @Test
+  void aBufferThatIsNotADigestTokenIsRejected() {
+    final ByteBuffer buffer = ByteBuffer.wrap("DIGEST".getBytes(StandardCharsets.US_ASCII));
+
+    Assert.assertEquals(digestTokens.verify("my-secret", buffer), ECode.NOT_A_DIGEST_TOKEN);
+    Assert.assertFalse(digestTokens.isDigestToken(new StringBuilder("DIGEST")));
+    Assert.assertTrue(digestTokens.isDigestToken(new StringBuilder(token)));
+  }
+
+  @Test
+  void aBufferWithNonAsciiBytesIsABadToken() {
+    final byte[] bytes = token.getBytes(StandardCharsets.US_ASCII);
+
+    bytes[bytes.length / 2] = (byte) 0xc3;
+
+    Assert.assertEquals(digestTokens.verify("my-secret", ByteBuffer.wrap(bytes)), ECode.BAD_TOKEN);
+  }
+
+  @Test
+  void aCachedTokenDoesNotDependOnTheBufferItWasReadFrom() {
+    final VerifiedTokenCache cache = new VerifiedTokenCache(1024 * 1024);
+    final DigestTokens cachingDigestTokens = new DigestTokens(new VerifierPolicy.Builder()
+        .withClock(new Clock() {
+          @Override
+          public long currentTimeMillis() {
+            return 1000L;
+          }
+        })
+        .withVerifiedTokenCache(cache)
+        .build());
+    final ByteBuffer header = createHeader(ByteBuffer.allocate(1024));
+
+    Assert.assertEquals(cachingDigestTokens.verify("my-secret", header), ECode.VERIFIED);
+
+    // The pooled buffer is reused for the next request.
+    header.clear();
+    header.put(new byte[1024]);
+
+    Assert.assertEquals(cachingDigestTokens.verify("my-secret", token), ECode.VERIFIED);
+    Assert.assertEquals(cache.getHitCount(), 1);
+  }
+
+  private ByteBuffer createHeader(ByteBuffer buffer) {
+    buffer.put((HEADER_PREFIX + token + HEADER_SUFFIX).getBytes(StandardCharsets.US_ASCII));
+    buffer.position(HEADER_PREFIX.length());
+    buffer.limit(HEADER_PREFIX.length() + token.length());
+
+    return buffer;
+  }
+}
@@ -0,0 +1,29 @@
+package com.phenixrts.edgeauth;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class WhenVerifyingATokenWithAMalformedDigest {
+  // {"applicationId":"my-application-id","digest":"c2hvcnQ=","token":"{\"expires\":1000}"}
+  private String tokenWithAShortDigest = "DIGEST:eyJhcHBsaWNhdGlvbklkIjoibXktYXBwbGljYXRpb24taWQiLCJkaWdlc3QiOiJjMmh2Y25RPSIsInRva2VuIjoie1wiZXhwaXJlc1wiOjEwMDB9In0=";
+  // {"applicationId":"my-application-id","digest":"not base64!","token":"{\"expires\":1000}"}
+  private String tokenWithADigestThatIsNotBase64 = "DIGEST:eyJhcHBsaWNhdGlvbklkIjoibXktYXBwbGljYXRpb24taWQiLCJkaWdlc3QiOiJub3QgYmFzZTY0ISIsInRva2VuIjoie1wiZXhwaXJlc1wiOjEwMDB9In0=";
+
+  @Test
+  void aTokenWithAShortDigestFailsToVerify() {
+    DigestTokens.VerifyAndDecodeResult result = new DigestTokens().verifyAndDecode("my-secret", tokenWithAShortDigest);
+
+    Assert.assertFalse(result.isVerified());
+    Assert.assertEquals(result.getCode(), ECode.BAD_DIGEST);
+    Assert.assertNull(result.getValue());
+  }
+
+  @Test
+  void aTokenWithADigestThatIsNotBase64FailsToVerify() {
+    DigestTokens.VerifyAndDecodeResult result = new DigestTokens().verifyAndDecode("my-secret", tokenWithADigestThatIsNotBase64);
+
+    Assert.assertFalse(result.isVerified());
+    Assert.assertEquals(result.getCode(), ECode.BAD_DIGEST);
+    Assert.assertNull(result.getValue());
+  }
+}
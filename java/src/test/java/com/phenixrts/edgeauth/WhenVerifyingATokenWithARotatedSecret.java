@@ -0,0 +1,66 @@
+package com.phenixrts.edgeauth;
+
+import java.util.Date;
+import javax.json.Json;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenVerifyingATokenWithARotatedSecret {
+  private HmacKeyCache keyCache;
+  private DigestTokens digestTokens;
+  private String token;
+  private String rotatedToken;
+
+  @BeforeTest
+  void givenTokensSignedBeforeAndAfterTheRotation() {
+    keyCache = new HmacKeyCache(2);
+    digestTokens = new DigestTokens(keyCache);
+    token = digestTokens.signAndEncode("my-application-id", "my-secret", Json.createObjectBuilder()
+        .add("expires", 1000L)
+        .build());
+    rotatedToken = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-rotated-secret")
+        .expiresAt(new Date(1000L))
+        .build();
+  }
+
+  @Test
+  void theTokenMatchesTheValueSignedWithoutTheCache() {
+    final String expected = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(new Date(1000L))
+        .build();
+
+    Assert.assertEquals(token, expected);
+  }
+
+  @Test
+  void bothSecretsVerifyTheirTokens() {
+    Assert.assertEquals(digestTokens.verifyAndDecode("my-secret", token).getCode(), ECode.VERIFIED);
+    Assert.assertEquals(digestTokens.verifyAndDecode("my-rotated-secret", rotatedToken).getCode(), ECode.VERIFIED);
+    Assert.assertEquals(digestTokens.verifyAndDecode("my-rotated-secret", token).getCode(), ECode.BAD_DIGEST);
+    Assert.assertEquals(digestTokens.verifyAndDecode("my-secret", rotatedToken).getCode(), ECode.BAD_DIGEST);
+  }
+
+  @Test
+  void theCacheStaysWithinItsCapacity() {
+    digestTokens.verifyAndDecode("other-secret", token);
+    digestTokens.verifyAndDecode("yet-another-secret", token);
+
+    Assert.assertTrue(keyCache.size() <= keyCache.getCapacity());
+  }
+
+  @Test
+  void theTokenStillVerifiesAfterTheKeysAreInvalidated() {
+    keyCache.invalidate("my-application-id", "my-secret");
+    Assert.assertEquals(digestTokens.verifyAndDecode("my-secret", token).getCode(), ECode.VERIFIED);
+
+    keyCache.invalidate("my-application-id");
+    Assert.assertEquals(digestTokens.verifyAndDecode("my-rotated-secret", rotatedToken).getCode(), ECode.VERIFIED);
+    Assert.assertEquals(digestTokens.verifyAndDecode("my-secret", rotatedToken).getCode(), ECode.BAD_DIGEST);
+  }
+}
@@ -0,0 +1,121 @@
+package com.phenixrts.edgeauth;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenVerifyingATokenWithIrregularBase64 {
+  private final DigestTokens digestTokens = new DigestTokens();
+  private String tokenWithOnePadding;
+  private String tokenWithTwoPaddings;
+  private String tokenWithoutPadding;
+
+  @BeforeTest
+  void givenTokensWithEveryAmountOfPadding() {
+    for (int i = 0; tokenWithOnePadding == null || tokenWithTwoPaddings == null || tokenWithoutPadding == null; i++) {
+      final String token = createToken("my-channel-" + i);
+
+      if (token.endsWith("==")) {
+        tokenWithTwoPaddings = token;
+      } else if (token.endsWith("=")) {
+        tokenWithOnePadding = token;
+      } else {
+        tokenWithoutPadding = token;
+      }
+    }
+  }
+
+  @Test
+  void aTokenWithATrailingLineBreakVerifies() {
+    Assert.assertEquals(verify(tokenWithOnePadding + "\r\n"), ECode.VERIFIED);
+    Assert.assertEquals(verify(tokenWithTwoPaddings + "\r\n"), ECode.VERIFIED);
+    Assert.assertEquals(verify(tokenWithoutPadding + "\n"), ECode.VERIFIED);
+  }
+
+  @Test
+  void aTokenWithATrailingLineBreakVerifiesFromABuffer() {
+    final byte[] token = (tokenWithOnePadding + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(token.length);
+
+    buffer.put(token).flip();
+
+    Assert.assertEquals(digestTokens.verify("my-secret", buffer), ECode.VERIFIED);
+  }
+
+  @Test
+  void aTokenWithEmbeddedWhitespaceVerifies() {
+    final StringBuilder token = new StringBuilder(tokenWithOnePadding);
+
+    for (int i = token.length() - 10; i > DigestTokens.DIGEST_TOKEN_PREFIX.length(); i -= 10) {
+      token.insert(i, i % 20 == 0 ? "\r\n" : " ");
+    }
+
+    Assert.assertEquals(verify(token.toString()), ECode.VERIFIED);
+  }
+
+  @Test
+  void aTokenWithCharactersOutsideOfTheAlphabetVerifies() {
+    final int middle = tokenWithOnePadding.length() / 2;
+
+    Assert.assertEquals(verify(tokenWithOnePadding.substring(0, middle) + "!-." + tokenWithOnePadding.substring(middle)),
+        ECode.VERIFIED);
+  }
+
+  @Test
+  void aTokenWithExtraPaddingVerifiesLikeWithDatatypeConverter() {
+    Assert.assertEquals(verify(tokenWithTwoPaddings + "="), ECode.VERIFIED);
+    Assert.assertEquals(verify(tokenWithTwoPaddings + "=="), ECode.VERIFIED);
+    Assert.assertEquals(verify(tokenWithOnePadding + "=="), ECode.VERIFIED);
+
+    // DatatypeConverter fails to decode these, because they claim less padding than they decode to.
+    Assert.assertEquals(verify(tokenWithOnePadding + "="), ECode.BAD_TOKEN);
+    Assert.assertEquals(verify(tokenWithoutPadding + "="), ECode.BAD_TOKEN);
+  }
+
+  @Test
+  void aTokenWithoutItsPaddingFailsToVerify() {
+    // The last incomplete group of characters is dropped, which cuts the envelope short.
+    Assert.assertEquals(verify(tokenWithOnePadding.substring(0, tokenWithOnePadding.length() - 1)), ECode.BAD_TOKEN);
+    Assert.assertEquals(verify(tokenWithTwoPaddings.substring(0, tokenWithTwoPaddings.length() - 2)), ECode.BAD_TOKEN);
+  }
+
+  @Test
+  void aTokenWithNonAsciiCharactersFailsToVerify() {
+    final int middle = tokenWithOnePadding.length() / 2;
+
+    final String token = tokenWithOnePadding.substring(0, middle) + "\u00e9" + tokenWithOnePadding.substring(middle);
+
+    Assert.assertEquals(verify(token), ECode.BAD_TOKEN);
+  }
+
+  @Test
+  void aDigestWithWhitespaceFailsToVerify() {
+    final int start = DigestTokens.DIGEST_TOKEN_PREFIX.length();
+    final int end = tokenWithOnePadding.length();
+    final byte[] decoded = new byte[Base64Codec.decodedLength(tokenWithOnePadding, start, end)];
+    final int length = Base64Codec.decode(tokenWithOnePadding, start, end, decoded, 0);
+    final String envelope = new String(decoded, 0, length, StandardCharsets.UTF_8);
+    final int digestStart = envelope.indexOf("\"digest\":\"") + "\"digest\":\"".length();
+    final String spacedEnvelope = envelope.substring(0, digestStart) + " " + envelope.substring(digestStart);
+
+    Assert.assertEquals(verify(DigestTokens.DIGEST_TOKEN_PREFIX
+        + Base64Codec.encodeToString(spacedEnvelope.getBytes(StandardCharsets.UTF_8))), ECode.BAD_DIGEST);
+  }
+
+  private ECode verify(String token) {
+    return digestTokens.verifyAndDecode("my-secret", token).getCode();
+  }
+
+  private static String createToken(String channelAlias) {
+    return new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(new Date(System.currentTimeMillis() + 60000))
+        .forChannelAlias(channelAlias)
+        .build();
+  }
+}
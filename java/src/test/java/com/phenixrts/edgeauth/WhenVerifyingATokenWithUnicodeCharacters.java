@@ -0,0 +1,41 @@
+package com.phenixrts.edgeauth;
+
+import java.util.Date;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenVerifyingATokenWithUnicodeCharacters {
+  private String token;
+
+  @BeforeTest
+  void givenASignedToken() {
+    token = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(new Date(1000L))
+        .forChannelAlias("caf\u00e9-\u00fcber-\u65e5\u672c-\ud83c\udf89")
+        .build();
+  }
+
+  @Test
+  void theTokenSuccessfullyVerifiesWithTheCorrectSecret() {
+    DigestTokens.VerifyAndDecodeResult result = new DigestTokens().verifyAndDecode("my-secret", token);
+
+    Assert.assertTrue(result.isVerified());
+    Assert.assertEquals(result.getCode(), ECode.VERIFIED);
+    Assert.assertNotNull(result.getValue());
+    Assert.assertEquals(result.getValue().getString("requiredTag"),
+        "channelAlias:caf\u00e9-\u00fcber-\u65e5\u672c-\ud83c\udf89");
+  }
+
+  @Test
+  void theTokenFailsToVerifyWithABadSecret() {
+    DigestTokens.VerifyAndDecodeResult result = new DigestTokens().verifyAndDecode("bad-secret", token);
+
+    Assert.assertFalse(result.isVerified());
+    Assert.assertEquals(result.getCode(), ECode.BAD_DIGEST);
+    Assert.assertNull(result.getValue());
+  }
+}
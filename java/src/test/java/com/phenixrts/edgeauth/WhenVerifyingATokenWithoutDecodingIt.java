@@ -0,0 +1,41 @@
+package com.phenixrts.edgeauth;
+
+import java.util.Date;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenVerifyingATokenWithoutDecodingIt {
+  private String token;
+
+  @BeforeTest
+  void givenASignedToken() {
+    token = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(new Date(1000L))
+        .forChannel("us-northeast#my-application-id#my-channel.1345")
+        .build();
+  }
+
+  @Test
+  void theTokenSuccessfullyVerifiesWithTheCorrectSecret() {
+    Assert.assertEquals(new DigestTokens().verify("my-secret", token), ECode.VERIFIED);
+  }
+
+  @Test
+  void theTokenFailsToVerifyWithABadSecret() {
+    Assert.assertEquals(new DigestTokens().verify("bad-secret", token), ECode.BAD_DIGEST);
+  }
+
+  @Test
+  void aBadTokenFailsToVerify() {
+    Assert.assertEquals(new DigestTokens().verify("my-secret", "DIGEST:bad-token"), ECode.BAD_TOKEN);
+  }
+
+  @Test
+  void aValueThatIsNotADigestTokenFailsToVerify() {
+    Assert.assertEquals(new DigestTokens().verify("my-secret", "not-a-token"), ECode.NOT_A_DIGEST_TOKEN);
+  }
+}
@@ -0,0 +1,102 @@
+package com.phenixrts.edgeauth;
+
+import java.math.BigInteger;
+import java.util.Date;
+import javax.json.Json;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenVerifyingAnExpiredToken {
+  private DigestTokens digestTokens;
+  private String token;
+
+  @BeforeTest
+  void givenATokenAndAClockPastItsExpiration() {
+    final Clock clock = new Clock() {
+      @Override
+      public long currentTimeMillis() {
+        return 2000L;
+      }
+    };
+
+    digestTokens = new DigestTokens(new VerifierPolicy.Builder()
+        .rejectExpiredTokens()
+        .withClock(clock)
+        .build());
+    token = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(new Date(1000L))
+        .forChannelAlias("my-channel")
+        .build();
+  }
+
+  @Test
+  void theTokenIsExpired() {
+    DigestTokens.VerifyAndDecodeResult result = digestTokens.verifyAndDecode("my-secret", token);
+
+    Assert.assertFalse(result.isVerified());
+    Assert.assertEquals(result.getCode(), ECode.EXPIRED);
+    Assert.assertNull(result.getValue());
+    Assert.assertEquals(digestTokens.verify("my-secret", token), ECode.EXPIRED);
+  }
+
+  @Test
+  void theTokenIsExpiredBeforeTheDigestIsChecked() {
+    Assert.assertEquals(digestTokens.verify("bad-secret", token), ECode.EXPIRED);
+  }
+
+  @Test
+  void theTokenVerifiesWithinTheClockSkew() {
+    final DigestTokens digestTokensWithClockSkew = new DigestTokens(new VerifierPolicy.Builder()
+        .rejectExpiredTokens()
+        .withClock(new Clock() {
+          @Override
+          public long currentTimeMillis() {
+            return 2000L;
+          }
+        })
+        .withClockSkew(1000L)
+        .build());
+
+    Assert.assertEquals(digestTokensWithClockSkew.verify("my-secret", token), ECode.VERIFIED);
+    Assert.assertEquals(digestTokensWithClockSkew.verify("bad-secret", token), ECode.BAD_DIGEST);
+  }
+
+  @Test
+  void theTokenVerifiesWithTheDefaultPolicy() {
+    Assert.assertEquals(new DigestTokens().verify("my-secret", token), ECode.VERIFIED);
+  }
+
+  @Test
+  void theExpirationIsReadFromTheTopLevelOnly() {
+    final String tokenWithANestedExpiration = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(new Date(3000L))
+        .forChannelAlias("\"expires\":1")
+        .applyTag("{\"expires\":1}")
+        .build();
+
+    Assert.assertEquals(digestTokens.verify("my-secret", tokenWithANestedExpiration), ECode.VERIFIED);
+  }
+
+  @Test
+  void anExpirationBeyondTheRangeOfALongIsNotWrapped() {
+    // These wrap around to -1 and to 10000 when they are narrowed to a long.
+    final String tokenExpiringAfterTheEndOfTime = createToken(new BigInteger("18446744073709551615"));
+    final String tokenExpiredBeforeTheStartOfTime = createToken(new BigInteger("-18446744073709541616"));
+
+    Assert.assertEquals(digestTokens.verify("my-secret", tokenExpiringAfterTheEndOfTime), ECode.VERIFIED);
+    Assert.assertEquals(digestTokens.verify("my-secret", tokenExpiredBeforeTheStartOfTime), ECode.EXPIRED);
+  }
+
+  private static String createToken(BigInteger expires) {
+    return new DigestTokens().signAndEncode("my-application-id", "my-secret", Json.createObjectBuilder()
+        .add("expires", expires)
+        .add("requiredTag", "channelAlias:my-channel")
+        .build());
+  }
+}
@@ -0,0 +1,97 @@
+package com.phenixrts.edgeauth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenVerifyingAnOversizedToken {
+  private final DigestTokens unlimited = new DigestTokens();
+  private String token;
+
+  @BeforeTest
+  void givenASignedToken() {
+    token = createToken("my-channel").build();
+  }
+
+  @Test
+  void aTokenWithinTheLimitsVerifies() {
+    final DigestTokens limited = new DigestTokens(new VerifierPolicy.Builder()
+        .withMaxEncodedLength(1024)
+        .withMaxDecodedLength(512)
+        .withMaxNestingDepth(2)
+        .withMaxStringLength(256)
+        .build());
+
+    Assert.assertEquals(limited.verify("my-secret", token), ECode.VERIFIED);
+  }
+
+  @Test
+  void aTokenLongerThanTheMaximumEncodedLengthIsRejected() {
+    assertRejectedOnlyWith(new VerifierPolicy.Builder().withMaxEncodedLength(token.length() - 1), token);
+  }
+
+  @Test
+  void aTokenLongerThanTheMaximumDecodedLengthIsRejected() {
+    final String longToken = createToken(repeat('a', 600)).build();
+
+    assertRejectedOnlyWith(new VerifierPolicy.Builder().withMaxDecodedLength(512), longToken);
+  }
+
+  @Test
+  void anEnvelopeNestedDeeperThanTheMaximumDepthIsRejected() {
+    // Fields of the envelope other than the signed token do not change its digest.
+    final String nestedToken = withEnvelopeField(token, "\"extra\":[[1]]");
+
+    assertRejectedOnlyWith(new VerifierPolicy.Builder().withMaxNestingDepth(2), nestedToken);
+  }
+
+  @Test
+  void aTokenWithClaimsNestedDeeperThanTheMaximumDepthIsRejected() {
+    // The envelope is a flat object, only the capabilities within the signed token are nested.
+    final String nestedToken = createToken("my-channel").withCapability("multi-bitrate").build();
+
+    assertRejectedOnlyWith(new VerifierPolicy.Builder().withMaxNestingDepth(1), nestedToken);
+  }
+
+  @Test
+  void aTokenWithAStringLongerThanTheMaximumIsRejected() {
+    final String longToken = createToken(repeat('a', 300)).build();
+
+    assertRejectedOnlyWith(new VerifierPolicy.Builder().withMaxStringLength(256), longToken);
+  }
+
+  private void assertRejectedOnlyWith(VerifierPolicy.Builder limit, String token) {
+    Assert.assertEquals(unlimited.verify("my-secret", token), ECode.VERIFIED);
+    Assert.assertEquals(new DigestTokens(limit.build()).verify("my-secret", token), ECode.BAD_TOKEN);
+  }
+
+  private static TokenBuilder createToken(String channelAlias) {
+    return new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(new Date(1000L))
+        .forChannelAlias(channelAlias);
+  }
+
+  private static String withEnvelopeField(String token, String field) {
+    final int start = DigestTokens.DIGEST_TOKEN_PREFIX.length();
+    final byte[] decoded = new byte[Base64Codec.decodedLength(token, start, token.length())];
+    final int length = Base64Codec.decode(token, start, token.length(), decoded, 0);
+    final String envelope = new String(decoded, 0, length, StandardCharsets.UTF_8);
+    final String extendedEnvelope = "{" + field + "," + envelope.substring(1);
+
+    return DigestTokens.DIGEST_TOKEN_PREFIX + Base64Codec.encodeToString(extendedEnvelope.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String repeat(char c, int count) {
+    final char[] value = new char[count];
+
+    Arrays.fill(value, c);
+
+    return new String(value);
+  }
+}
@@ -0,0 +1,314 @@
+package com.phenixrts.edgeauth;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenVerifyingAsynchronously {
+  private String token;
+
+  @BeforeTest
+  void givenAToken() {
+    token = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(new Date(2000L))
+        .forChannelAlias("my-channel")
+        .build();
+  }
+
+  @Test
+  void theResultIsTheSameAsVerifyingSynchronously() throws Exception {
+    final AsyncVerifier verifier = new AsyncVerifier.Builder().withWorkers(2).build();
+    final DigestTokens.VerifyAndDecodeResult result = verifier.verifyAndDecode("my-secret", token).get(10, TimeUnit.SECONDS);
+
+    Assert.assertTrue(result.isVerified());
+    Assert.assertEquals(result.getDecodedToken().getRequiredTag(), "channelAlias:my-channel");
+    Assert.assertEquals(verifier.verifyAndDecode("bad-secret", token).get(10, TimeUnit.SECONDS).getCode(), ECode.BAD_DIGEST);
+    verifier.close();
+  }
+
+  @Test
+  void theResultIsVerifiedWithASecretSource() throws Exception {
+    final KeyRing keyRing = new KeyRing();
+    final AsyncVerifier verifier = new AsyncVerifier.Builder().build();
+
+    keyRing.setSecrets("my-application-id", "my-secret");
+
+    Assert.assertTrue(verifier.verifyAndDecode(keyRing, token).get(10, TimeUnit.SECONDS).isVerified());
+    verifier.close();
+  }
+
+  @Test
+  void listenersAreNotifiedOnTheCompletionExecutor() throws Exception {
+    final ExecutorService completionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, "my-event-loop");
+      }
+    });
+    final AsyncVerifier verifier = new AsyncVerifier.Builder().withCompletionExecutor(completionExecutor).build();
+    final AtomicReference<String> threadName = new AtomicReference<>();
+    final CountDownLatch listening = new CountDownLatch(1);
+    final CountDownLatch notified = new CountDownLatch(1);
+
+    // The completion waits until the listener is added, which would otherwise run right away if it came too late.
+    completionExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          listening.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+
+    verifier.verifyAndDecode("my-secret", token).addListener(new VerificationFuture.Listener() {
+      @Override
+      public void onComplete(VerificationFuture future) {
+        threadName.set(Thread.currentThread().getName());
+        notified.countDown();
+      }
+    });
+    listening.countDown();
+
+    Assert.assertTrue(notified.await(10, TimeUnit.SECONDS));
+    Assert.assertEquals(threadName.get(), "my-event-loop");
+    verifier.close();
+    completionExecutor.shutdown();
+  }
+
+  @Test
+  void aListenerAddedAfterCompletionIsNotifiedRightAway() throws Exception {
+    final AsyncVerifier verifier = new AsyncVerifier.Builder().build();
+    final VerificationFuture future = verifier.verifyAndDecode("my-secret", token);
+    final List<VerificationFuture> notified = new ArrayList<>();
+
+    future.get(10, TimeUnit.SECONDS);
+    future.addListener(new VerificationFuture.Listener() {
+      @Override
+      public void onComplete(VerificationFuture completed) {
+        notified.add(completed);
+      }
+    });
+
+    Assert.assertEquals(notified.size(), 1);
+    Assert.assertTrue(notified.get(0).isSuccess());
+    Assert.assertTrue(notified.get(0).getNow().isVerified());
+    verifier.close();
+  }
+
+  @Test
+  void aFailedVerificationFailsTheFuture() throws Exception {
+    final AsyncVerifier verifier = new AsyncVerifier.Builder().build();
+    final VerificationFuture future = verifier.verifyAndDecode(new SecretSource() {
+      @Override
+      public String[] lookupSecrets(String applicationId) {
+        throw new IllegalStateException("my-failure");
+      }
+
+      @Override
+      public void secretVerified(String applicationId, String[] secrets, int index) {
+      }
+    }, token);
+
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      Assert.fail();
+    } catch (ExecutionException e) {
+      Assert.assertEquals(e.getCause().getMessage(), "my-failure");
+    }
+
+    Assert.assertFalse(future.isSuccess());
+    Assert.assertNull(future.getNow());
+    verifier.close();
+  }
+
+  @Test
+  void queuedRequestsAreVerifiedInBatches() throws Exception {
+    final AsyncVerifier verifier = new AsyncVerifier.Builder().withWorkers(1).withMaxBatchSize(32).build();
+    final CountDownLatch release = blockWorker(verifier);
+    final List<VerificationFuture> futures = new ArrayList<>();
+
+    for (int i = 0; i < 100; i++) {
+      futures.add(verifier.verifyAndDecode("my-secret", token));
+    }
+
+    release.countDown();
+
+    for (VerificationFuture future : futures) {
+      Assert.assertTrue(future.get(10, TimeUnit.SECONDS).isVerified());
+    }
+
+    Assert.assertEquals(verifier.getCompletedCount(), 101);
+    Assert.assertEquals(verifier.getBatchCount(), 1 + 4);
+    verifier.close();
+  }
+
+  @Test
+  void aRequestIsRejectedWhenTheQueueIsFull() throws Exception {
+    final AsyncVerifier verifier = new AsyncVerifier.Builder().withWorkers(1).withQueueCapacity(1).build();
+    final CountDownLatch release = blockWorker(verifier);
+    final VerificationFuture queued = verifier.verifyAndDecode("my-secret", token);
+    final VerificationFuture rejected = verifier.verifyAndDecode("my-secret", token);
+
+    Assert.assertTrue(rejected.isDone());
+    Assert.assertTrue(rejected.getCause() instanceof RejectedExecutionException);
+    Assert.assertEquals(verifier.getRejectedCount(), 1);
+
+    release.countDown();
+
+    Assert.assertTrue(queued.get(10, TimeUnit.SECONDS).isVerified());
+    verifier.close();
+  }
+
+  @Test
+  void queuedRequestsAreVerifiedAfterClosing() throws Exception {
+    final AsyncVerifier verifier = new AsyncVerifier.Builder().withWorkers(1).build();
+    final CountDownLatch release = blockWorker(verifier);
+    final VerificationFuture queued = verifier.verifyAndDecode("my-secret", token);
+
+    verifier.close();
+
+    Assert.assertTrue(verifier.verifyAndDecode("my-secret", token).getCause() instanceof RejectedExecutionException);
+
+    release.countDown();
+
+    Assert.assertTrue(queued.get(10, TimeUnit.SECONDS).isVerified());
+  }
+
+  @Test
+  void tokensAreVerifiedByTheWorkerOfTheirApplication() throws Exception {
+    final KeyRing keyRing = new KeyRing();
+    final AsyncVerifier verifier = new AsyncVerifier.Builder().withWorkers(4).withApplicationAffinity().build();
+    final List<VerificationFuture> futures = new ArrayList<>();
+
+    for (int i = 0; i < 20; i++) {
+      keyRing.setSecrets("my-application-" + i, "my-secret-" + i);
+    }
+
+    for (int i = 0; i < 100; i++) {
+      futures.add(verifier.verifyAndDecode(keyRing, createToken("my-application-" + i % 20, "my-secret-" + i % 20, i)));
+    }
+
+    for (VerificationFuture future : futures) {
+      Assert.assertTrue(future.get(10, TimeUnit.SECONDS).isVerified());
+    }
+
+    Assert.assertTrue(verifier.hasApplicationAffinity());
+    Assert.assertEquals(verifier.getCompletedCount(), 100);
+    verifier.close();
+  }
+
+  @Test
+  void aRemovedSecretIsDroppedFromTheKeyCachesOfTheWorkers() throws Exception {
+    final HmacKeyCache keyCache = new HmacKeyCache(16);
+    final KeyRing keyRing = new KeyRing(keyCache);
+    final AsyncVerifier verifier = new AsyncVerifier.Builder()
+        .withDigestTokens(new DigestTokens(keyCache))
+        .withWorkers(2)
+        .withApplicationAffinity()
+        .build();
+
+    keyRing.setSecrets("my-application-id", "my-new-secret", "my-secret");
+
+    Assert.assertTrue(verifier.verifyAndDecode(keyRing, token).get(10, TimeUnit.SECONDS).isVerified());
+    Assert.assertEquals(keyCache.confinedSize(), 2);
+
+    keyRing.removeSecret("my-application-id", "my-secret");
+
+    Assert.assertEquals(keyCache.confinedSize(), 1);
+    Assert.assertEquals(verifier.verifyAndDecode(keyRing, token).get(10, TimeUnit.SECONDS).getCode(), ECode.BAD_DIGEST);
+
+    verifier.close();
+
+    for (int i = 0; i < 100 && keyCache.confinedSize() > 0; i++) {
+      Thread.sleep(100);
+    }
+
+    Assert.assertEquals(keyCache.confinedSize(), 0);
+  }
+
+  @Test
+  void theWorkerDependsOnlyOnTheApplicationId() {
+    final Set<Integer> workers = new HashSet<>();
+
+    for (int i = 0; i < 100; i++) {
+      final String applicationId = "my-application-" + i;
+      final int worker = AsyncVerifier.route(createToken(applicationId, "my-secret", 1000L), 4);
+
+      Assert.assertEquals(AsyncVerifier.route(createToken(applicationId, "my-other-secret", 2000L), 4), worker);
+      workers.add(worker);
+    }
+
+    Assert.assertEquals(workers.size(), 4);
+  }
+
+  @Test
+  void aLongOrMalformedTokenIsRouted() {
+    final StringBuilder applicationId = new StringBuilder();
+
+    for (int i = 0; i < 100; i++) {
+      applicationId.append("my-\"application\"-");
+    }
+
+    final int worker = AsyncVerifier.route(createToken(applicationId.toString(), "my-secret", 1000L), 4);
+
+    Assert.assertEquals(AsyncVerifier.route(createToken(applicationId.toString(), "my-secret", 2000L), 4), worker);
+    Assert.assertTrue(AsyncVerifier.route("DIGEST:!!!!", 4) >= 0);
+    Assert.assertTrue(AsyncVerifier.route("not-a-token", 4) >= 0);
+  }
+
+  private static String createToken(String applicationId, String secret, long expires) {
+    return new TokenBuilder()
+        .withApplicationId(applicationId)
+        .withSecret(secret)
+        .expiresAt(new Date(expires))
+        .forChannelAlias("my-channel")
+        .build();
+  }
+
+  // Keeps the only worker busy looking up a secret until the returned latch is released.
+  private CountDownLatch blockWorker(AsyncVerifier verifier) throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    verifier.verifyAndDecode(new SecretSource() {
+      @Override
+      public String[] lookupSecrets(String applicationId) {
+        started.countDown();
+
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+
+        return new String[]{"my-secret"};
+      }
+
+      @Override
+      public void secretVerified(String applicationId, String[] secrets, int index) {
+      }
+    }, token);
+
+    Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    return release;
+  }
+}
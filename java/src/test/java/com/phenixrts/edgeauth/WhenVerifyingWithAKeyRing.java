@@ -0,0 +1,90 @@
+package com.phenixrts.edgeauth;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenVerifyingWithAKeyRing {
+  private String token;
+  private String otherToken;
+
+  @BeforeTest
+  void givenTokensOfTwoApplications() {
+    token = createToken("my-application-id", "my-old-secret");
+    otherToken = createToken("my-other-application-id", "my-other-secret");
+  }
+
+  @Test
+  void theTokenVerifiesWithTheSecretOfItsApplication() {
+    final KeyRing keyRing = new KeyRing();
+
+    keyRing.addSecret("my-application-id", "my-old-secret");
+    keyRing.addSecret("my-other-application-id", "my-other-secret");
+
+    final DigestTokens.VerifyAndDecodeResult result = new DigestTokens().verifyAndDecode(keyRing, token);
+
+    Assert.assertTrue(result.isVerified());
+    Assert.assertEquals(result.getValue().getString("applicationId"), "my-application-id");
+    Assert.assertEquals(new DigestTokens().verify(keyRing, otherToken), ECode.VERIFIED);
+  }
+
+  @Test
+  void theTokenOfAnUnknownApplicationFailsToVerify() {
+    final KeyRing keyRing = new KeyRing();
+
+    keyRing.addSecret("my-application-id", "my-old-secret");
+
+    Assert.assertEquals(new DigestTokens().verify(keyRing, otherToken), ECode.BAD_DIGEST);
+    Assert.assertEquals(new DigestTokens().verify(keyRing, "not-a-token"), ECode.NOT_A_DIGEST_TOKEN);
+  }
+
+  @Test
+  void theSecretThatVerifiedIsTriedFirst() {
+    final KeyRing keyRing = new KeyRing();
+
+    keyRing.setSecrets("my-application-id", "my-new-secret", "my-old-secret");
+
+    Assert.assertEquals(new DigestTokens().verify(keyRing, token), ECode.VERIFIED);
+    Assert.assertEquals(keyRing.getSecrets("my-application-id"), Arrays.asList("my-old-secret", "my-new-secret"));
+  }
+
+  @Test
+  void theTokenFailsToVerifyOnceItsSecretIsRemoved() {
+    final HmacKeyCache keyCache = new HmacKeyCache(16);
+    final KeyRing keyRing = new KeyRing(keyCache);
+    final DigestTokens digestTokens = new DigestTokens(keyCache);
+
+    keyRing.setSecrets("my-application-id", "my-new-secret", "my-old-secret");
+
+    Assert.assertEquals(digestTokens.verify(keyRing, token), ECode.VERIFIED);
+    Assert.assertEquals(keyCache.size(), 2);
+
+    keyRing.removeSecret("my-application-id", "my-old-secret");
+
+    Assert.assertEquals(keyCache.size(), 1);
+    Assert.assertEquals(digestTokens.verify(keyRing, token), ECode.BAD_DIGEST);
+  }
+
+  @Test
+  void theTokenFailsToVerifyOnceItsApplicationIsRemoved() {
+    final KeyRing keyRing = new KeyRing();
+
+    keyRing.addSecret("my-application-id", "my-old-secret");
+    keyRing.removeApplication("my-application-id");
+
+    Assert.assertEquals(keyRing.getSecrets("my-application-id").size(), 0);
+    Assert.assertEquals(new DigestTokens().verify(keyRing, token), ECode.BAD_DIGEST);
+  }
+
+  private static String createToken(String applicationId, String secret) {
+    return new TokenBuilder()
+        .withApplicationId(applicationId)
+        .withSecret(secret)
+        .expiresAt(new Date(1000L))
+        .forChannelAlias("my-channel")
+        .build();
+  }
+}
@@ -0,0 +1,167 @@
+package com.phenixrts.edgeauth;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenVerifyingWithAMappedSecretsFile {
+  private final List<Path> directories = new ArrayList<>();
+  private String token;
+  private Map<String, List<String>> secrets;
+
+  @BeforeTest
+  void givenATokenAndTheSecretsOfManyApplications() {
+    token = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(new Date(1000L))
+        .forChannelAlias("my-channel")
+        .build();
+    secrets = new HashMap<>();
+
+    for (int i = 0; i < 1000; i++) {
+      secrets.put("application-" + i, Collections.singletonList("secret-" + i));
+    }
+
+    secrets.put("my-application-id", Arrays.asList("my-new-secret", "my-secret"));
+    secrets.put("my-application-id-\u00e9", Collections.singletonList("my-secret-\u00e9"));
+  }
+
+  @Test
+  void theSecretsAreLookedUpByApplicationId() throws IOException {
+    try (MappedSecretsFile secretsFile = MappedSecretsFile.open(writeSecrets(secrets))) {
+      Assert.assertEquals(secretsFile.getApplicationCount(), 1002);
+      Assert.assertEquals(secretsFile.lookupSecrets("my-application-id"), new String[]{"my-new-secret", "my-secret"});
+      Assert.assertEquals(secretsFile.lookupSecrets("application-500"), new String[]{"secret-500"});
+      Assert.assertEquals(secretsFile.lookupSecrets("my-application-id-\u00e9"), new String[]{"my-secret-\u00e9"});
+      Assert.assertEquals(secretsFile.lookupSecrets("unknown-application").length, 0);
+    }
+  }
+
+  @AfterMethod
+  void deleteTheSecretsFiles() throws IOException {
+    for (Path directory : directories) {
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+        for (Path file : files) {
+          Files.delete(file);
+        }
+      }
+
+      Files.delete(directory);
+    }
+
+    directories.clear();
+  }
+
+  @Test
+  void theSecretsOfAnApplicationAreDecodedOnce() throws IOException {
+    final Path path = writeSecrets(secrets);
+
+    try (MappedSecretsFile secretsFile = MappedSecretsFile.open(path)) {
+      final String[] applicationSecrets = secretsFile.lookupSecrets("my-application-id");
+
+      Assert.assertSame(secretsFile.lookupSecrets("my-application-id"), applicationSecrets);
+
+      MappedSecretsFile.write(path, Collections.singletonMap("my-application-id", Collections.singletonList("my-secret")));
+
+      Assert.assertTrue(secretsFile.reload());
+      Assert.assertEquals(secretsFile.lookupSecrets("my-application-id"), new String[]{"my-secret"});
+    }
+  }
+
+  @Test
+  void secretsRemovedByAReloadAreDroppedFromTheKeyCache() throws IOException {
+    final HmacKeyCache keyCache = new HmacKeyCache(16);
+    final DigestTokens digestTokens = new DigestTokens(keyCache);
+    final Map<String, List<String>> reloadedSecrets = new HashMap<>(secrets);
+
+    reloadedSecrets.put("my-application-id", Collections.singletonList("my-new-secret"));
+
+    final Path path = writeSecrets(secrets);
+
+    try (MappedSecretsFile secretsFile = MappedSecretsFile.open(path, keyCache)) {
+      Assert.assertEquals(digestTokens.verify(secretsFile, token), ECode.VERIFIED);
+      Assert.assertEquals(keyCache.size(), 2);
+
+      MappedSecretsFile.write(path, reloadedSecrets);
+
+      Assert.assertTrue(secretsFile.reload());
+      Assert.assertEquals(keyCache.size(), 1);
+      Assert.assertEquals(digestTokens.verify(secretsFile, token), ECode.BAD_DIGEST);
+    }
+  }
+
+  @Test
+  void theTokenVerifiesWithTheSecretsOfItsApplication() throws IOException {
+    try (MappedSecretsFile secretsFile = MappedSecretsFile.open(writeSecrets(secrets))) {
+      Assert.assertEquals(new DigestTokens().verify(secretsFile, token), ECode.VERIFIED);
+    }
+  }
+
+  @Test
+  void aReplacedFileIsSwappedInOnReload() throws IOException {
+    final Path path = writeSecrets(secrets);
+
+    try (MappedSecretsFile secretsFile = MappedSecretsFile.open(path)) {
+      MappedSecretsFile.write(path, Collections.singletonMap("my-application-id", Collections.singletonList("my-new-secret")));
+
+      Assert.assertTrue(secretsFile.reload());
+      Assert.assertEquals(secretsFile.getApplicationCount(), 1);
+      Assert.assertEquals(new DigestTokens().verify(secretsFile, token), ECode.BAD_DIGEST);
+    }
+  }
+
+  @Test
+  void anInvalidFileIsIgnoredOnReload() throws IOException {
+    final Path path = writeSecrets(secrets);
+
+    try (MappedSecretsFile secretsFile = MappedSecretsFile.open(path)) {
+      Files.write(path.resolveSibling("invalid"), new byte[]{'E', 'A', 'S', 'F', 0, 0});
+      Files.move(path.resolveSibling("invalid"), path, StandardCopyOption.REPLACE_EXISTING);
+
+      Assert.assertFalse(secretsFile.reload());
+      Assert.assertEquals(new DigestTokens().verify(secretsFile, token), ECode.VERIFIED);
+    }
+  }
+
+  @Test
+  void aWatchedFileIsReloadedWhenItIsReplaced() throws IOException, InterruptedException {
+    final Path path = writeSecrets(secrets);
+
+    try (MappedSecretsFile secretsFile = MappedSecretsFile.watch(path)) {
+      MappedSecretsFile.write(path, Collections.singletonMap("my-application-id", Collections.singletonList("my-secret")));
+
+      for (int i = 0; i < 300 && secretsFile.getApplicationCount() != 1; i++) {
+        Thread.sleep(100);
+      }
+
+      Assert.assertEquals(secretsFile.getApplicationCount(), 1);
+      Assert.assertEquals(new DigestTokens().verify(secretsFile, token), ECode.VERIFIED);
+    }
+  }
+
+  private Path writeSecrets(Map<String, List<String>> secrets) throws IOException {
+    final Path directory = Files.createTempDirectory("edge-auth");
+    final Path path = directory.resolve("secrets.bin");
+
+    directories.add(directory);
+
+    MappedSecretsFile.write(path, secrets);
+
+    return path;
+  }
+}
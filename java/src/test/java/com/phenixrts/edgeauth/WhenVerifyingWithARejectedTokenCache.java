@@ -0,0 +1,98 @@
+package com.phenixrts.edgeauth;
+
+import java.util.Date;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenVerifyingWithARejectedTokenCache {
+  private final long[] now = new long[1];
+  private final Clock clock = new Clock() {
+    @Override
+    public long currentTimeMillis() {
+      return now[0];
+    }
+  };
+  private String token;
+
+  @BeforeTest
+  void givenAToken() {
+    now[0] = 1000L;
+    token = new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(new Date(2000L))
+        .forChannelAlias("my-channel")
+        .build();
+  }
+
+  @Test
+  void aRepeatedBadDigestIsAHit() {
+    final RejectedTokenCache cache = new RejectedTokenCache(16, 1000L);
+    final DigestTokens digestTokens = createDigestTokens(cache);
+
+    Assert.assertEquals(digestTokens.verify("bad-secret", token), ECode.BAD_DIGEST);
+    Assert.assertEquals(digestTokens.verifyAndDecode("bad-secret", token).getCode(), ECode.BAD_DIGEST);
+    Assert.assertEquals(cache.getMissCount(), 1);
+    Assert.assertEquals(cache.getHitCount(), 1);
+  }
+
+  @Test
+  void aRepeatedBadTokenIsAHit() {
+    final RejectedTokenCache cache = new RejectedTokenCache(16, 1000L);
+    final DigestTokens digestTokens = createDigestTokens(cache);
+
+    Assert.assertEquals(digestTokens.verify("my-secret", "DIGEST:e30"), ECode.BAD_TOKEN);
+    Assert.assertEquals(digestTokens.verify("my-secret", "DIGEST:e30"), ECode.BAD_TOKEN);
+    Assert.assertEquals(cache.getHitCount(), 1);
+  }
+
+  @Test
+  void aRejectedTokenStillVerifiesWithTheRightSecret() {
+    final RejectedTokenCache cache = new RejectedTokenCache(16, 1000L);
+    final DigestTokens digestTokens = createDigestTokens(cache);
+
+    Assert.assertEquals(digestTokens.verify("bad-secret", token), ECode.BAD_DIGEST);
+    Assert.assertEquals(digestTokens.verify("my-secret", token), ECode.VERIFIED);
+    Assert.assertEquals(cache.getHitCount(), 0);
+  }
+
+  @Test
+  void aRejectedTokenIsForgottenAfterItsTimeToLive() {
+    final RejectedTokenCache cache = new RejectedTokenCache(16, 1000L);
+    final DigestTokens digestTokens = createDigestTokens(cache);
+
+    Assert.assertEquals(digestTokens.verify("bad-secret", token), ECode.BAD_DIGEST);
+
+    now[0] = 2000L;
+
+    try {
+      Assert.assertEquals(digestTokens.verify("bad-secret", token), ECode.BAD_DIGEST);
+      Assert.assertEquals(cache.getHitCount(), 0);
+      Assert.assertEquals(cache.getEvictionCount(), 1);
+    } finally {
+      now[0] = 1000L;
+    }
+  }
+
+  @Test
+  void theCacheHoldsAtMostItsCapacity() {
+    final RejectedTokenCache cache = new RejectedTokenCache(4, 1000L);
+    final DigestTokens digestTokens = createDigestTokens(cache);
+
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals(digestTokens.verify("bad-secret-" + i, token), ECode.BAD_DIGEST);
+    }
+
+    Assert.assertEquals(cache.getCapacity(), 4);
+    Assert.assertEquals(cache.getEvictionCount(), 6);
+  }
+
+  private DigestTokens createDigestTokens(RejectedTokenCache cache) {
+    return new DigestTokens(new VerifierPolicy.Builder()
+        .withClock(clock)
+        .withRejectedTokenCache(cache)
+        .build());
+  }
+}
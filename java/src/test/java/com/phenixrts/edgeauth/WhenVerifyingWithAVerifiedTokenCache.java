@@ -0,0 +1,156 @@
+package com.phenixrts.edgeauth;
+
+import java.util.Date;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+public class WhenVerifyingWithAVerifiedTokenCache {
+  private final long[] now = new long[1];
+  private final Clock clock = new Clock() {
+    @Override
+    public long currentTimeMillis() {
+      return now[0];
+    }
+  };
+  private String token;
+
+  @BeforeTest
+  void givenATokenThatExpiresLater() {
+    now[0] = 1000L;
+    token = createToken("my-channel", 2000L);
+  }
+
+  @Test
+  void theSecondVerificationIsAHit() {
+    final VerifiedTokenCache cache = new VerifiedTokenCache(1024 * 1024);
+    final DigestTokens digestTokens = createDigestTokens(cache);
+
+    final DigestTokens.VerifyAndDecodeResult first = digestTokens.verifyAndDecode("my-secret", token);
+    final DigestTokens.VerifyAndDecodeResult second = digestTokens.verifyAndDecode("my-secret", token);
+
+    Assert.assertTrue(first.isVerified());
+    Assert.assertSame(second, digestTokens.verifyAndDecode("my-secret", token));
+    Assert.assertEquals(second.getDecodedToken().getRequiredTag(), "channelAlias:my-channel");
+    Assert.assertEquals(digestTokens.verify("my-secret", token), ECode.VERIFIED);
+    Assert.assertEquals(cache.size(), 1);
+    Assert.assertEquals(cache.getMissCount(), 1);
+    Assert.assertEquals(cache.getHitCount(), 3);
+  }
+
+  @Test
+  void aCachedTokenDoesNotVerifyWithAnotherSecret() {
+    final VerifiedTokenCache cache = new VerifiedTokenCache(1024 * 1024);
+    final DigestTokens digestTokens = createDigestTokens(cache);
+
+    Assert.assertEquals(digestTokens.verify("my-secret", token), ECode.VERIFIED);
+    Assert.assertEquals(digestTokens.verify("bad-secret", token), ECode.BAD_DIGEST);
+    Assert.assertEquals(cache.getHitCount(), 0);
+  }
+
+  @Test
+  void aTokenVerifiedWithAKeyRingIsAHitWithoutDecodingIt() {
+    final VerifiedTokenCache cache = new VerifiedTokenCache(1024 * 1024);
+    final DigestTokens digestTokens = createDigestTokens(cache);
+    final KeyRing keyRing = new KeyRing();
+
+    keyRing.setSecrets("my-application-id", "other-secret", "my-secret");
+
+    final DigestTokens.VerifyAndDecodeResult first = digestTokens.verifyAndDecode(keyRing, token);
+    final DigestTokens.VerifyAndDecodeResult second = digestTokens.verifyAndDecode(keyRing, token);
+
+    Assert.assertTrue(first.isVerified());
+    Assert.assertSame(second, digestTokens.verifyAndDecode(keyRing, token));
+    Assert.assertEquals(digestTokens.verify(keyRing, token), ECode.VERIFIED);
+    Assert.assertEquals(cache.getMissCount(), 1);
+    Assert.assertEquals(cache.getHitCount(), 3);
+    Assert.assertEquals(keyRing.getSecrets("my-application-id").get(0), "my-secret");
+  }
+
+  @Test
+  void aCachedTokenDoesNotVerifyOnceItsSecretIsRemovedFromTheKeyRing() {
+    final VerifiedTokenCache cache = new VerifiedTokenCache(1024 * 1024);
+    final DigestTokens digestTokens = createDigestTokens(cache);
+    final KeyRing keyRing = new KeyRing();
+
+    keyRing.addSecret("my-application-id", "my-secret");
+
+    Assert.assertEquals(digestTokens.verify(keyRing, token), ECode.VERIFIED);
+
+    keyRing.setSecrets("my-application-id", "other-secret");
+
+    Assert.assertEquals(digestTokens.verify(keyRing, token), ECode.BAD_DIGEST);
+
+    keyRing.removeApplication("my-application-id");
+
+    Assert.assertEquals(digestTokens.verifyAndDecode(keyRing, token).getCode(), ECode.BAD_DIGEST);
+    Assert.assertEquals(cache.getHitCount(), 0);
+  }
+
+  @Test
+  void aCachedTokenIsEvictedWhenItExpires() {
+    final VerifiedTokenCache cache = new VerifiedTokenCache(1024 * 1024);
+    final DigestTokens digestTokens = createDigestTokens(cache);
+    final String expiringToken = createToken("my-channel", 1500L);
+
+    Assert.assertEquals(digestTokens.verify("my-secret", expiringToken), ECode.VERIFIED);
+    Assert.assertEquals(cache.size(), 1);
+
+    now[0] = 1500L;
+
+    try {
+      Assert.assertEquals(digestTokens.verify("my-secret", expiringToken), ECode.VERIFIED);
+      Assert.assertEquals(cache.size(), 0);
+      Assert.assertEquals(cache.getEvictionCount(), 1);
+      Assert.assertEquals(cache.getHitCount(), 0);
+    } finally {
+      now[0] = 1000L;
+    }
+  }
+
+  @Test
+  void theCacheStaysWithinItsMemory() {
+    final VerifiedTokenCache cache = new VerifiedTokenCache(64 * 1024);
+    final DigestTokens digestTokens = createDigestTokens(cache);
+
+    for (int i = 0; i < 100; i++) {
+      Assert.assertEquals(digestTokens.verify("my-secret", createToken("my-channel-" + i, 2000L + i)), ECode.VERIFIED);
+      Assert.assertTrue(cache.getMemory() <= cache.getMaxMemory());
+    }
+
+    Assert.assertTrue(cache.getEvictionCount() > 0);
+    Assert.assertEquals(cache.size(), 100 - cache.getEvictionCount());
+  }
+
+  @Test
+  void theCacheCanBeInvalidated() {
+    final VerifiedTokenCache cache = new VerifiedTokenCache(1024 * 1024);
+    final DigestTokens digestTokens = createDigestTokens(cache);
+
+    Assert.assertEquals(digestTokens.verify("my-secret", token), ECode.VERIFIED);
+
+    cache.invalidateAll();
+
+    Assert.assertEquals(cache.size(), 0);
+    Assert.assertEquals(digestTokens.verify("my-secret", token), ECode.VERIFIED);
+    Assert.assertEquals(cache.getHitCount(), 0);
+  }
+
+  private DigestTokens createDigestTokens(VerifiedTokenCache cache) {
+    return new DigestTokens(new VerifierPolicy.Builder()
+        .rejectExpiredTokens()
+        .withClock(clock)
+        .withVerifiedTokenCache(cache)
+        .build());
+  }
+
+  private static String createToken(String channelAlias, long expires) {
+    return new TokenBuilder()
+        .withApplicationId("my-application-id")
+        .withSecret("my-secret")
+        .expiresAt(new Date(expires))
+        .forChannelAlias(channelAlias)
+        .build();
+  }
+}